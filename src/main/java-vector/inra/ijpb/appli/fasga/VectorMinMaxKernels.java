@@ -0,0 +1,118 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Implementation of the min/max kernels based on the Vector API of the JDK.
+ * The values are compared as unsigned bytes, using the preferred vector size
+ * of the platform. The values at the end of the rows that do not fill a whole
+ * vector are processed with scalar code.
+ *
+ * This class requires the jdk.incubator.vector module, and is loaded by
+ * reflection from the MinMaxKernels class.
+ *
+ * @see MinMaxKernels
+ * @author David Legland
+ *
+ */
+public class VectorMinMaxKernels extends MinMaxKernels
+{
+	private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+	/**
+	 * Creates the kernels. Fails if the incubator module is not available.
+	 */
+	public VectorMinMaxKernels()
+	{
+		// force the initialization of the Vector API
+		SPECIES.length();
+	}
+
+	@Override
+	public String getName()
+	{
+		return "vector" + SPECIES.vectorBitSize();
+	}
+
+	@Override
+	public void max(byte[] target, byte[] source, int from, int to)
+	{
+		int i = from;
+		int upperBound = from + SPECIES.loopBound(to - from);
+		for (; i < upperBound; i += SPECIES.length())
+		{
+			ByteVector v1 = ByteVector.fromArray(SPECIES, target, i);
+			ByteVector v2 = ByteVector.fromArray(SPECIES, source, i);
+			VectorMask<Byte> greater = v2.compare(VectorOperators.UNSIGNED_GT, v1);
+			v1.blend(v2, greater).intoArray(target, i);
+		}
+		for (; i < to; i++)
+		{
+			if ((source[i] & 0xFF) > (target[i] & 0xFF))
+				target[i] = source[i];
+		}
+	}
+
+	@Override
+	public void min(byte[] target, byte[] source, int from, int to)
+	{
+		int i = from;
+		int upperBound = from + SPECIES.loopBound(to - from);
+		for (; i < upperBound; i += SPECIES.length())
+		{
+			ByteVector v1 = ByteVector.fromArray(SPECIES, target, i);
+			ByteVector v2 = ByteVector.fromArray(SPECIES, source, i);
+			VectorMask<Byte> lower = v2.compare(VectorOperators.UNSIGNED_LT, v1);
+			v1.blend(v2, lower).intoArray(target, i);
+		}
+		for (; i < to; i++)
+		{
+			if ((source[i] & 0xFF) < (target[i] & 0xFF))
+				target[i] = source[i];
+		}
+	}
+
+	@Override
+	public void max(byte[] source1, int offset1, byte[] source2, int offset2,
+			byte[] target, int length)
+	{
+		int i = 0;
+		int upperBound = SPECIES.loopBound(length);
+		for (; i < upperBound; i += SPECIES.length())
+		{
+			ByteVector v1 = ByteVector.fromArray(SPECIES, source1, offset1 + i);
+			ByteVector v2 = ByteVector.fromArray(SPECIES, source2, offset2 + i);
+			VectorMask<Byte> greater = v2.compare(VectorOperators.UNSIGNED_GT, v1);
+			v1.blend(v2, greater).intoArray(target, i);
+		}
+		for (; i < length; i++)
+		{
+			target[i] = (byte) Math.max(source1[offset1 + i] & 0xFF, source2[offset2 + i] & 0xFF);
+		}
+	}
+
+	@Override
+	public void min(byte[] source1, int offset1, byte[] source2, int offset2,
+			byte[] target, int length)
+	{
+		int i = 0;
+		int upperBound = SPECIES.loopBound(length);
+		for (; i < upperBound; i += SPECIES.length())
+		{
+			ByteVector v1 = ByteVector.fromArray(SPECIES, source1, offset1 + i);
+			ByteVector v2 = ByteVector.fromArray(SPECIES, source2, offset2 + i);
+			VectorMask<Byte> lower = v2.compare(VectorOperators.UNSIGNED_LT, v1);
+			v1.blend(v2, lower).intoArray(target, i);
+		}
+		for (; i < length; i++)
+		{
+			target[i] = (byte) Math.min(source1[offset1 + i] & 0xFF, source2[offset2 + i] & 0xFF);
+		}
+	}
+}
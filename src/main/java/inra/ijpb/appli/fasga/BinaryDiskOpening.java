@@ -0,0 +1,259 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import ij.Prefs;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Morphological opening of binary images by a disk, computed from two
+ * Euclidean distance transforms.
+ *
+ * The erosion by the disk keeps the pixels whose squared distance to the
+ * nearest background pixel is greater than the squared radius of the disk.
+ * The dilation of the eroded image keeps the pixels whose squared distance
+ * to the nearest pixel of the erosion is smaller than or equal to the squared
+ * radius. The squared distances are computed exactly with the algorithm of
+ * Meijster et al., whose computation time is linear in the number of pixels
+ * and does not depend on the radius of the disk.
+ *
+ * The disk contains the pixels (x,y) such that x^2 + y^2 &lt;= r^2 + 1, like
+ * the disks used by the RankFilters class of ImageJ, and by the DiskStrel
+ * class of MorphoLibJ. The border of the image is handled by replicating the
+ * values of the border, so the result is the same as the opening computed
+ * with a DiskStrel of the same radius.
+ *
+ * References:
+ * <ul>
+ * <li>A. Meijster, J.B.T.M. Roerdink and W.H. Hesselink, "A general algorithm
+ * for computing distance transforms in linear time", Mathematical Morphology
+ * and its Applications to Image and Signal Processing (2000), 331-340.</li>
+ * </ul>
+ *
+ * @author David Legland
+ *
+ */
+public class BinaryDiskOpening
+{
+	/**
+	 * Applies a morphological opening by a disk on a binary image.
+	 *
+	 * @param image
+	 *            a binary image, where non-zero values correspond to the
+	 *            foreground
+	 * @param radius
+	 *            the radius of the disk, in pixels
+	 * @return a new binary image with the value 255 for the foreground
+	 */
+	public static final ByteProcessor opening(ImageProcessor image, int radius)
+	{
+		return opening(image, radius, Prefs.getThreads());
+	}
+
+	/**
+	 * Applies a morphological opening by a disk on a binary image, using the
+	 * specified number of threads.
+	 *
+	 * @param image
+	 *            a binary image, where non-zero values correspond to the
+	 *            foreground
+	 * @param radius
+	 *            the radius of the disk, in pixels
+	 * @param nThreads
+	 *            the number of threads used for the distance transforms
+	 * @return a new binary image with the value 255 for the foreground
+	 */
+	public static final ByteProcessor opening(ImageProcessor image, int radius, int nThreads)
+	{
+		if (radius < 0)
+		{
+			throw new IllegalArgumentException("Radius must be positive or zero");
+		}
+
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int size = width * height;
+		long radius2 = (long) radius * radius + 1;
+
+		BufferPool pool = BufferPool.getInstance();
+		int[] distances = pool.borrowInts(size);
+		byte[] values = new byte[size];
+		for (int i = 0; i < size; i++)
+		{
+			values[i] = image.get(i) != 0 ? (byte) 255 : 0;
+		}
+
+		// erosion: pixels far enough from the background
+		squaredDistances(values, (byte) 0, width, height, distances, nThreads);
+		for (int i = 0; i < size; i++)
+		{
+			values[i] = distances[i] > radius2 ? (byte) 255 : 0;
+		}
+
+		// dilation: pixels close enough to the erosion
+		squaredDistances(values, (byte) 255, width, height, distances, nThreads);
+		for (int i = 0; i < size; i++)
+		{
+			values[i] = distances[i] <= radius2 ? (byte) 255 : 0;
+		}
+
+		pool.release(distances);
+		return new ByteProcessor(width, height, values);
+	}
+
+	/**
+	 * Computes, for each pixel, the squared Euclidean distance to the nearest
+	 * pixel with the feature value. If the image does not contain the
+	 * feature value, the distances are set to Integer.MAX_VALUE. The columns,
+	 * then the rows, are processed by bands in parallel.
+	 */
+	static final void squaredDistances(final byte[] values, final byte feature,
+			final int width, final int height, final int[] distances, int nThreads)
+	{
+		// the distance used for columns without feature, larger than any
+		// distance within the image
+		final int infinity = width + height;
+		nThreads = Math.max(nThreads, 1);
+
+		// first phase: distance to the nearest feature within each column
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(nThreads);
+		for (int t = 0; t < nThreads; t++)
+		{
+			final int x0 = width * t / nThreads;
+			final int x1 = width * (t + 1) / nThreads;
+			tasks.add(new Callable<Void>()
+			{
+				@Override
+				public Void call()
+				{
+					// scan downwards, then upwards, row by row for memory
+					// locality
+					for (int x = x0; x < x1; x++)
+					{
+						distances[x] = values[x] == feature ? 0 : infinity;
+					}
+					for (int y = 1; y < height; y++)
+					{
+						PreviewExecutor.checkCanceled();
+						int offset = y * width;
+						for (int i = offset + x0; i < offset + x1; i++)
+						{
+							distances[i] = values[i] == feature ? 0 : Math.min(distances[i - width] + 1, infinity);
+						}
+					}
+					for (int y = height - 2; y >= 0; y--)
+					{
+						int offset = y * width;
+						for (int i = offset + x0; i < offset + x1; i++)
+						{
+							distances[i] = Math.min(distances[i], distances[i + width] + 1);
+						}
+					}
+					return null;
+				}
+			});
+		}
+		ThreadUtils.invokeAll(tasks, nThreads);
+
+		// second phase: lower envelope of the parabolas along each row
+		tasks.clear();
+		for (int t = 0; t < nThreads; t++)
+		{
+			final int y0 = height * t / nThreads;
+			final int y1 = height * (t + 1) / nThreads;
+			tasks.add(new Callable<Void>()
+			{
+				@Override
+				public Void call()
+				{
+					long[] g2 = new long[width];
+					int[] s = new int[width];
+					int[] t = new int[width];
+					for (int y = y0; y < y1; y++)
+					{
+						PreviewExecutor.checkCanceled();
+						int offset = y * width;
+						for (int x = 0; x < width; x++)
+						{
+							long g = distances[offset + x];
+							g2[x] = g * g;
+						}
+						envelopeRow(g2, s, t, width, distances, offset, (long) infinity * infinity);
+					}
+					return null;
+				}
+			});
+		}
+		ThreadUtils.invokeAll(tasks, nThreads);
+	}
+
+	/**
+	 * Computes the squared distances along a row, from the squared column
+	 * distances, and stores them in the distances array.
+	 */
+	private static final void envelopeRow(long[] g2, int[] s, int[] t, int width,
+			int[] distances, int offset, long infinity2)
+	{
+		// build the lower envelope of the parabolas
+		int q = 0;
+		s[0] = 0;
+		t[0] = 0;
+		for (int u = 1; u < width; u++)
+		{
+			while (q >= 0 && f(t[q], s[q], g2) > f(t[q], u, g2))
+			{
+				q--;
+			}
+			if (q < 0)
+			{
+				q = 0;
+				s[0] = u;
+			}
+			else
+			{
+				long w = 1 + separation(s[q], u, g2);
+				if (w < width)
+				{
+					q++;
+					s[q] = u;
+					t[q] = (int) w;
+				}
+			}
+		}
+
+		// scan the envelope backwards
+		for (int u = width - 1; u >= 0; u--)
+		{
+			long d = f(u, s[q], g2);
+			distances[offset + u] = g2[s[q]] >= infinity2 ? Integer.MAX_VALUE : (int) Math.min(d, Integer.MAX_VALUE);
+			if (u == t[q])
+			{
+				q--;
+			}
+		}
+	}
+
+	private static final long f(int x, int i, long[] g2)
+	{
+		long dx = x - i;
+		return dx * dx + g2[i];
+	}
+
+	/**
+	 * Returns the abscissa from which the parabola of u is below the parabola
+	 * of i, rounded downwards.
+	 */
+	private static final long separation(int i, int u, long[] g2)
+	{
+		long num = (long) u * u - (long) i * i + g2[u] - g2[i];
+		long den = 2L * (u - i);
+		long quot = num / den;
+		return (num % den != 0 && num < 0) ? quot - 1 : quot;
+	}
+}
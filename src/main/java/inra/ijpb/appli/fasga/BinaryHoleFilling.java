@@ -0,0 +1,367 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Reconstruction;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Fills the holes of binary images, by flood-filling the background from the
+ * image borders.
+ *
+ * The background pixels connected to the border are identified with a
+ * scanline flood-fill: each span of background pixels along a row is filled
+ * at once, and only one seed per span of fillable pixels is pushed on the
+ * stack for the neighbor rows. The remaining background pixels are holes, and
+ * are added to the foreground. The computation time is linear in the number
+ * of pixels.
+ *
+ * The result is the same as the fillHoles() method of the Reconstruction
+ * class of MorphoLibJ applied on a binary image, that uses the
+ * 4-connectivity for the background. The holes of a BitMask can be filled
+ * without converting it into a binary image.
+ *
+ * @author David Legland
+ *
+ */
+public class BinaryHoleFilling
+{
+	// values of the result during the computation
+	private static final byte FOREGROUND = (byte) 255;
+	private static final byte HOLE = 1;
+	private static final byte OUTER_BACKGROUND = 0;
+
+	/**
+	 * Fills the holes of a binary image.
+	 *
+	 * @param image
+	 *            a binary image, where non-zero values correspond to the
+	 *            foreground
+	 * @return a new binary image with the value 255 for the foreground and the
+	 *         holes, and 0 for the background connected to the image border
+	 */
+	public static final ByteProcessor fillHoles(ImageProcessor image)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+
+		// initialize the result: background pixels are holes until they are
+		// reached from the border
+		byte[] result = new byte[width * height];
+		if (image instanceof ByteProcessor)
+		{
+			byte[] pixels = (byte[]) image.getPixels();
+			for (int i = 0; i < result.length; i++)
+			{
+				result[i] = pixels[i] != 0 ? FOREGROUND : HOLE;
+			}
+		}
+		else
+		{
+			for (int i = 0; i < result.length; i++)
+			{
+				result[i] = image.get(i) != 0 ? FOREGROUND : HOLE;
+			}
+		}
+
+		// flood-fill the background from each pixel of the border
+		IntStack stack = new IntStack(Math.max(width, height) * 4);
+		for (int x = 0; x < width; x++)
+		{
+			stack.push(x);
+			stack.push((height - 1) * width + x);
+		}
+		for (int y = 1; y < height - 1; y++)
+		{
+			stack.push(y * width);
+			stack.push(y * width + width - 1);
+		}
+		floodFill(result, width, height, stack);
+
+		// the pixels that were not reached are holes
+		for (int i = 0; i < result.length; i++)
+		{
+			if (result[i] == HOLE)
+			{
+				result[i] = FOREGROUND;
+			}
+		}
+
+		return new ByteProcessor(width, height, result);
+	}
+
+	/**
+	 * Fills the holes of a binary mask.
+	 *
+	 * @param mask
+	 *            a binary mask
+	 * @return a new mask containing the pixels of the mask and the holes
+	 */
+	public static final BitMask fillHoles(BitMask mask)
+	{
+		int width = mask.getWidth();
+		int height = mask.getHeight();
+
+		// flood-fill the background from each pixel of the border
+		BitMask outer = new BitMask(width, height);
+		IntStack stack = new IntStack(Math.max(width, height) * 4);
+		for (int x = 0; x < width; x++)
+		{
+			stack.push(x);
+			stack.push((height - 1) * width + x);
+		}
+		for (int y = 1; y < height - 1; y++)
+		{
+			stack.push(y * width);
+			stack.push(y * width + width - 1);
+		}
+		floodFill(mask, outer, stack);
+
+		// the pixels that were not reached are the foreground and the holes
+		return outer.not();
+	}
+
+	/**
+	 * Replaces by the outer background value all the hole pixels that are
+	 * 4-connected to the seeds in the stack.
+	 */
+	private static final void floodFill(byte[] values, int width, int height, IntStack stack)
+	{
+		while (!stack.isEmpty())
+		{
+			int seed = stack.pop();
+			if (values[seed] != HOLE)
+			{
+				continue;
+			}
+
+			// find the extent of the span containing the seed
+			int y = seed / width;
+			int offset = y * width;
+			int x0 = seed - offset;
+			int x1 = x0;
+			while (x0 > 0 && values[offset + x0 - 1] == HOLE)
+			{
+				x0--;
+			}
+			while (x1 < width - 1 && values[offset + x1 + 1] == HOLE)
+			{
+				x1++;
+			}
+			Arrays.fill(values, offset + x0, offset + x1 + 1, OUTER_BACKGROUND);
+
+			// push a seed for each span of holes in the neighbor rows
+			if (y > 0)
+			{
+				pushSpans(values, offset - width, x0, x1, stack);
+			}
+			if (y < height - 1)
+			{
+				pushSpans(values, offset + width, x0, x1, stack);
+			}
+		}
+	}
+
+	/**
+	 * Pushes the index of the first pixel of each span of holes found within
+	 * the specified range of a row.
+	 */
+	private static final void pushSpans(byte[] values, int offset, int x0, int x1, IntStack stack)
+	{
+		boolean inSpan = false;
+		for (int x = x0; x <= x1; x++)
+		{
+			if (values[offset + x] == HOLE)
+			{
+				if (!inSpan)
+				{
+					stack.push(offset + x);
+					inSpan = true;
+				}
+			}
+			else
+			{
+				inSpan = false;
+			}
+		}
+	}
+
+	/**
+	 * Adds to the outer background all the background pixels of the mask
+	 * that are 4-connected to the seeds in the stack.
+	 */
+	private static final void floodFill(BitMask mask, BitMask outer, IntStack stack)
+	{
+		int width = mask.getWidth();
+		int height = mask.getHeight();
+		while (!stack.isEmpty())
+		{
+			int seed = stack.pop();
+			int y = seed / width;
+			int x0 = seed - y * width;
+			if (!isFillable(mask, outer, x0, y))
+			{
+				continue;
+			}
+
+			// find the extent of the span containing the seed
+			int x1 = x0;
+			while (x0 > 0 && isFillable(mask, outer, x0 - 1, y))
+			{
+				x0--;
+			}
+			while (x1 < width - 1 && isFillable(mask, outer, x1 + 1, y))
+			{
+				x1++;
+			}
+			for (int x = x0; x <= x1; x++)
+			{
+				outer.set(x, y, true);
+			}
+
+			// push a seed for each span of fillable pixels in the neighbor rows
+			if (y > 0)
+			{
+				pushSpans(mask, outer, y - 1, x0, x1, stack);
+			}
+			if (y < height - 1)
+			{
+				pushSpans(mask, outer, y + 1, x0, x1, stack);
+			}
+		}
+	}
+
+	/**
+	 * Pushes the index of the first pixel of each span of fillable pixels
+	 * found within the specified range of a row.
+	 */
+	private static final void pushSpans(BitMask mask, BitMask outer, int y, int x0, int x1, IntStack stack)
+	{
+		int offset = y * mask.getWidth();
+		boolean inSpan = false;
+		for (int x = x0; x <= x1; x++)
+		{
+			if (isFillable(mask, outer, x, y))
+			{
+				if (!inSpan)
+				{
+					stack.push(offset + x);
+					inSpan = true;
+				}
+			}
+			else
+			{
+				inSpan = false;
+			}
+		}
+	}
+
+	/**
+	 * Checks if a pixel belongs to the background of the mask, and was not
+	 * reached yet by the flood-fill.
+	 */
+	private static final boolean isFillable(BitMask mask, BitMask outer, int x, int y)
+	{
+		return !mask.get(x, y) && !outer.get(x, y);
+	}
+
+	/**
+	 * A growable stack of int values.
+	 */
+	private static final class IntStack
+	{
+		int[] values;
+		int size = 0;
+
+		IntStack(int capacity)
+		{
+			this.values = new int[Math.max(capacity, 16)];
+		}
+
+		void push(int value)
+		{
+			if (this.size == this.values.length)
+			{
+				this.values = Arrays.copyOf(this.values, this.size * 2);
+			}
+			this.values[this.size++] = value;
+		}
+
+		int pop()
+		{
+			return this.values[--this.size];
+		}
+
+		boolean isEmpty()
+		{
+			return this.size == 0;
+		}
+	}
+
+	/**
+	 * Compares the scanline hole filling with the reconstruction-based hole
+	 * filling of MorphoLibJ on a synthetic binary image with the size of a
+	 * slide, and prints the computation times. Exits with an error status if
+	 * the results differ.
+	 *
+	 * @param args
+	 *            not used
+	 */
+	public static final void main(String[] args)
+	{
+		int width = 8000;
+		int height = 6000;
+
+		// a large disk with many rings and small holes, and random blobs
+		ByteProcessor image = new ByteProcessor(width, height);
+		byte[] pixels = (byte[]) image.getPixels();
+		Random random = new Random(42);
+		double xc = width / 2.0;
+		double yc = height / 2.0;
+		double radius = Math.min(width, height) * .45;
+		for (int y = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++)
+			{
+				double r = Math.hypot(x - xc, y - yc);
+				boolean ring = r < radius && ((int) (r / 40)) % 3 == 0;
+				if (ring || random.nextInt(100) < 20)
+				{
+					pixels[y * width + x] = (byte) 255;
+				}
+			}
+		}
+
+		int nRepetitions = 3;
+		long refTime = Long.MAX_VALUE;
+		long scanTime = Long.MAX_VALUE;
+		ImageProcessor ref = null;
+		ImageProcessor res = null;
+		for (int r = 0; r < nRepetitions; r++)
+		{
+			long t0 = System.nanoTime();
+			ref = Reconstruction.fillHoles(image);
+			long t1 = System.nanoTime();
+			res = fillHoles(image);
+			long t2 = System.nanoTime();
+			refTime = Math.min(refTime, t1 - t0);
+			scanTime = Math.min(scanTime, t2 - t1);
+		}
+
+		System.out.println(String.format("Image %dx%d  reconstruction: %7.1f ms  scanline: %7.1f ms",
+				width, height, refTime / 1e6, scanTime / 1e6));
+		for (int i = 0; i < pixels.length; i++)
+		{
+			if ((ref.get(i) != 0) != (res.get(i) != 0))
+			{
+				System.out.println("Results differ at index " + i);
+				System.exit(1);
+			}
+		}
+	}
+}
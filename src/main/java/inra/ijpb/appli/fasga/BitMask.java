@@ -0,0 +1,336 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * A binary mask that stores one bit per pixel.
+ *
+ * Each row is stored in an integer number of 64-bits words, so that the
+ * logical operations between masks and the computation of the area process
+ * 64 pixels at a time. The bits of the last word of each row that are beyond
+ * the width of the mask are always zero.
+ *
+ * The logical operations modify the mask in place and return it, so that
+ * they can be chained without allocating intermediate images. A mask uses
+ * eight times less memory than the ByteProcessor with the same content.
+ *
+ * @author David Legland
+ *
+ */
+public class BitMask
+{
+	int width;
+	int height;
+	/** the number of words used to store each row */
+	int wordsPerRow;
+	long[] words;
+
+	/**
+	 * Creates a new empty mask.
+	 *
+	 * @param width
+	 *            the width of the mask
+	 * @param height
+	 *            the height of the mask
+	 */
+	public BitMask(int width, int height)
+	{
+		this.width = width;
+		this.height = height;
+		this.wordsPerRow = (width + 63) >>> 6;
+		this.words = new long[this.wordsPerRow * height];
+	}
+
+	/**
+	 * Creates a new mask from the non-zero pixels of an image.
+	 *
+	 * @param image
+	 *            a binary image
+	 * @return a new mask containing the non-zero pixels
+	 */
+	public static final BitMask fromImage(ImageProcessor image)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		BitMask result = new BitMask(width, height);
+		long[] words = result.words;
+		int wordsPerRow = result.wordsPerRow;
+
+		byte[] pixels = image instanceof ByteProcessor ? (byte[]) image.getPixels() : null;
+		for (int y = 0; y < height; y++)
+		{
+			int offset = y * width;
+			int wordOffset = y * wordsPerRow;
+			for (int x = 0; x < width; x++)
+			{
+				boolean inside = pixels != null ? pixels[offset + x] != 0 : image.get(offset + x) != 0;
+				if (inside)
+				{
+					words[wordOffset + (x >>> 6)] |= 1L << x;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Creates a new mask from the pixels of an image whose value is between
+	 * two bounds, as in the Threshold class of MorphoLibJ.
+	 *
+	 * @param image
+	 *            a grayscale image
+	 * @param lower
+	 *            the lower bound of the values, inclusive
+	 * @param upper
+	 *            the upper bound of the values, inclusive
+	 * @return a new mask containing the pixels with values between the bounds
+	 */
+	public static final BitMask threshold(ImageProcessor image, double lower, double upper)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		BitMask result = new BitMask(width, height);
+		long[] words = result.words;
+		int wordsPerRow = result.wordsPerRow;
+
+		for (int y = 0; y < height; y++)
+		{
+			int offset = y * width;
+			int wordOffset = y * wordsPerRow;
+			for (int x = 0; x < width; x++)
+			{
+				float value = image.getf(offset + x);
+				if (value >= lower && value <= upper)
+				{
+					words[wordOffset + (x >>> 6)] |= 1L << x;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Converts the mask into a binary image.
+	 *
+	 * @return a new binary image with the value 255 for the pixels of the mask
+	 */
+	public ByteProcessor toByteProcessor()
+	{
+		ByteProcessor result = new ByteProcessor(this.width, this.height);
+		paint(result, 255);
+		return result;
+	}
+
+	/**
+	 * Sets the pixels of an image that belong to the mask to the specified
+	 * value. The other pixels are not modified.
+	 *
+	 * @param image
+	 *            an image with the same size as the mask
+	 * @param value
+	 *            the value of the pixels of the mask
+	 */
+	public void paint(ImageProcessor image, int value)
+	{
+		checkSize(image.getWidth(), image.getHeight());
+		for (int y = 0; y < this.height; y++)
+		{
+			int offset = y * this.width;
+			int wordOffset = y * this.wordsPerRow;
+			for (int w = 0; w < this.wordsPerRow; w++)
+			{
+				// iterate over the bits set within the word
+				long word = this.words[wordOffset + w];
+				while (word != 0)
+				{
+					int x = (w << 6) + Long.numberOfTrailingZeros(word);
+					image.set(offset + x, value);
+					word &= word - 1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param x
+	 *            the x-coordinate of the pixel
+	 * @param y
+	 *            the y-coordinate of the pixel
+	 * @return true if the pixel belongs to the mask
+	 */
+	public boolean get(int x, int y)
+	{
+		return (this.words[y * this.wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+	}
+
+	/**
+	 * Adds a pixel to the mask, or removes it.
+	 *
+	 * @param x
+	 *            the x-coordinate of the pixel
+	 * @param y
+	 *            the y-coordinate of the pixel
+	 * @param inside
+	 *            true if the pixel belongs to the mask
+	 */
+	public void set(int x, int y, boolean inside)
+	{
+		int index = y * this.wordsPerRow + (x >>> 6);
+		if (inside)
+		{
+			this.words[index] |= 1L << x;
+		}
+		else
+		{
+			this.words[index] &= ~(1L << x);
+		}
+	}
+
+	/**
+	 * @return a new mask with the same content
+	 */
+	public BitMask duplicate()
+	{
+		BitMask result = new BitMask(this.width, this.height);
+		System.arraycopy(this.words, 0, result.words, 0, this.words.length);
+		return result;
+	}
+
+	/**
+	 * Keeps only the pixels that also belong to another mask.
+	 *
+	 * @param mask
+	 *            a mask with the same size
+	 * @return this mask, after modification
+	 */
+	public BitMask and(BitMask mask)
+	{
+		checkSize(mask.width, mask.height);
+		long[] other = mask.words;
+		for (int i = 0; i < this.words.length; i++)
+		{
+			this.words[i] &= other[i];
+		}
+		return this;
+	}
+
+	/**
+	 * Adds the pixels of another mask.
+	 *
+	 * @param mask
+	 *            a mask with the same size
+	 * @return this mask, after modification
+	 */
+	public BitMask or(BitMask mask)
+	{
+		checkSize(mask.width, mask.height);
+		long[] other = mask.words;
+		for (int i = 0; i < this.words.length; i++)
+		{
+			this.words[i] |= other[i];
+		}
+		return this;
+	}
+
+	/**
+	 * Keeps the pixels that belong to exactly one of the two masks.
+	 *
+	 * @param mask
+	 *            a mask with the same size
+	 * @return this mask, after modification
+	 */
+	public BitMask xor(BitMask mask)
+	{
+		checkSize(mask.width, mask.height);
+		long[] other = mask.words;
+		for (int i = 0; i < this.words.length; i++)
+		{
+			this.words[i] ^= other[i];
+		}
+		return this;
+	}
+
+	/**
+	 * Removes the pixels that belong to another mask.
+	 *
+	 * @param mask
+	 *            a mask with the same size
+	 * @return this mask, after modification
+	 */
+	public BitMask andNot(BitMask mask)
+	{
+		checkSize(mask.width, mask.height);
+		long[] other = mask.words;
+		for (int i = 0; i < this.words.length; i++)
+		{
+			this.words[i] &= ~other[i];
+		}
+		return this;
+	}
+
+	/**
+	 * Replaces the mask by its complement.
+	 *
+	 * @return this mask, after modification
+	 */
+	public BitMask not()
+	{
+		for (int i = 0; i < this.words.length; i++)
+		{
+			this.words[i] = ~this.words[i];
+		}
+
+		// clear the bits beyond the end of each row
+		int remainder = this.width & 63;
+		if (remainder != 0)
+		{
+			long lastWordMask = (1L << remainder) - 1;
+			for (int y = 0; y < this.height; y++)
+			{
+				this.words[(y + 1) * this.wordsPerRow - 1] &= lastWordMask;
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * @return the number of pixels of the mask
+	 */
+	public long area()
+	{
+		long area = 0;
+		for (long word : this.words)
+		{
+			area += Long.bitCount(word);
+		}
+		return area;
+	}
+
+	private void checkSize(int width, int height)
+	{
+		if (width != this.width || height != this.height)
+		{
+			throw new IllegalArgumentException("Images must have the same size as the mask");
+		}
+	}
+
+	/**
+	 * @return the width of the mask
+	 */
+	public int getWidth()
+	{
+		return this.width;
+	}
+
+	/**
+	 * @return the height of the mask
+	 */
+	public int getHeight()
+	{
+		return this.height;
+	}
+}
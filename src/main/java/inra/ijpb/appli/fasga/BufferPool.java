@@ -0,0 +1,335 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A pool of byte[], int[] and float[] arrays, indexed by their length, used
+ * to reuse the buffers of the intermediate images of the processing pipeline.
+ *
+ * The buffers released after processing a tile or a step of the pipeline
+ * are borrowed again by the next tiles and steps, avoiding the allocation of
+ * large arrays. The total size of the retained buffers is bounded: buffers
+ * released when the bound is reached are left to the garbage collector. The
+ * bound is scaled to the size of the processed slide by the plugins, with
+ * the fitToImage() method. The buffers are kept between slides, so that the
+ * processing of a batch of slides with the same size does not allocate
+ * buffers after the first slide.
+ *
+ * The content of a borrowed array is undefined. A buffer must not be used
+ * anymore after it has been released.
+ *
+ * @author David Legland
+ *
+ */
+public class BufferPool
+{
+	/**
+	 * The default maximum size of retained buffers, in bytes (64 MB), used
+	 * until the pool is fitted to the size of a slide
+	 */
+	public static final long DEFAULT_MAX_RETAINED_BYTES = 1L << 26;
+
+	/**
+	 * The maximum size of retained buffers for each pixel of the processed
+	 * slide, in bytes. The pipeline uses buffers with the size of the slide
+	 * for the three planes of the filtered image, the three binary images of
+	 * the stem segmentation and two int images of distances or labels (14
+	 * bytes per pixel), and buffers with the size of the crops of the stem
+	 * for the segmentation and for the quantification of the regions, each
+	 * with three planes and two int images of labels (11 bytes per pixel of
+	 * each crop). As a crop is at most as large as the slide, 36 bytes per
+	 * pixel are enough to retain all the buffers used by a slide.
+	 */
+	public static final int MAX_RETAINED_BYTES_PER_PIXEL = 36;
+
+	/** The single instance shared by the plugins */
+	private static BufferPool instance = null;
+
+	private Map<Integer, ArrayDeque<byte[]>> byteBuffers = new HashMap<Integer, ArrayDeque<byte[]>>();
+	private Map<Integer, ArrayDeque<int[]>> intBuffers = new HashMap<Integer, ArrayDeque<int[]>>();
+	private Map<Integer, ArrayDeque<float[]>> floatBuffers = new HashMap<Integer, ArrayDeque<float[]>>();
+
+	private long maxRetainedBytes;
+
+	// statistics
+	private long hits = 0;
+	private long misses = 0;
+	private long retainedBytes = 0;
+
+	/**
+	 * Returns the buffer pool shared by the plugins.
+	 *
+	 * @return the shared instance of buffer pool
+	 */
+	public static final synchronized BufferPool getInstance()
+	{
+		if (instance == null)
+		{
+			instance = new BufferPool(DEFAULT_MAX_RETAINED_BYTES);
+		}
+		return instance;
+	}
+
+	/**
+	 * Creates a new buffer pool.
+	 *
+	 * @param maxRetainedBytes
+	 *            the maximum total size of the retained buffers, in bytes
+	 */
+	public BufferPool(long maxRetainedBytes)
+	{
+		this.maxRetainedBytes = maxRetainedBytes;
+	}
+
+	/**
+	 * Scales the maximum size of the retained buffers to the size of the
+	 * slide to process. The bound is limited to a quarter of the memory
+	 * available to the virtual machine.
+	 *
+	 * @param width
+	 *            the width of the slide, in pixels
+	 * @param height
+	 *            the height of the slide, in pixels
+	 */
+	public void fitToImage(int width, int height)
+	{
+		long nBytes = (long) MAX_RETAINED_BYTES_PER_PIXEL * width * height;
+		setMaxRetainedBytes(Math.min(nBytes, Runtime.getRuntime().maxMemory() / 4));
+	}
+
+	/**
+	 * Changes the maximum size of the retained buffers. If the buffers
+	 * already retained exceed the new bound, they are removed from the pool.
+	 *
+	 * @param maxRetainedBytes
+	 *            the maximum total size of the retained buffers, in bytes
+	 */
+	public synchronized void setMaxRetainedBytes(long maxRetainedBytes)
+	{
+		if (maxRetainedBytes < 0)
+		{
+			throw new IllegalArgumentException("Maximum size must be positive or zero");
+		}
+		this.maxRetainedBytes = maxRetainedBytes;
+		trim(this.byteBuffers, 1);
+		trim(this.intBuffers, 4);
+		trim(this.floatBuffers, 4);
+	}
+
+	/**
+	 * @return the maximum total size of the retained buffers, in bytes
+	 */
+	public synchronized long getMaxRetainedBytes()
+	{
+		return this.maxRetainedBytes;
+	}
+
+	/**
+	 * Returns a byte array with the specified length, either from the pool or
+	 * newly allocated.
+	 *
+	 * @param length
+	 *            the length of the array
+	 * @return a byte array with undefined content
+	 */
+	public synchronized byte[] borrowBytes(int length)
+	{
+		byte[] buffer = poll(this.byteBuffers, length, length);
+		return buffer != null ? buffer : new byte[length];
+	}
+
+	/**
+	 * Returns an int array with the specified length, either from the pool or
+	 * newly allocated.
+	 *
+	 * @param length
+	 *            the length of the array
+	 * @return an int array with undefined content
+	 */
+	public synchronized int[] borrowInts(int length)
+	{
+		int[] buffer = poll(this.intBuffers, length, 4L * length);
+		return buffer != null ? buffer : new int[length];
+	}
+
+	/**
+	 * Returns a float array with the specified length, either from the pool
+	 * or newly allocated.
+	 *
+	 * @param length
+	 *            the length of the array
+	 * @return a float array with undefined content
+	 */
+	public synchronized float[] borrowFloats(int length)
+	{
+		float[] buffer = poll(this.floatBuffers, length, 4L * length);
+		return buffer != null ? buffer : new float[length];
+	}
+
+	/**
+	 * Gives a byte array back to the pool.
+	 *
+	 * @param buffer
+	 *            the array to release
+	 */
+	public synchronized void release(byte[] buffer)
+	{
+		offer(this.byteBuffers, buffer, buffer.length, buffer.length);
+	}
+
+	/**
+	 * Gives an int array back to the pool.
+	 *
+	 * @param buffer
+	 *            the array to release
+	 */
+	public synchronized void release(int[] buffer)
+	{
+		offer(this.intBuffers, buffer, buffer.length, 4L * buffer.length);
+	}
+
+	/**
+	 * Gives a float array back to the pool.
+	 *
+	 * @param buffer
+	 *            the array to release
+	 */
+	public synchronized void release(float[] buffer)
+	{
+		offer(this.floatBuffers, buffer, buffer.length, 4L * buffer.length);
+	}
+
+	/**
+	 * Gives the pixel array of an image processor back to the pool, if it is
+	 * a byte, int or float array.
+	 *
+	 * @param pixels
+	 *            the pixel array of an image processor
+	 */
+	public void releasePixels(Object pixels)
+	{
+		if (pixels instanceof byte[])
+		{
+			release((byte[]) pixels);
+		}
+		else if (pixels instanceof int[])
+		{
+			release((int[]) pixels);
+		}
+		else if (pixels instanceof float[])
+		{
+			release((float[]) pixels);
+		}
+	}
+
+	private <T> T poll(Map<Integer, ArrayDeque<T>> buffers, int length, long nBytes)
+	{
+		ArrayDeque<T> queue = buffers.get(length);
+		if (queue == null || queue.isEmpty())
+		{
+			this.misses++;
+			return null;
+		}
+		this.hits++;
+		this.retainedBytes -= nBytes;
+		return queue.pollLast();
+	}
+
+	private <T> void offer(Map<Integer, ArrayDeque<T>> buffers, T buffer, int length, long nBytes)
+	{
+		if (this.retainedBytes + nBytes > this.maxRetainedBytes)
+		{
+			return;
+		}
+
+		ArrayDeque<T> queue = buffers.get(length);
+		if (queue == null)
+		{
+			queue = new ArrayDeque<T>();
+			buffers.put(length, queue);
+		}
+		for (T other : queue)
+		{
+			if (other == buffer)
+			{
+				throw new IllegalArgumentException("Buffer was already released");
+			}
+		}
+		queue.addLast(buffer);
+		this.retainedBytes += nBytes;
+	}
+
+	/**
+	 * Removes buffers from the pool until the retained size fits within the
+	 * bound.
+	 */
+	private <T> void trim(Map<Integer, ArrayDeque<T>> buffers, int bytesPerElement)
+	{
+		Iterator<Map.Entry<Integer, ArrayDeque<T>>> iter = buffers.entrySet().iterator();
+		while (this.retainedBytes > this.maxRetainedBytes && iter.hasNext())
+		{
+			Map.Entry<Integer, ArrayDeque<T>> entry = iter.next();
+			ArrayDeque<T> queue = entry.getValue();
+			long nBytes = (long) bytesPerElement * entry.getKey();
+			while (this.retainedBytes > this.maxRetainedBytes && !queue.isEmpty())
+			{
+				queue.pollFirst();
+				this.retainedBytes -= nBytes;
+			}
+			if (queue.isEmpty())
+			{
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Removes all the buffers from the pool, and resets the counters.
+	 */
+	public synchronized void clear()
+	{
+		this.byteBuffers.clear();
+		this.intBuffers.clear();
+		this.floatBuffers.clear();
+		this.hits = 0;
+		this.misses = 0;
+		this.retainedBytes = 0;
+	}
+
+	/**
+	 * @return the number of borrowed arrays that were found in the pool
+	 */
+	public synchronized long getHits()
+	{
+		return this.hits;
+	}
+
+	/**
+	 * @return the number of borrowed arrays that had to be allocated
+	 */
+	public synchronized long getMisses()
+	{
+		return this.misses;
+	}
+
+	/**
+	 * @return the total size of the arrays retained by the pool, in bytes
+	 */
+	public synchronized long getRetainedBytes()
+	{
+		return this.retainedBytes;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return String.format("Buffer pool: %d hits, %d misses, %.1f MB retained",
+				this.hits, this.misses, this.retainedBytes / (1024.0 * 1024.0));
+	}
+}
@@ -0,0 +1,746 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import ij.Prefs;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Coarse-to-fine computation of the stem from the binary image of the dark
+ * pixels of a slide.
+ *
+ * The stem is obtained by filling the holes of the dark pixels, applying an
+ * opening by a disk to remove the bubbles, and keeping the largest connected
+ * component. As the stem is a large and smooth object, the holes are first
+ * filled and the opening is first applied on a coarse image, where each pixel
+ * corresponds to a block of 8x8 pixels of the slide, and is set if the block
+ * contains a dark pixel. The blocks far from the boundaries of the coarse
+ * results are copied into the result. The pixels of the blocks within a
+ * narrow band around the boundaries are computed at full resolution:
+ * <ul>
+ * <li>the holes are filled with a flood-fill from the blocks outside of the
+ * filled coarse image. If the flood-fill passes through a gap thinner than a
+ * block, the band is extended to the blocks it reaches,</li>
+ * <li>the opening is computed on tiles covering the band, using the filled
+ * coarse image outside of the band,</li>
+ * <li>the connected component of the stem is computed by a flood-fill within
+ * the band, that starts from the largest group of blocks outside of the band,
+ * and adds the other groups of blocks it reaches.</li>
+ * </ul>
+ *
+ * Most of the computation is applied on 1/64 of the pixels. The result is the
+ * same as the full resolution computation, except in rare cases where the
+ * opening by the disk breaks a region narrower than the band.
+ *
+ * @author David Legland
+ *
+ */
+public class CoarseToFineStem
+{
+	/** The size of the blocks of pixels that correspond to a coarse pixel */
+	public static final int BLOCK_SIZE = 8;
+
+	/** The size of the tiles used for the opening of the band, in blocks */
+	private static final int TILE_BLOCKS = 16;
+
+	// values of band pixels during the hole filling
+	private static final byte OUTSIDE = 0;
+	private static final byte CANDIDATE = 1;
+	private static final byte FILLED = (byte) 255;
+
+	// values of band pixels during the selection of the stem
+	private static final byte OPENED = (byte) 255;
+	private static final byte KEPT = 1;
+
+	/**
+	 * Computes the stem from the binary image of dark pixels.
+	 *
+	 * @param darkPixels
+	 *            the binary image of the pixels darker than the stem
+	 *            threshold
+	 * @param radius
+	 *            the radius of the disk used to remove the bubbles, in pixels
+	 * @return the binary image of the stem, or null if the coarse image
+	 *         contains no stem far from its boundary. In the latter case, the
+	 *         full resolution computation should be used.
+	 */
+	public static final ByteProcessor segment(ImageProcessor darkPixels, int radius)
+	{
+		return segment(darkPixels, radius, null);
+	}
+
+	/**
+	 * Computes the stem from the binary image of dark pixels, and the
+	 * bounding box of the blocks that may contain the stem.
+	 *
+	 * @param darkPixels
+	 *            the binary image of the pixels darker than the stem
+	 *            threshold
+	 * @param radius
+	 *            the radius of the disk used to remove the bubbles, in pixels
+	 * @param bounds
+	 *            if not null, receives the bounding box of the blocks that
+	 *            may contain the stem
+	 * @return the binary image of the stem, or null if the coarse image
+	 *         contains no stem far from its boundary. In the latter case, the
+	 *         full resolution computation should be used.
+	 */
+	public static final ByteProcessor segment(ImageProcessor darkPixels, int radius, Rectangle bounds)
+	{
+		// process the coarse image
+		Band context = new Band(darkPixels, radius);
+		context.coarseFilled = BinaryHoleFilling.fillHoles(context.downsample());
+		context.coarseOpened = BinaryDiskOpening.opening(context.coarseFilled, radius / BLOCK_SIZE);
+
+		PreviewExecutor.checkCanceled();
+
+		// process the band around the boundaries at full resolution
+		context.initBand();
+		context.fillHoles();
+		PreviewExecutor.checkCanceled();
+		context.opening();
+		PreviewExecutor.checkCanceled();
+		if (!context.keepStem())
+		{
+			return null;
+		}
+
+		if (bounds != null)
+		{
+			bounds.setBounds(context.computeBounds());
+		}
+		return context.createResult();
+	}
+
+	/**
+	 * The coarse images, and the full resolution computation within the band
+	 * of blocks around the boundaries of the coarse results.
+	 */
+	private static final class Band
+	{
+		ImageProcessor darkPixels;
+		/** the pixels of the dark pixels image, if it is a byte image */
+		byte[] darkBytes;
+		int radius;
+		int width;
+		int height;
+		int bw;
+		int bh;
+
+		/** the distance of the band to the boundaries, in blocks */
+		int bandRadius;
+
+		ImageProcessor coarseFilled;
+		ImageProcessor coarseOpened;
+		boolean[] band;
+
+		/** the filled dark pixels, within the band */
+		byte[] filled;
+		/** the result of the opening and of the selection, within the band */
+		byte[] stem;
+		/** the queue of the flood-fills */
+		int[] queue = new int[1024];
+		int head;
+		int tail;
+
+		/** the label of the groups of blocks outside of the band */
+		int[] blockLabels;
+		/** the blocks of each group, sorted by label */
+		int[] groupBlocks;
+		/** the index of the first block of each group within groupBlocks */
+		int[] groupStarts;
+		/** the groups connected to the stem */
+		boolean[] keptGroups;
+
+		Band(ImageProcessor darkPixels, int radius)
+		{
+			this.darkPixels = darkPixels;
+			if (darkPixels instanceof ByteProcessor)
+			{
+				this.darkBytes = (byte[]) darkPixels.getPixels();
+			}
+			this.radius = radius;
+			this.width = darkPixels.getWidth();
+			this.height = darkPixels.getHeight();
+			this.bw = (this.width + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			this.bh = (this.height + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			this.bandRadius = 1 + (radius + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			this.filled = new byte[this.width * this.height];
+			this.stem = new byte[this.width * this.height];
+		}
+
+		/**
+		 * Computes the coarse image, by setting each coarse pixel if the
+		 * corresponding block contains a dark pixel. The coarse pixels that
+		 * are not set correspond to blocks without dark pixels, so that the
+		 * blocks outside of the filled coarse image are outside of the filled
+		 * image of the slide.
+		 */
+		ByteProcessor downsample()
+		{
+			ByteProcessor result = new ByteProcessor(this.bw, this.bh);
+			byte[] blocks = (byte[]) result.getPixels();
+			for (int y = 0; y < this.height; y++)
+			{
+				int offset = y * this.width;
+				int blockOffset = (y / BLOCK_SIZE) * this.bw;
+				for (int x = 0; x < this.width; x++)
+				{
+					if (isDark(offset + x))
+					{
+						blocks[blockOffset + x / BLOCK_SIZE] = (byte) 255;
+					}
+				}
+			}
+			return result;
+		}
+
+		boolean isDark(int index)
+		{
+			return this.darkBytes != null ? this.darkBytes[index] != 0 : this.darkPixels.get(index) != 0;
+		}
+
+		/**
+		 * Marks the blocks within the band radius of a block where one of the
+		 * coarse images differs from a 4-neighbor.
+		 */
+		void initBand()
+		{
+			this.band = new boolean[this.bw * this.bh];
+			for (int by = 0; by < this.bh; by++)
+			{
+				for (int bx = 0; bx < this.bw; bx++)
+				{
+					if (isBoundary(this.coarseFilled, bx, by) || isBoundary(this.coarseOpened, bx, by))
+					{
+						addMargin(by * this.bw + bx, null);
+					}
+				}
+			}
+		}
+
+		private static final boolean isBoundary(ImageProcessor image, int x, int y)
+		{
+			int value = image.get(x, y);
+			return (x > 0 && image.get(x - 1, y) != value)
+					|| (x < image.getWidth() - 1 && image.get(x + 1, y) != value)
+					|| (y > 0 && image.get(x, y - 1) != value)
+					|| (y < image.getHeight() - 1 && image.get(x, y + 1) != value);
+		}
+
+		/**
+		 * Adds to the band the blocks within the band radius of a block, and
+		 * appends the added blocks to the list if it is not null.
+		 */
+		private void addMargin(int b, List<Integer> added)
+		{
+			int bx = b % this.bw;
+			int by = b / this.bw;
+			for (int y = Math.max(by - this.bandRadius, 0); y <= Math.min(by + this.bandRadius, this.bh - 1); y++)
+			{
+				for (int x = Math.max(bx - this.bandRadius, 0); x <= Math.min(bx + this.bandRadius, this.bw - 1); x++)
+				{
+					int b2 = y * this.bw + x;
+					if (!this.band[b2])
+					{
+						this.band[b2] = true;
+						if (added != null)
+						{
+							added.add(b2);
+						}
+					}
+				}
+			}
+		}
+
+		int blockIndex(int index)
+		{
+			return ((index / this.width) / BLOCK_SIZE) * this.bw + (index % this.width) / BLOCK_SIZE;
+		}
+
+		/**
+		 * Returns the pixels of a block, clipped to the image bounds.
+		 */
+		Rectangle getBlock(int b)
+		{
+			int x0 = (b % this.bw) * BLOCK_SIZE;
+			int y0 = (b / this.bw) * BLOCK_SIZE;
+			return new Rectangle(x0, y0, Math.min(BLOCK_SIZE, this.width - x0),
+					Math.min(BLOCK_SIZE, this.height - y0));
+		}
+
+		void push(int index)
+		{
+			if (this.tail == this.queue.length)
+			{
+				// discard the processed part of the queue, or enlarge it
+				int size = this.tail - this.head;
+				if (this.head < this.queue.length / 2)
+				{
+					this.queue = Arrays.copyOf(this.queue, this.queue.length * 2);
+				}
+				System.arraycopy(this.queue, this.head, this.queue, 0, size);
+				this.head = 0;
+				this.tail = size;
+			}
+			this.queue[this.tail++] = index;
+		}
+
+		/**
+		 * Fills the holes of the dark pixels within the band. The background
+		 * pixels of the band connected to the image border or to the blocks
+		 * outside of the filled coarse image are outside. The other
+		 * background pixels are holes.
+		 */
+		void fillHoles()
+		{
+			List<Integer> blocks = new ArrayList<Integer>();
+			for (int b = 0; b < this.band.length; b++)
+			{
+				if (this.band[b])
+				{
+					blocks.add(b);
+				}
+			}
+
+			// the band grows if the flood-fill leaves it, until the margin
+			// around the grown blocks is not reached anymore
+			List<Integer> grown = new ArrayList<Integer>();
+			while (!blocks.isEmpty())
+			{
+				for (int b : blocks)
+				{
+					initBlock(b);
+				}
+				grown.clear();
+				floodOutside(grown);
+				blocks.clear();
+				for (int b : grown)
+				{
+					addMargin(b, blocks);
+				}
+			}
+
+			// the remaining candidates are holes
+			for (int b = 0; b < this.band.length; b++)
+			{
+				if (!this.band[b])
+				{
+					continue;
+				}
+				Rectangle block = getBlock(b);
+				for (int y = block.y; y < block.y + block.height; y++)
+				{
+					for (int i = y * this.width + block.x; i < y * this.width + block.x + block.width; i++)
+					{
+						if (this.filled[i] == CANDIDATE)
+						{
+							this.filled[i] = FILLED;
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Initializes the pixels of a block of the band, and pushes the
+		 * background pixels connected to the outside.
+		 */
+		private void initBlock(int b)
+		{
+			Rectangle block = getBlock(b);
+			for (int y = block.y; y < block.y + block.height; y++)
+			{
+				for (int x = block.x; x < block.x + block.width; x++)
+				{
+					int index = y * this.width + x;
+					if (isDark(index))
+					{
+						this.filled[index] = FILLED;
+						continue;
+					}
+					this.filled[index] = CANDIDATE;
+					if (x == 0 || y == 0 || x == this.width - 1 || y == this.height - 1
+							|| isOutside(x - 1, y) || isOutside(x + 1, y)
+							|| isOutside(x, y - 1) || isOutside(x, y + 1))
+					{
+						this.filled[index] = OUTSIDE;
+						push(index);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Checks if a pixel belongs to a block outside of the band and of the
+		 * filled coarse image. Such blocks contain only background pixels
+		 * connected to the image border.
+		 */
+		private boolean isOutside(int x, int y)
+		{
+			int b = (y / BLOCK_SIZE) * this.bw + x / BLOCK_SIZE;
+			return !this.band[b] && this.coarseFilled.get(b) == 0;
+		}
+
+		/**
+		 * Propagates the outside value to the candidate pixels. When a
+		 * background pixel of a block outside of the band is reached, the
+		 * block is added to the band and to the list of grown blocks.
+		 */
+		private void floodOutside(List<Integer> grown)
+		{
+			int size = this.width * this.height;
+			while (this.head < this.tail)
+			{
+				int index = this.queue[this.head++];
+				int x = index % this.width;
+				if (x > 0)
+				{
+					visitOutside(index - 1, grown);
+				}
+				if (x < this.width - 1)
+				{
+					visitOutside(index + 1, grown);
+				}
+				if (index >= this.width)
+				{
+					visitOutside(index - this.width, grown);
+				}
+				if (index < size - this.width)
+				{
+					visitOutside(index + this.width, grown);
+				}
+			}
+		}
+
+		private void visitOutside(int index, List<Integer> grown)
+		{
+			int b = blockIndex(index);
+			if (!this.band[b])
+			{
+				// blocks outside of the filled coarse image are already
+				// outside, and dark pixels stop the propagation
+				if (this.coarseFilled.get(b) == 0 || isDark(index))
+				{
+					return;
+				}
+				this.band[b] = true;
+				grown.add(b);
+				initBlock(b);
+			}
+			if (this.filled[index] == CANDIDATE)
+			{
+				this.filled[index] = OUTSIDE;
+				push(index);
+			}
+		}
+
+		/**
+		 * Computes the opening of the filled image within the band, on tiles
+		 * enlarged by the size of the disk. Outside of the band, the filled
+		 * image is given by the filled coarse image. The tiles are processed
+		 * in parallel, each one by a single thread.
+		 */
+		void opening()
+		{
+			int tileSize = TILE_BLOCKS * BLOCK_SIZE;
+			final List<Rectangle> tiles = new ArrayList<Rectangle>();
+			for (int ty = 0; ty < this.height; ty += tileSize)
+			{
+				for (int tx = 0; tx < this.width; tx += tileSize)
+				{
+					Rectangle tile = new Rectangle(tx, ty,
+							Math.min(tileSize, this.width - tx), Math.min(tileSize, this.height - ty));
+					if (containsBand(tile))
+					{
+						tiles.add(tile);
+					}
+				}
+			}
+
+			final int nThreads = Math.max(Prefs.getThreads(), 1);
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(nThreads);
+			for (int t = 0; t < nThreads; t++)
+			{
+				final int first = t;
+				tasks.add(new Callable<Void>()
+				{
+					@Override
+					public Void call()
+					{
+						for (int k = first; k < tiles.size(); k += nThreads)
+						{
+							PreviewExecutor.checkCanceled();
+							openTile(tiles.get(k));
+						}
+						return null;
+					}
+				});
+			}
+			ThreadUtils.invokeAll(tasks, nThreads);
+		}
+
+		private void openTile(Rectangle tile)
+		{
+			// the filled image around the tile
+			int margin = 2 * this.radius + 2;
+			int x0 = Math.max(tile.x - margin, 0);
+			int y0 = Math.max(tile.y - margin, 0);
+			int x1 = Math.min(tile.x + tile.width + margin, this.width);
+			int y1 = Math.min(tile.y + tile.height + margin, this.height);
+			int cropWidth = x1 - x0;
+			byte[] crop = new byte[cropWidth * (y1 - y0)];
+			for (int y = y0; y < y1; y++)
+			{
+				int blockOffset = (y / BLOCK_SIZE) * this.bw;
+				for (int x = x0; x < x1; x++)
+				{
+					int b = blockOffset + x / BLOCK_SIZE;
+					boolean inside = this.band[b] ? this.filled[y * this.width + x] == FILLED
+							: this.coarseFilled.get(b) != 0;
+					if (inside)
+					{
+						crop[(y - y0) * cropWidth + x - x0] = (byte) 255;
+					}
+				}
+			}
+
+			ByteProcessor opened = BinaryDiskOpening.opening(
+					new ByteProcessor(cropWidth, y1 - y0, crop), this.radius, 1);
+			byte[] openedPixels = (byte[]) opened.getPixels();
+			for (int y = tile.y; y < tile.y + tile.height; y++)
+			{
+				int blockOffset = (y / BLOCK_SIZE) * this.bw;
+				for (int x = tile.x; x < tile.x + tile.width; x++)
+				{
+					if (this.band[blockOffset + x / BLOCK_SIZE]
+							&& openedPixels[(y - y0) * cropWidth + x - x0] != 0)
+					{
+						this.stem[y * this.width + x] = OPENED;
+					}
+				}
+			}
+		}
+
+		private boolean containsBand(Rectangle tile)
+		{
+			for (int y = tile.y; y < tile.y + tile.height; y += BLOCK_SIZE)
+			{
+				for (int x = tile.x; x < tile.x + tile.width; x += BLOCK_SIZE)
+				{
+					if (this.band[(y / BLOCK_SIZE) * this.bw + x / BLOCK_SIZE])
+					{
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Selects the pixels of the band and the groups of blocks outside of
+		 * the band that are 4-connected to the largest group of blocks.
+		 *
+		 * @return false if there is no group of blocks outside of the band
+		 */
+		boolean keepStem()
+		{
+			// groups of blocks of the opened coarse image outside of the band
+			ByteProcessor interior = new ByteProcessor(this.bw, this.bh);
+			for (int b = 0; b < this.band.length; b++)
+			{
+				if (!this.band[b] && this.coarseOpened.get(b) != 0)
+				{
+					interior.set(b, 255);
+				}
+			}
+			ConnectedComponents groups = ConnectedComponents.label(interior);
+			int largest = groups.getLargestLabel();
+			if (largest == 0)
+			{
+				groups.release();
+				return false;
+			}
+			this.blockLabels = Arrays.copyOf(groups.getLabels(), this.band.length);
+			int nGroups = groups.getCount();
+			groups.release();
+
+			// sort the blocks by group
+			this.groupStarts = new int[nGroups + 2];
+			for (int label : this.blockLabels)
+			{
+				this.groupStarts[label + 1]++;
+			}
+			for (int k = 1; k < this.groupStarts.length; k++)
+			{
+				this.groupStarts[k] += this.groupStarts[k - 1];
+			}
+			this.groupBlocks = new int[this.band.length];
+			int[] positions = Arrays.copyOf(this.groupStarts, nGroups + 1);
+			for (int b = 0; b < this.band.length; b++)
+			{
+				this.groupBlocks[positions[this.blockLabels[b]]++] = b;
+			}
+
+			// propagate from the largest group within the opened band
+			this.keptGroups = new boolean[nGroups + 1];
+			this.head = 0;
+			this.tail = 0;
+			keepGroup(largest);
+			int size = this.width * this.height;
+			while (this.head < this.tail)
+			{
+				int index = this.queue[this.head++];
+				int x = index % this.width;
+				if (x > 0)
+				{
+					visitStem(index - 1);
+				}
+				if (x < this.width - 1)
+				{
+					visitStem(index + 1);
+				}
+				if (index >= this.width)
+				{
+					visitStem(index - this.width);
+				}
+				if (index < size - this.width)
+				{
+					visitStem(index + this.width);
+				}
+			}
+			return true;
+		}
+
+		private void visitStem(int index)
+		{
+			int b = blockIndex(index);
+			if (this.band[b])
+			{
+				if (this.stem[index] == OPENED)
+				{
+					this.stem[index] = KEPT;
+					push(index);
+				}
+			}
+			else
+			{
+				int label = this.blockLabels[b];
+				if (label > 0 && !this.keptGroups[label])
+				{
+					keepGroup(label);
+				}
+			}
+		}
+
+		/**
+		 * Marks a group of blocks as part of the stem, and pushes the opened
+		 * pixels of the band along its boundary.
+		 */
+		private void keepGroup(int label)
+		{
+			this.keptGroups[label] = true;
+			for (int k = this.groupStarts[label]; k < this.groupStarts[label + 1]; k++)
+			{
+				int b = this.groupBlocks[k];
+				int bx = b % this.bw;
+				int by = b / this.bw;
+				Rectangle block = getBlock(b);
+				if (bx > 0 && this.band[b - 1])
+				{
+					pushColumn(block.x - 1, block.y, block.height);
+				}
+				if (bx < this.bw - 1 && this.band[b + 1])
+				{
+					pushColumn(block.x + block.width, block.y, block.height);
+				}
+				if (by > 0 && this.band[b - this.bw])
+				{
+					pushRow(block.x, block.y - 1, block.width);
+				}
+				if (by < this.bh - 1 && this.band[b + this.bw])
+				{
+					pushRow(block.x, block.y + block.height, block.width);
+				}
+			}
+		}
+
+		private void pushColumn(int x, int y0, int length)
+		{
+			for (int y = y0; y < y0 + length; y++)
+			{
+				visitStem(y * this.width + x);
+			}
+		}
+
+		private void pushRow(int x0, int y, int length)
+		{
+			for (int x = x0; x < x0 + length; x++)
+			{
+				visitStem(y * this.width + x);
+			}
+		}
+
+		/**
+		 * Combines the pixels of the band with the groups of blocks connected
+		 * to the stem.
+		 */
+		ByteProcessor createResult()
+		{
+			byte[] pixels = new byte[this.width * this.height];
+			for (int y = 0; y < this.height; y++)
+			{
+				int blockOffset = (y / BLOCK_SIZE) * this.bw;
+				for (int x = 0; x < this.width; x++)
+				{
+					int b = blockOffset + x / BLOCK_SIZE;
+					int index = y * this.width + x;
+					boolean inside = this.band[b] ? this.stem[index] == KEPT
+							: this.keptGroups[this.blockLabels[b]];
+					if (inside)
+					{
+						pixels[index] = (byte) 255;
+					}
+				}
+			}
+			return new ByteProcessor(this.width, this.height, pixels);
+		}
+
+		/**
+		 * Computes the bounding box of the blocks of the band and of the kept
+		 * groups of blocks.
+		 */
+		Rectangle computeBounds()
+		{
+			int xmin = Integer.MAX_VALUE;
+			int ymin = Integer.MAX_VALUE;
+			int xmax = -1;
+			int ymax = -1;
+			for (int b = 0; b < this.band.length; b++)
+			{
+				if (this.band[b] || this.keptGroups[this.blockLabels[b]])
+				{
+					int bx = b % this.bw;
+					int by = b / this.bw;
+					xmin = Math.min(xmin, bx);
+					xmax = Math.max(xmax, bx);
+					ymin = Math.min(ymin, by);
+					ymax = Math.max(ymax, by);
+				}
+			}
+			int x0 = xmin * BLOCK_SIZE;
+			int y0 = ymin * BLOCK_SIZE;
+			int x1 = Math.min((xmax + 1) * BLOCK_SIZE, this.width);
+			int y1 = Math.min((ymax + 1) * BLOCK_SIZE, this.height);
+			return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import ij.Prefs;
+import ij.process.ColorProcessor;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Look-up table giving the classes of the region segmentation for each of the
+ * 2^24 colors, for a pair of thresholds on the brightness and on the hue.
+ *
+ * A color is dark if its HSB brightness is smaller than or equal to the dark
+ * regions threshold, and red if its HSB hue is greater than or equal to the
+ * red region threshold, with the same float computations and comparisons as
+ * the thresholds of the images computed by the computeBrightness() and
+ * computeHue() methods of ColorUtils. As the classes depend only on the
+ * color, they are computed once for each color and stored with two bits per
+ * color, in a table of 4 MB. The classification of an image then needs a
+ * single lookup per pixel, without computing the hue and brightness images.
+ *
+ * The table of the last pair of thresholds is kept, so that the previews and
+ * the processing of several slides with the same thresholds compile it only
+ * once.
+ *
+ * @see ColorUtils#computeHue(ColorProcessor)
+ * @see ColorUtils#computeBrightness(ColorProcessor)
+ * @author David Legland
+ *
+ */
+public class ColorClassTable
+{
+	/** The bit of the classes of the dark colors */
+	public static final int DARK = 1;
+
+	/** The bit of the classes of the red colors */
+	public static final int RED = 2;
+
+	/** The table of the last pair of thresholds */
+	private static ColorClassTable cached = null;
+
+	int darkThreshold;
+	int redThreshold;
+
+	/** the classes of the colors, four colors per byte */
+	byte[] classes;
+
+	private ColorClassTable(int darkThreshold, int redThreshold)
+	{
+		this.darkThreshold = darkThreshold;
+		this.redThreshold = redThreshold;
+		this.classes = new byte[1 << 22];
+	}
+
+	/**
+	 * Returns the table for a pair of thresholds, computing it if the
+	 * thresholds differ from the ones of the last call.
+	 *
+	 * @param darkThreshold
+	 *            the upper threshold of brightness of the dark regions,
+	 *            between 0 and 255
+	 * @param redThreshold
+	 *            the lower threshold of hue of the red region, between 0 and
+	 *            255
+	 * @return the table of the classes of the colors
+	 */
+	public static final synchronized ColorClassTable getInstance(int darkThreshold, int redThreshold)
+	{
+		if (cached == null || cached.darkThreshold != darkThreshold || cached.redThreshold != redThreshold)
+		{
+			cached = null;
+			cached = compile(darkThreshold, redThreshold);
+		}
+		return cached;
+	}
+
+	/**
+	 * Computes the classes of the colors. Each task processes the colors
+	 * with a range of red components.
+	 */
+	private static final ColorClassTable compile(int darkThreshold, int redThreshold)
+	{
+		final ColorClassTable table = new ColorClassTable(darkThreshold, redThreshold);
+		final double darkUpper = darkThreshold / 255.0;
+		final double redLower = redThreshold / 255.0;
+
+		int nThreads = Math.max(Prefs.getThreads(), 1);
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(nThreads);
+		for (int t = 0; t < nThreads; t++)
+		{
+			final int r0 = 256 * t / nThreads;
+			final int r1 = 256 * (t + 1) / nThreads;
+			tasks.add(new Callable<Void>()
+			{
+				@Override
+				public Void call()
+				{
+					float[] hsb = new float[3];
+					for (int r = r0; r < r1; r++)
+					{
+						for (int g = 0; g < 256; g++)
+						{
+							for (int b = 0; b < 256; b += 4)
+							{
+								// four consecutive colors share the same byte
+								int bits = 0;
+								for (int k = 0; k < 4; k++)
+								{
+									Color.RGBtoHSB(r, g, b + k, hsb);
+									float brightness = Math.max(r, Math.max(g, b + k)) / 255f;
+									int classes = 0;
+									if (brightness >= 0 && brightness <= darkUpper)
+									{
+										classes |= DARK;
+									}
+									if (hsb[0] >= redLower && hsb[0] <= 1)
+									{
+										classes |= RED;
+									}
+									bits |= classes << (2 * k);
+								}
+								table.classes[(r << 14) | (g << 6) | (b >> 2)] = (byte) bits;
+							}
+						}
+						PreviewExecutor.checkCanceled();
+					}
+					return null;
+				}
+			});
+		}
+		ThreadUtils.invokeAll(tasks, nThreads);
+		return table;
+	}
+
+	/**
+	 * Returns the classes of a color.
+	 *
+	 * @param rgb
+	 *            the color, with the red, green and blue components in the
+	 *            lower 24 bits
+	 * @return the combination of the DARK and RED bits of the color
+	 */
+	public int getClasses(int rgb)
+	{
+		int index = rgb & 0xFFFFFF;
+		return (this.classes[index >> 2] >> (2 * (index & 3))) & 3;
+	}
+
+	/**
+	 * Computes the masks of the dark and red pixels of a color image, with a
+	 * single lookup per pixel.
+	 *
+	 * @param image
+	 *            a color image
+	 * @param dark
+	 *            the mask receiving the dark pixels, with the size of the
+	 *            image
+	 * @param red
+	 *            the mask receiving the red pixels, with the size of the
+	 *            image
+	 */
+	public void classify(ColorProcessor image, BitMask dark, BitMask red)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		checkSize(width, height, dark, red);
+
+		int[] pixels = (int[]) image.getPixels();
+		for (int y = 0; y < height; y++)
+		{
+			int offset = y * width;
+			int wordOffset = y * dark.wordsPerRow;
+			for (int x = 0; x < width; x++)
+			{
+				setClasses(getClasses(pixels[offset + x]), wordOffset, x, dark, red);
+			}
+		}
+	}
+
+	/**
+	 * Computes the masks of the dark and red pixels of a planar color image,
+	 * with a single lookup per pixel.
+	 *
+	 * @param image
+	 *            a planar color image
+	 * @param dark
+	 *            the mask receiving the dark pixels, with the size of the
+	 *            image
+	 * @param red
+	 *            the mask receiving the red pixels, with the size of the
+	 *            image
+	 */
+	public void classify(PlanarRGBImage image, BitMask dark, BitMask red)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		checkSize(width, height, dark, red);
+
+		byte[] reds = image.getRed();
+		byte[] greens = image.getGreen();
+		byte[] blues = image.getBlue();
+		for (int y = 0; y < height; y++)
+		{
+			int offset = y * width;
+			int wordOffset = y * dark.wordsPerRow;
+			for (int x = 0; x < width; x++)
+			{
+				int i = offset + x;
+				int rgb = (reds[i] & 0xFF) << 16 | (greens[i] & 0xFF) << 8 | (blues[i] & 0xFF);
+				setClasses(getClasses(rgb), wordOffset, x, dark, red);
+			}
+		}
+	}
+
+	/**
+	 * Sets the bits of a pixel in the words of the masks, that have the same
+	 * size and thus the same layout.
+	 */
+	private static final void setClasses(int classes, int wordOffset, int x, BitMask dark, BitMask red)
+	{
+		int index = wordOffset + (x >>> 6);
+		dark.words[index] |= (long) (classes & DARK) << x;
+		red.words[index] |= (long) ((classes & RED) >> 1) << x;
+	}
+
+	private static final void checkSize(int width, int height, BitMask dark, BitMask red)
+	{
+		if (dark.getWidth() != width || dark.getHeight() != height
+				|| red.getWidth() != width || red.getHeight() != height)
+		{
+			throw new IllegalArgumentException("Masks must have the same size as the image");
+		}
+	}
+}
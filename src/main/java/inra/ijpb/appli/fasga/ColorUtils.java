@@ -18,7 +18,7 @@ import java.awt.Color;
 public class ColorUtils {
 	/**
 	 * Computes the hue of a RGB image and returns the result in a
-	 * FloatProcessor.
+	 * FloatProcessor. The pixel array is borrowed from the buffer pool.
 	 */
 	public static final FloatProcessor computeHue(ColorProcessor image)
 	{
@@ -27,7 +27,8 @@ public class ColorUtils {
 		int height = image.getHeight();
 		
 		// allocate memory for result
-		FloatProcessor result = new FloatProcessor(width, height);
+		float[] buffer = BufferPool.getInstance().borrowFloats(width * height);
+		FloatProcessor result = new FloatProcessor(width, height, buffer);
 		
 		// iterate over pixels
 		float[] hsb = new float[3]; 
@@ -50,7 +51,7 @@ public class ColorUtils {
 	/**
 	 * Compute luma component of a color image, as weighted sum of RGB
 	 * components, and returns the result in a float processor instead of a
-	 * ByteProcessor.
+	 * ByteProcessor. The pixel array is borrowed from the buffer pool.
 	 * 
 	 */
 	public static final FloatProcessor computeLuma(ColorProcessor image)
@@ -60,7 +61,8 @@ public class ColorUtils {
 		int height = image.getHeight();
 		
 		// allocate memory for result
-		FloatProcessor result = new FloatProcessor(width, height);
+		float[] buffer = BufferPool.getInstance().borrowFloats(width * height);
+		FloatProcessor result = new FloatProcessor(width, height, buffer);
 		
 		// iterate over pixels
 		for (int y = 0; y < height; y++)
@@ -79,6 +81,109 @@ public class ColorUtils {
 		return result;
 	}
 	
+	/**
+	 * Computes the brightness of a color image, as the largest of the RGB
+	 * components divided by 255, like the getBrightness() method of
+	 * ColorProcessor. The pixel array is borrowed from the buffer pool.
+	 */
+	public static final FloatProcessor computeBrightness(ColorProcessor image)
+	{
+		// get image size
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] pixels = (int[]) image.getPixels();
+		
+		// allocate memory for result
+		float[] buffer = BufferPool.getInstance().borrowFloats(width * height);
+		
+		// iterate over pixels
+		for (int i = 0; i < buffer.length; i++)
+		{
+			int c = pixels[i];
+			int r = (c & 0xFF0000) >> 16;
+			int g = (c & 0xFF00) >> 8;
+			int b =  c & 0xFF;
+			buffer[i] = Math.max(r, Math.max(g, b)) / 255f;
+		}
+		
+		return new FloatProcessor(width, height, buffer);
+	}
+	
+	/**
+	 * Computes the hue of a planar RGB image and returns the result in a
+	 * FloatProcessor. The pixel array is borrowed from the buffer pool.
+	 */
+	public static final FloatProcessor computeHue(PlanarRGBImage image)
+	{
+		byte[] red = image.getRed();
+		byte[] green = image.getGreen();
+		byte[] blue = image.getBlue();
+		
+		// allocate memory for result
+		float[] buffer = BufferPool.getInstance().borrowFloats(red.length);
+		
+		// iterate over pixels
+		float[] hsb = new float[3]; 
+		for (int i = 0; i < buffer.length; i++)
+		{
+			Color.RGBtoHSB(red[i] & 0xFF, green[i] & 0xFF, blue[i] & 0xFF, hsb);
+			buffer[i] = hsb[0];
+		}
+		
+		return new FloatProcessor(image.getWidth(), image.getHeight(), buffer);
+	}
+	
+	/**
+	 * Compute luma component of a planar RGB image, as weighted sum of RGB
+	 * components. The pixel array is borrowed from the buffer pool.
+	 */
+	public static final FloatProcessor computeLuma(PlanarRGBImage image)
+	{
+		byte[] red = image.getRed();
+		byte[] green = image.getGreen();
+		byte[] blue = image.getBlue();
+		
+		// allocate memory for result
+		float[] buffer = BufferPool.getInstance().borrowFloats(red.length);
+		
+		// iterate over pixels
+		for (int i = 0; i < buffer.length; i++)
+		{
+			int r = red[i] & 0xFF;
+			int g = green[i] & 0xFF;
+			int b = blue[i] & 0xFF;
+			buffer[i] = (r * .299f + g * .587f + b * .114f) / 255;
+		}
+		
+		return new FloatProcessor(image.getWidth(), image.getHeight(), buffer);
+	}
+	
+	/**
+	 * Computes the brightness of a planar RGB image, as the largest of the
+	 * RGB components divided by 255. The pixel array is borrowed from the
+	 * buffer pool.
+	 */
+	public static final FloatProcessor computeBrightness(PlanarRGBImage image)
+	{
+		byte[] red = image.getRed();
+		byte[] green = image.getGreen();
+		byte[] blue = image.getBlue();
+		
+		// allocate memory for result
+		float[] buffer = BufferPool.getInstance().borrowFloats(red.length);
+		
+		// iterate over pixels
+		for (int i = 0; i < buffer.length; i++)
+		{
+			int r = red[i] & 0xFF;
+			int g = green[i] & 0xFF;
+			int b = blue[i] & 0xFF;
+			buffer[i] = Math.max(r, Math.max(g, b)) / 255f;
+		}
+		
+		return new FloatProcessor(image.getWidth(), image.getHeight(), buffer);
+	}
+	
 	public static final ColorProcessor colorizeLabelImage(
 			ImageProcessor labelImage, int[][] rgbValues)	
 	{
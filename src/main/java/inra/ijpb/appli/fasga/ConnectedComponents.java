@@ -0,0 +1,645 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import ij.Prefs;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Labelling of the connected components of a binary image or of a bit mask,
+ * together with the area and the bounding box of each component.
+ *
+ * The labelling uses a union-find structure on the pixel indices. The image
+ * is split into bands of rows that are labelled in parallel, then the
+ * components touching the borders between bands are merged. The root of each
+ * component is its first pixel in raster order, so the labels are numbered
+ * in the order of the first pixel of each component, as for the flood-fill
+ * labelling of MorphoLibJ.
+ *
+ * The keepLargestRegion(), removeLargestRegion() and areaOpening() methods
+ * give the same results as the methods with the same name of the
+ * BinaryImages class of MorphoLibJ, that use the 4-connectivity.
+ *
+ * @author David Legland
+ *
+ */
+public class ConnectedComponents
+{
+	int width;
+	int height;
+
+	/** The label of each pixel, or 0 for background pixels */
+	int[] labels;
+
+	/** The number of components */
+	int count;
+
+	/** The number of pixels of each component, indexed by label - 1 */
+	int[] areas;
+
+	/** xmin, ymin, xmax and ymax of each component, indexed by label - 1 */
+	int[] bounds;
+
+	private ConnectedComponents(int width, int height, int[] labels, int count)
+	{
+		this.width = width;
+		this.height = height;
+		this.labels = labels;
+		this.count = count;
+	}
+
+	/**
+	 * Labels the 4-connected components of a binary image, using the number
+	 * of threads specified in ImageJ preferences.
+	 *
+	 * @param image
+	 *            a binary image, where non-zero values correspond to the
+	 *            foreground
+	 * @return the labels and the statistics of the components
+	 */
+	public static final ConnectedComponents label(ImageProcessor image)
+	{
+		return label(image, 4, Prefs.getThreads());
+	}
+
+	/**
+	 * Labels the connected components of a binary image.
+	 *
+	 * @param image
+	 *            a binary image, where non-zero values correspond to the
+	 *            foreground
+	 * @param connectivity
+	 *            the connectivity of the components, either 4 or 8
+	 * @param nThreads
+	 *            the number of bands of rows processed simultaneously
+	 * @return the labels and the statistics of the components
+	 */
+	public static final ConnectedComponents label(ImageProcessor image,
+			final int connectivity, int nThreads)
+	{
+		checkConnectivity(connectivity);
+
+		// the parent of each foreground pixel, or -1 for background
+		final int[] parents = BufferPool.getInstance().borrowInts(image.getPixelCount());
+		for (int i = 0; i < parents.length; i++)
+		{
+			parents[i] = image.get(i) != 0 ? i : -1;
+		}
+		return label(parents, image.getWidth(), image.getHeight(), connectivity, nThreads);
+	}
+
+	/**
+	 * Labels the 4-connected components of a binary mask, using the number
+	 * of threads specified in ImageJ preferences.
+	 *
+	 * @param mask
+	 *            a binary mask
+	 * @return the labels and the statistics of the components
+	 */
+	public static final ConnectedComponents label(BitMask mask)
+	{
+		return label(mask, 4, Prefs.getThreads());
+	}
+
+	/**
+	 * Labels the connected components of a binary mask.
+	 *
+	 * @param mask
+	 *            a binary mask
+	 * @param connectivity
+	 *            the connectivity of the components, either 4 or 8
+	 * @param nThreads
+	 *            the number of bands of rows processed simultaneously
+	 * @return the labels and the statistics of the components
+	 */
+	public static final ConnectedComponents label(BitMask mask,
+			final int connectivity, int nThreads)
+	{
+		checkConnectivity(connectivity);
+
+		// the parent of each foreground pixel, or -1 for background
+		int width = mask.getWidth();
+		int height = mask.getHeight();
+		final int[] parents = BufferPool.getInstance().borrowInts(width * height);
+		for (int y = 0; y < height; y++)
+		{
+			int offset = y * width;
+			for (int x = 0; x < width; x++)
+			{
+				parents[offset + x] = mask.get(x, y) ? offset + x : -1;
+			}
+		}
+		return label(parents, width, height, connectivity, nThreads);
+	}
+
+	private static final void checkConnectivity(int connectivity)
+	{
+		if (connectivity != 4 && connectivity != 8)
+		{
+			throw new IllegalArgumentException("Connectivity must be 4 or 8");
+		}
+	}
+
+	/**
+	 * Labels the components from the array of parents, initialized with the
+	 * index of each foreground pixel and -1 for background pixels. The array
+	 * is borrowed from the buffer pool, and is released after the labelling.
+	 */
+	private static final ConnectedComponents label(final int[] parents, final int width,
+			final int height, final int connectivity, int nThreads)
+	{
+		BufferPool pool = BufferPool.getInstance();
+		nThreads = Math.max(Math.min(nThreads, height), 1);
+
+		// label each band of rows
+		final int[] bandStarts = new int[nThreads + 1];
+		for (int t = 0; t <= nThreads; t++)
+		{
+			bandStarts[t] = height * t / nThreads;
+		}
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(nThreads);
+		for (int t = 0; t < nThreads; t++)
+		{
+			final int y0 = bandStarts[t];
+			final int y1 = bandStarts[t + 1];
+			tasks.add(new Callable<Void>()
+			{
+				@Override
+				public Void call()
+				{
+					for (int y = y0; y < y1; y++)
+					{
+						PreviewExecutor.checkCanceled();
+						mergeRow(parents, width, y, y > y0, connectivity);
+					}
+					return null;
+				}
+			});
+		}
+		ThreadUtils.invokeAll(tasks, nThreads);
+
+		// merge the components across the borders of the bands
+		for (int t = 1; t < nThreads; t++)
+		{
+			mergeRow(parents, width, bandStarts[t], true, connectivity);
+		}
+
+		// replace the parent of each pixel by the root of its component, and
+		// count the roots within each band
+		final int[] rootCounts = new int[nThreads];
+		tasks.clear();
+		for (int t = 0; t < nThreads; t++)
+		{
+			final int band = t;
+			final int i0 = bandStarts[t] * width;
+			final int i1 = bandStarts[t + 1] * width;
+			tasks.add(new Callable<Void>()
+			{
+				@Override
+				public Void call()
+				{
+					int nRoots = 0;
+					for (int i = i0; i < i1; i++)
+					{
+						if (parents[i] < 0)
+							continue;
+						int root = findRoot(parents, i);
+						parents[i] = root;
+						if (root == i)
+							nRoots++;
+					}
+					rootCounts[band] = nRoots;
+					return null;
+				}
+			});
+		}
+		ThreadUtils.invokeAll(tasks, nThreads);
+
+		// number the roots in raster order
+		final int[] labels = pool.borrowInts(width * height);
+		final int[] labelOffsets = new int[nThreads];
+		int count = 0;
+		for (int t = 0; t < nThreads; t++)
+		{
+			labelOffsets[t] = count;
+			count += rootCounts[t];
+		}
+		tasks.clear();
+		for (int t = 0; t < nThreads; t++)
+		{
+			final int band = t;
+			final int i0 = bandStarts[t] * width;
+			final int i1 = bandStarts[t + 1] * width;
+			tasks.add(new Callable<Void>()
+			{
+				@Override
+				public Void call()
+				{
+					int label = labelOffsets[band];
+					for (int i = i0; i < i1; i++)
+					{
+						if (parents[i] == i)
+						{
+							labels[i] = ++label;
+						}
+					}
+					return null;
+				}
+			});
+		}
+		ThreadUtils.invokeAll(tasks, nThreads);
+
+		// propagate the labels of the roots, once all roots are labelled
+		tasks.clear();
+		for (int t = 0; t < nThreads; t++)
+		{
+			final int i0 = bandStarts[t] * width;
+			final int i1 = bandStarts[t + 1] * width;
+			tasks.add(new Callable<Void>()
+			{
+				@Override
+				public Void call()
+				{
+					for (int i = i0; i < i1; i++)
+					{
+						int root = parents[i];
+						if (root < 0)
+						{
+							labels[i] = 0;
+						}
+						else if (root != i)
+						{
+							labels[i] = labels[root];
+						}
+					}
+					return null;
+				}
+			});
+		}
+		ThreadUtils.invokeAll(tasks, nThreads);
+		pool.release(parents);
+
+		ConnectedComponents result = new ConnectedComponents(width, height, labels, count);
+		result.computeStatistics();
+		return result;
+	}
+
+	/**
+	 * Merges each foreground pixel of a row with its foreground neighbors on
+	 * the same row, and on the previous row if it is processed.
+	 */
+	private static final void mergeRow(int[] parents, int width, int y,
+			boolean withPreviousRow, int connectivity)
+	{
+		int offset = y * width;
+		for (int x = 0; x < width; x++)
+		{
+			int i = offset + x;
+			if (parents[i] < 0)
+				continue;
+
+			if (x > 0 && parents[i - 1] >= 0)
+			{
+				union(parents, i, i - 1);
+			}
+			if (withPreviousRow)
+			{
+				int up = i - width;
+				if (parents[up] >= 0)
+				{
+					union(parents, i, up);
+				}
+				if (connectivity == 8)
+				{
+					if (x > 0 && parents[up - 1] >= 0)
+					{
+						union(parents, i, up - 1);
+					}
+					if (x < width - 1 && parents[up + 1] >= 0)
+					{
+						union(parents, i, up + 1);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the root of the component containing the pixel, halving the path
+	 * from the pixel to the root.
+	 */
+	private static final int findRoot(int[] parents, int index)
+	{
+		while (parents[index] != index)
+		{
+			int parent = parents[index];
+			parents[index] = parents[parent];
+			index = parent;
+		}
+		return index;
+	}
+
+	/**
+	 * Merges the components of two pixels. The root with the smallest index
+	 * becomes the root of the merged component.
+	 */
+	private static final void union(int[] parents, int index1, int index2)
+	{
+		int root1 = findRoot(parents, index1);
+		int root2 = findRoot(parents, index2);
+		if (root1 < root2)
+		{
+			parents[root2] = root1;
+		}
+		else if (root2 < root1)
+		{
+			parents[root1] = root2;
+		}
+	}
+
+	private void computeStatistics()
+	{
+		this.areas = new int[this.count];
+		this.bounds = new int[4 * this.count];
+		for (int k = 0; k < this.count; k++)
+		{
+			this.bounds[4 * k] = Integer.MAX_VALUE;
+			this.bounds[4 * k + 1] = Integer.MAX_VALUE;
+			this.bounds[4 * k + 2] = -1;
+			this.bounds[4 * k + 3] = -1;
+		}
+
+		for (int y = 0; y < this.height; y++)
+		{
+			int offset = y * this.width;
+			for (int x = 0; x < this.width; x++)
+			{
+				int label = this.labels[offset + x];
+				if (label == 0)
+					continue;
+				int k = label - 1;
+				this.areas[k]++;
+				int b = 4 * k;
+				if (x < this.bounds[b]) this.bounds[b] = x;
+				if (y < this.bounds[b + 1]) this.bounds[b + 1] = y;
+				if (x > this.bounds[b + 2]) this.bounds[b + 2] = x;
+				if (y > this.bounds[b + 3]) this.bounds[b + 3] = y;
+			}
+		}
+	}
+
+	/**
+	 * Keeps only the largest 4-connected component of a binary image.
+	 *
+	 * @param image
+	 *            a binary image
+	 * @return a new binary image containing only the largest component
+	 */
+	public static final ByteProcessor keepLargestRegion(ImageProcessor image)
+	{
+		ConnectedComponents components = label(image);
+		ByteProcessor result = components.createMask(components.getLargestLabel());
+		components.release();
+		return result;
+	}
+
+	/**
+	 * Removes the largest 4-connected component of a binary image.
+	 *
+	 * @param image
+	 *            a binary image
+	 * @return a new binary image containing all the components but the
+	 *         largest one
+	 */
+	public static final ByteProcessor removeLargestRegion(ImageProcessor image)
+	{
+		ConnectedComponents components = label(image);
+		final int largest = components.getLargestLabel();
+		ByteProcessor result = components.createMask(new LabelFilter()
+		{
+			@Override
+			public boolean keep(int label, int area)
+			{
+				return label != largest;
+			}
+		});
+		components.release();
+		return result;
+	}
+
+	/**
+	 * Removes the 4-connected components of a binary image that contain less
+	 * than the specified number of pixels.
+	 *
+	 * @param image
+	 *            a binary image
+	 * @param minArea
+	 *            the minimum number of pixels of the components to keep
+	 * @return a new binary image containing the components with at least
+	 *         minArea pixels
+	 */
+	public static final ByteProcessor areaOpening(ImageProcessor image, int minArea)
+	{
+		ConnectedComponents components = label(image);
+		ByteProcessor result = components.createMask(minAreaFilter(minArea));
+		components.release();
+		return result;
+	}
+
+	/**
+	 * Removes the 4-connected components of a binary mask that contain less
+	 * than the specified number of pixels.
+	 *
+	 * @param mask
+	 *            a binary mask
+	 * @param minArea
+	 *            the minimum number of pixels of the components to keep
+	 * @return a new mask containing the components with at least minArea
+	 *         pixels
+	 */
+	public static final BitMask areaOpening(BitMask mask, int minArea)
+	{
+		ConnectedComponents components = label(mask);
+		BitMask result = components.createBitMask(minAreaFilter(minArea));
+		components.release();
+		return result;
+	}
+
+	/**
+	 * Selects the components to keep in a binary mask.
+	 */
+	private interface LabelFilter
+	{
+		boolean keep(int label, int area);
+	}
+
+	/**
+	 * Creates a filter that keeps the components with at least the specified
+	 * number of pixels.
+	 */
+	private static final LabelFilter minAreaFilter(final int minArea)
+	{
+		return new LabelFilter()
+		{
+			@Override
+			public boolean keep(int label, int area)
+			{
+				return area >= minArea;
+			}
+		};
+	}
+
+	/**
+	 * Computes for each label whether the component is accepted by the
+	 * filter.
+	 */
+	private boolean[] keptLabels(LabelFilter filter)
+	{
+		boolean[] kept = new boolean[this.count + 1];
+		for (int k = 1; k <= this.count; k++)
+		{
+			kept[k] = filter.keep(k, this.areas[k - 1]);
+		}
+		return kept;
+	}
+
+	/**
+	 * Creates a binary mask of the components accepted by the filter.
+	 */
+	private ByteProcessor createMask(LabelFilter filter)
+	{
+		boolean[] kept = keptLabels(filter);
+		byte[] pixels = new byte[this.labels.length];
+		for (int i = 0; i < pixels.length; i++)
+		{
+			pixels[i] = kept[this.labels[i]] ? (byte) 255 : 0;
+		}
+		return new ByteProcessor(this.width, this.height, pixels);
+	}
+
+	/**
+	 * Creates a bit mask of the components accepted by the filter.
+	 */
+	private BitMask createBitMask(LabelFilter filter)
+	{
+		boolean[] kept = keptLabels(filter);
+		BitMask result = new BitMask(this.width, this.height);
+		for (int y = 0; y < this.height; y++)
+		{
+			int offset = y * this.width;
+			for (int x = 0; x < this.width; x++)
+			{
+				if (kept[this.labels[offset + x]])
+				{
+					result.set(x, y, true);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Creates a binary image of a single component.
+	 *
+	 * @param label
+	 *            the label of the component, or 0 for an empty image
+	 * @return a new binary image with the value 255 for the pixels of the
+	 *         component
+	 */
+	public ByteProcessor createMask(final int label)
+	{
+		return createMask(new LabelFilter()
+		{
+			@Override
+			public boolean keep(int label2, int area)
+			{
+				return label2 == label;
+			}
+		});
+	}
+
+	/**
+	 * Returns the label of the component with the largest area. If several
+	 * components have the largest area, returns the smallest label.
+	 *
+	 * @return the label of the largest component, or 0 if the image contains
+	 *         no component
+	 */
+	public int getLargestLabel()
+	{
+		int largest = 0;
+		int maxArea = 0;
+		for (int k = 0; k < this.count; k++)
+		{
+			if (this.areas[k] > maxArea)
+			{
+				maxArea = this.areas[k];
+				largest = k + 1;
+			}
+		}
+		return largest;
+	}
+
+	/**
+	 * @return the number of components
+	 */
+	public int getCount()
+	{
+		return this.count;
+	}
+
+	/**
+	 * @return the label of each pixel in raster order, or 0 for the
+	 *         background
+	 */
+	public int[] getLabels()
+	{
+		return this.labels;
+	}
+
+	/**
+	 * Returns the number of pixels of a component.
+	 *
+	 * @param label
+	 *            the label of the component, between 1 and the number of
+	 *            components
+	 * @return the area of the component, in pixels
+	 */
+	public int getArea(int label)
+	{
+		return this.areas[label - 1];
+	}
+
+	/**
+	 * Returns the bounding box of a component.
+	 *
+	 * @param label
+	 *            the label of the component, between 1 and the number of
+	 *            components
+	 * @return the smallest rectangle containing the pixels of the component
+	 */
+	public Rectangle getBounds(int label)
+	{
+		int b = 4 * (label - 1);
+		return new Rectangle(this.bounds[b], this.bounds[b + 1],
+				this.bounds[b + 2] - this.bounds[b] + 1,
+				this.bounds[b + 3] - this.bounds[b + 1] + 1);
+	}
+
+	/**
+	 * Gives the array of labels back to the buffer pool. The labels must not
+	 * be used anymore after calling this method.
+	 */
+	public void release()
+	{
+		BufferPool.getInstance().release(this.labels);
+		this.labels = null;
+	}
+}
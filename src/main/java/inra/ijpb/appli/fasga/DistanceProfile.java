@@ -252,4 +252,74 @@ public class DistanceProfile
 		
 		return result;
 	}
+	
+	/**
+	 * Computes the profiles of red, green and blue average intensities with
+	 * respect to the regions given by second argument, reading the values
+	 * from the planes of a planar RGB image.
+	 * 
+	 * @param image
+	 *            a planar RGB image containing the values
+	 * @param regions
+	 *            a gray scale image processor containing region indices
+	 * @return a data table with as many rows as the number of regions, and the
+	 *         average values of input image by region
+	 * @throws IllegalArgumentException
+	 *             if image sizes differ
+	 */
+	public static ResultsTable colorByRegion(PlanarRGBImage image,
+			ImageProcessor regions) 
+	{
+		// check image sizes
+		if (regions.getWidth() != image.getWidth() || regions.getHeight() != image.getHeight()) 
+		{
+			throw new IllegalArgumentException(
+					"Input images must have the same size");
+		}
+		
+		// First compute number of regions
+		int nPixels = regions.getPixelCount();
+		int nRegions = 0;
+		for (int i = 0; i < nPixels; i++) 
+		{
+			nRegions = Math.max(nRegions, regions.get(i));
+		}
+
+		// allocate memory
+		long[] sumR = new long[nRegions+1];
+		long[] sumG = new long[nRegions+1];
+		long[] sumB = new long[nRegions+1];
+		int[] counts = new int[nRegions+1];
+
+		// iterate over pixels, and update data of corresponding regions
+		byte[] red = image.getRed();
+		byte[] green = image.getGreen();
+		byte[] blue = image.getBlue();
+		for (int i = 0; i < nPixels; i++) 
+		{
+			int region = regions.get(i);
+			if (region == 0)
+				continue;
+			
+			int r = region - 1;
+			sumR[r] += red[i] & 0xFF;
+			sumG[r] += green[i] & 0xFF;
+			sumB[r] += blue[i] & 0xFF;
+			counts[r] ++;
+		}
+			
+		// Initialize a new result table
+		ResultsTable result = new ResultsTable();
+		
+		// compute mean values for each region
+		for (int i = 0; i < nRegions; i++) 
+		{
+			result.incrementCounter();
+			result.addValue("Mean_Red", (double) sumR[i] / counts[i]);
+			result.addValue("Mean_Green", (double) sumG[i] / counts[i]);
+			result.addValue("Mean_Blue", (double) sumB[i] / counts[i]);
+		}
+		
+		return result;
+	}
 }
@@ -17,7 +17,6 @@ import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 import inra.ijpb.binary.BinaryImages;
 import inra.ijpb.math.ImageCalculator;
-import inra.ijpb.morphology.GeodesicReconstruction;
 import inra.ijpb.segment.Threshold;
 
 import java.awt.AWTEvent;
@@ -213,14 +212,14 @@ public class Fasga2ClassifyRegionsPlugin implements ExtendedPlugInFilter, Dialog
 		// Stem image with different threshold, but keep rind within.
 		IJ.log("  Compute Stem Image");
 		ImageProcessor stem = Threshold.threshold(brightness, 0, 200.0 / 255.0);
-		stem = GeodesicReconstruction.fillHoles(stem);
+		stem = BinaryHoleFilling.fillHoles(stem);
 		stem = BinaryImages.keepLargestRegion(stem);
 		
 		// detect eventual holes in the stem
 		IJ.log("  Detect holes");
 		ImageProcessor holes = Threshold.threshold(luma, holeThresholdHigh, 1.0);
 		ImageProcessor holes2 = Threshold.threshold(luma, holeThresholdLow, 1.0);
-		holes = GeodesicReconstruction.reconstructByDilation(holes, holes2);
+		holes = HysteresisThreshold.reconstruct(holes, holes2);
 		
 		// combine image of stem with image of holes
 		stem = ImageCalculator.combineImages(stem, not(holes), ImageCalculator.Operation.AND);
@@ -234,7 +233,11 @@ public class Fasga2ClassifyRegionsPlugin implements ExtendedPlugInFilter, Dialog
 		IJ.log("  Extract dark regions");
 		// Extract bundles + sclerenchyme
 		ImageProcessor darkRegions = Threshold.threshold(brightness, 0, darkRegionsThreshold / 255.0);
-		constrainToMask(darkRegions, stem);
+		
+		// the stem is smooth, so its runs are used for constraining the
+		// other regions
+		RunLengthMask stemRuns = RunLengthMask.fromImage(stem);
+		stemRuns.constrain(darkRegions);
 		if (showImages)
 		{
 			darkRegionsImagePlus = updatePreview(darkRegionsImagePlus, darkRegions, "Dark Regions");
@@ -243,13 +246,13 @@ public class Fasga2ClassifyRegionsPlugin implements ExtendedPlugInFilter, Dialog
 		// Compute rind image, as the largest dark region
 		IJ.log("  Compute Rind");
 		ImageProcessor rind = BinaryImages.keepLargestRegion(darkRegions);
-		stem = ImageCalculator.combineImages(stem, rind, ImageCalculator.Operation.OR);
+		stemRuns = stemRuns.union(RunLengthMask.fromImage(rind));
 		
 		
 		// Compute bundles image, by removing rind and filtering remaining image
 		IJ.log("  Compute Bundles");
 		ImageProcessor bundles = BinaryImages.removeLargestRegion(darkRegions);
-		bundles = GeodesicReconstruction.fillHoles(bundles);
+		bundles = BinaryHoleFilling.fillHoles(bundles);
 		bundles = BinaryImages.areaOpening(bundles, minBundleSizeInPixels);
 		if (showImages) 
 		{
@@ -260,21 +263,21 @@ public class Fasga2ClassifyRegionsPlugin implements ExtendedPlugInFilter, Dialog
 		ImageProcessor redZone = Threshold.threshold(hue, redRegionThreshold / 255.0, 1);
 		
 		// combine with stem image to remove background
-		constrainToMask(redZone, stem);
+		stemRuns.constrain(redZone);
 		if (showImages) 
 		{
 			redRegionImagePlus = updatePreview(redRegionImagePlus, redZone, "Red Region");
 		}
 		
 		// combine with stem image to remove background
-		constrainToMask(darkRegions, stem);
+		stemRuns.constrain(darkRegions);
 
 		// computes Blue region, as the union of non red and non dark
 		IJ.log("  Compute Blue Region");
 		ImageCalculator.Operation op = ImageCalculator.Operation.AND; 
 		ImageProcessor blueZone = ImageCalculator.combineImages(not(redZone), not(rind), op);
 		blueZone = ImageCalculator.combineImages(blueZone, not(bundles), op);
-		constrainToMask(blueZone, stem);
+		stemRuns.constrain(blueZone);
 		if (showImages) 
 		{
 			blueRegionImagePlus = updatePreview(blueRegionImagePlus, blueZone, "Blue Region");
@@ -439,27 +442,6 @@ public class Fasga2ClassifyRegionsPlugin implements ExtendedPlugInFilter, Dialog
 	}
 	
 
-	/**
-	 * Sets to zero all the pixels of input image that are not in the binary mask.
-	 * 
-	 * @param image a grayscale or RGB image
-	 * @param mask a binary mask
-	 */
-	private static final void constrainToMask(ImageProcessor image, ImageProcessor mask) 
-	{
-		int width = image.getWidth();
-		int height = image.getHeight();
-
-		for (int y = 0; y < height; y++)
-		{
-			for (int x = 0; x < width; x++)
-			{
-				if (mask.get(x, y) == 0)
-					image.set(x, y, 0);
-			}
-		}
-	}
-	
 	/**
 	 * Create a new label image from a set of binary images. The label values 
 	 * range between 1 and the number of images.
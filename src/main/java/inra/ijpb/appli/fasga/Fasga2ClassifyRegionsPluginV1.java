@@ -167,7 +167,7 @@ public class Fasga2ClassifyRegionsPluginV1 implements ExtendedPlugInFilter, Dial
 
 		// Add morphological processing to keep stem image
 		IJ.log("  fill holes");
-		ImageProcessor stem = Reconstruction.fillHoles(darkRegions);
+		ImageProcessor stem = BinaryHoleFilling.fillHoles(darkRegions);
 		stem = BinaryImages.keepLargestRegion(stem);
 		
 		stem.invertLut();
@@ -14,9 +14,9 @@ import ij.plugin.filter.PlugInFilter;
 import ij.process.ColorProcessor;
 import ij.process.ImageProcessor;
 import inra.ijpb.binary.BinaryImages;
-import inra.ijpb.morphology.Reconstruction;
 
 import java.awt.Color;
+import java.awt.Rectangle;
 
 /**
  * Compute color profiles from a color image and a binary image of the stem.
@@ -143,29 +143,26 @@ public class Fasga2ColorProfilesPlugin implements PlugIn
 			return null;
 		}
 		
+		// restrict the computation to the bounding box of the stem, surrounded
+		// by background so that distances are not modified
+		Rectangle bounds = StemCrop.computeBounds(stemImage, StemCrop.MARGIN);
+		stemImage = StemCrop.crop(stemImage, bounds);
+		
 		// remove holes from stem image
-		ImageProcessor stemImage2 = Reconstruction.fillHoles(stemImage);
+		ImageProcessor stemImage2 = BinaryHoleFilling.fillHoles(stemImage);
 
 		// Compute distance map for the specified number of regions
 		ImageProcessor distMap = BinaryImages.distanceMap(stemImage2);
 		ImageProcessor regions = DistanceProfile.distanceMapToClasses(distMap, 
 				regionNumber);
 		
-		// remove label of holes 
-		for (int y = 0; y < stemImage.getHeight(); y++)
-		{
-			for (int x = 0; x < stemImage.getWidth(); x++)
-			{
-				if (stemImage.get(x, y) == 0)
-				{
-					regions.set(x, y, 0);
-				}
-			}
-		}
+		// remove label of holes, by clearing the gaps between the runs of the
+		// stem
+		RunLengthMask.fromImage(stemImage).constrain(regions);
 		
 		// Compute average color in each region
 		ResultsTable rgbTable = DistanceProfile.colorByRegion(
-				(ColorProcessor) refImage, regions);
+				(ColorProcessor) StemCrop.crop(refImage, bounds), regions);
 
 		IJ.log("  (color profiles done)");
 		
@@ -11,6 +11,7 @@ import ij.gui.GenericDialog;
 import ij.plugin.filter.ExtendedPlugInFilter;
 import ij.plugin.filter.GaussianBlur;
 import ij.plugin.filter.PlugInFilterRunner;
+import ij.process.ColorProcessor;
 import ij.process.ImageProcessor;
 import inra.ijpb.algo.DefaultAlgoListener;
 import inra.ijpb.morphology.Morphology;
@@ -18,6 +19,7 @@ import inra.ijpb.morphology.Strel;
 import inra.ijpb.morphology.strel.OctagonStrel;
 
 import java.awt.AWTEvent;
+import java.awt.Checkbox;
 import java.io.File;
 
 /**
@@ -43,12 +45,34 @@ public class Fasga2MorphoFilteringPlugin implements ExtendedPlugInFilter, Dialog
 	private ImageProcessor baseImage;
 	
 	/** Keep instance of result image */
-	private ImageProcessor result;
+	private volatile ImageProcessor result;
+
+	/** the preview checkbox of the dialog, checked before publishing a preview */
+	private volatile Checkbox previewCheckbox = null;
 
 	// parameters of the plugin
 	int closingRadius;
 	int openingRadius;
 	double sigma;
+	int tileSize;
+	boolean streaming;
+	int processingScale;
+	boolean upsample;
+	boolean recursiveSmoothing;
+	boolean skipBackground;
+	boolean fastOctagon;
+	
+	// intermediate results computed during preview, with the parameters used
+	// to compute them. Each result is invalidated when a previous one changes.
+	// Guarded by the plugin instance, as they are computed on the preview
+	// thread.
+	private ImageProcessor cachedReducedImage = null;
+	private int cachedScale;
+	private boolean cachedFastOctagon;
+	private ImageProcessor cachedClosing = null;
+	private int cachedClosingRadius;
+	private ImageProcessor cachedOpening = null;
+	private int cachedOpeningRadius;
 	
 	
 	/**
@@ -84,22 +108,44 @@ public class Fasga2MorphoFilteringPlugin implements ExtendedPlugInFilter, Dialog
 		// Normal setup
     	this.imagePlus = imp;
     	this.baseImage = imp.getProcessor().duplicate();
+    	BufferPool.getInstance().fitToImage(imp.getWidth(), imp.getHeight());
 
     	GenericDialog gd = new GenericDialog("Fasga Filtering 2");
 		gd.addNumericField("Cell Wall Size", 6, 0);
 		gd.addNumericField("Bright Areas Size", 12, 0);
 		gd.addNumericField("Gaussian Smoothing", 4, 1);
+		gd.addNumericField("Tile Size (0 for no tiling)", 0, 0);
+		gd.addCheckbox("Streaming (low memory)", false);
+		gd.addNumericField("Processing Scale (1 for full resolution)", 1, 0);
+		gd.addCheckbox("Upsample Result", true);
+		gd.addCheckbox("Recursive Smoothing (fast)", false);
+		gd.addCheckbox("Skip Background Tiles", false);
+		gd.addCheckbox("Fast Octagon", true);
 
 		gd.addPreviewCheckbox(pfr);
+		this.previewCheckbox = gd.getPreviewCheckbox();
 		gd.addDialogListener(this);
 		previewing = true;
 		gd.showDialog();
 		previewing = false;
 
+		// keep the result of the last preview, or discard it if canceled
 		if (gd.wasCanceled())
+		{
+			PreviewExecutor.getInstance().cancel();
 			return DONE;
+		}
+		PreviewExecutor.getInstance().awaitCompletion();
 
 		parseDialogParameters(gd);
+		
+		// options given by macros are not checked by the dialog listener
+		String error = createOptions().check(this.baseImage);
+		if (error != null)
+		{
+			IJ.error("Fasga Filtering 2", error);
+			return DONE;
+		}
 
 		// clean up an return 
 		gd.dispose();
@@ -112,64 +158,476 @@ public class Fasga2MorphoFilteringPlugin implements ExtendedPlugInFilter, Dialog
 	{ 
 		IJ.log("run fasga morphological filtering");
 		
-		// Execute core of the plugin
-		this.result = computeFilteredImage(image, this.closingRadius, this.openingRadius, this.sigma);
+		if (previewing)
+		{
+			// compute the preview in background, reusing intermediate results,
+			// and with the same size as the original image
+			submitPreview(image);
+			return;
+		}
+		
+		// Execute core of the plugin. If a preview was computed for options
+		// equivalent to whole image filtering, intermediate results are reused.
+		if (hasCachedImages() && usesWholeImageFiltering())
+		{
+			this.result = computeCachedFilteredImage(this.processingScale,
+					this.closingRadius, this.openingRadius, this.sigma, 
+					this.recursiveSmoothing, this.upsample, this.fastOctagon);
+		}
+		else
+		{
+			this.result = computeFilteredImage(image, createOptions());
+		}
+	}
 
-    	if (previewing) {
-    		// Fill up the values of original image with values of the result
-    		for (int i = 0; i < image.getPixelCount(); i++) {
-    			image.set(i, result.get(i));
-    		}
-        }
+	/**
+	 * Returns true if intermediate results were computed during previews.
+	 */
+	private synchronized boolean hasCachedImages()
+	{
+		return this.cachedReducedImage != null;
+	}
+
+	/**
+	 * Returns true if the current options give the same result as the
+	 * filtering of the whole image, that is cached during previews. This is
+	 * also the case of tiling and of the skipping of background tiles, but
+	 * not of streaming.
+	 */
+	private boolean usesWholeImageFiltering()
+	{
+		return !this.streaming;
+	}
+
+	/**
+	 * Computes the preview on the shared preview thread, and writes the
+	 * result into the preview image once computed. The result of the plugin
+	 * is the filtered image, that has the size of the downsampled image when
+	 * it is not upsampled. The preview image is always upsampled.
+	 */
+	private void submitPreview(final ImageProcessor image)
+	{
+		// keep current parameters, as the dialog may change them
+		final int scale = this.processingScale;
+		final int closingRadius = this.closingRadius;
+		final int openingRadius = this.openingRadius;
+		final double sigma = this.sigma;
+		final boolean upsample = this.upsample;
+		final boolean recursive = this.recursiveSmoothing;
+		final boolean fastOctagon = this.fastOctagon;
+		final boolean wholeImage = usesWholeImageFiltering();
+		final FilteringOptions options = createOptions();
+		
+		PreviewExecutor.getInstance().submit(new PreviewExecutor.Job<ImageProcessor[]>()
+		{
+			@Override
+			public ImageProcessor[] compute()
+			{
+				ImageProcessor res;
+				if (wholeImage)
+				{
+					res = computeCachedFilteredImage(scale, closingRadius, openingRadius, sigma,
+							recursive, upsample, fastOctagon);
+				}
+				else
+				{
+					res = computeFilteredImage(baseImage, options);
+				}
+				PreviewExecutor.checkCanceled();
+				
+				ImageProcessor preview = res;
+				if (res.getWidth() != image.getWidth() || res.getHeight() != image.getHeight())
+				{
+					preview = ProcessingScale.upsample(res, scale, image.getWidth(), image.getHeight());
+				}
+				return new ImageProcessor[] {res, preview};
+			}
+
+			@Override
+			public void publish(ImageProcessor[] res)
+			{
+				// the preview may have been switched off during the computation
+				if (!isPreviewEnabled())
+				{
+					return;
+				}
+
+				result = res[0];
+				
+				// Fill up the values of original image with values of the result
+				ImageProcessor preview = res[1];
+				for (int i = 0; i < image.getPixelCount(); i++) {
+					image.set(i, preview.get(i));
+				}
+				imagePlus.updateAndDraw();
+			}
+		});
 	}
 
 	@Override
 	public boolean dialogItemChanged(GenericDialog gd, AWTEvent evt)
 	{
+		// the runner restores the image when the preview is switched off, so
+		// the computation that may still be running must be discarded
+		if (!isPreviewEnabled())
+		{
+			PreviewExecutor.getInstance().cancel();
+		}
+
 		System.out.println("dialog item changed");
 	
 		parseDialogParameters(gd);
+		
+		// disable the preview and the validation of unsupported combinations
+		String error = createOptions().check(this.baseImage);
+		if (error != null)
+		{
+			IJ.showStatus(error);
+			return false;
+		}
     	return true;
 	}
 
+	/**
+	 * Creates the options of the filtering from the parameters of the plugin.
+	 */
+	private FilteringOptions createOptions()
+	{
+		FilteringOptions options = new FilteringOptions(this.closingRadius,
+				this.openingRadius, this.sigma);
+		options.setTileSize(this.tileSize);
+		options.setStreaming(this.streaming);
+		options.setProcessingScale(this.processingScale);
+		options.setUpsample(this.upsample);
+		options.setRecursiveSmoothing(this.recursiveSmoothing);
+		options.setSkipBackground(this.skipBackground);
+		options.setFastOctagon(this.fastOctagon);
+		return options;
+	}
+
+	/**
+	 * Returns true if the preview checkbox of the dialog is selected.
+	 */
+	private boolean isPreviewEnabled()
+	{
+		Checkbox checkbox = this.previewCheckbox;
+		return checkbox != null && checkbox.getState();
+	}
+
     private void parseDialogParameters(GenericDialog gd) {
 		// Extract parameters
 		this.closingRadius = (int) gd.getNextNumber();
 		this.openingRadius = (int) gd.getNextNumber();
 		this.sigma = gd.getNextNumber();
+		this.tileSize = (int) gd.getNextNumber();
+		this.streaming = gd.getNextBoolean();
+		this.processingScale = Math.max((int) gd.getNextNumber(), 1);
+		this.upsample = gd.getNextBoolean();
+		this.recursiveSmoothing = gd.getNextBoolean();
+		this.skipBackground = gd.getNextBoolean();
+		this.fastOctagon = gd.getNextBoolean();
     }
 
+	/**
+	 * Computes the filtered image from the original image, reusing the
+	 * results of the closing and of the opening computed for a previous
+	 * preview when their parameters did not change. For example, changing
+	 * only the value of sigma only recomputes the gaussian smoothing.
+	 * 
+	 * The result corresponds to the filtering of the whole image, and thus
+	 * also to the tiled filtering. The computation can be canceled between
+	 * each step when run by the preview executor.
+	 */
+	private synchronized ImageProcessor computeCachedFilteredImage(int processingScale,
+			int closingRadius, int openingRadius, double sigma, 
+			boolean recursiveSmoothing, boolean upsample, boolean fastOctagon)
+	{
+		int scale = Math.max(processingScale, 1);
+		if (this.cachedReducedImage == null || this.cachedScale != scale)
+		{
+			this.cachedReducedImage = scale > 1 ? ProcessingScale.downsample(this.baseImage, scale) : this.baseImage;
+			this.cachedScale = scale;
+			this.cachedClosing = null;
+		}
+		if (this.cachedFastOctagon != fastOctagon)
+		{
+			this.cachedFastOctagon = fastOctagon;
+			this.cachedClosing = null;
+		}
+		
+		PreviewExecutor.checkCanceled();
+		
+		closingRadius = ProcessingScale.scaleRadius(closingRadius, scale);
+		if (this.cachedClosing == null || this.cachedClosingRadius != closingRadius)
+		{
+			IJ.log("   closing");
+			this.cachedClosing = morphoFilter(this.cachedReducedImage, closingRadius, true, fastOctagon);
+			this.cachedClosingRadius = closingRadius;
+			this.cachedOpening = null;
+		}
+		PreviewExecutor.checkCanceled();
+		
+		openingRadius = ProcessingScale.scaleRadius(openingRadius, scale);
+		if (this.cachedOpening == null || this.cachedOpeningRadius != openingRadius)
+		{
+			IJ.log("   opening");
+			this.cachedOpening = morphoFilter(this.cachedClosing, openingRadius, false, fastOctagon);
+			this.cachedOpeningRadius = openingRadius;
+		}
+		PreviewExecutor.checkCanceled();
+		
+		// cached images are never modified, so smooth a copy
+		IJ.log("   smooth");
+		ImageProcessor filtered = this.cachedOpening.duplicate();
+		smooth(filtered, sigma / scale, recursiveSmoothing);
+		PreviewExecutor.checkCanceled();
+		
+		if (scale > 1 && upsample)
+		{
+			filtered = ProcessingScale.upsample(filtered, scale,
+					this.baseImage.getWidth(), this.baseImage.getHeight());
+		}
+		return filtered;
+	}
+	
+	/**
+	 * Applies a morphological closing or opening with an octagon of the
+	 * specified radius, and returns the result in a new image. The fast
+	 * octagon is used only for color images.
+	 */
+	private static final ImageProcessor morphoFilter(ImageProcessor image, int radius, boolean closing,
+			boolean fastOctagon)
+	{
+		if (image instanceof ColorProcessor)
+		{
+			return RGBMorphoFilter.closingOpening((ColorProcessor) image,
+					closing ? radius : 0, closing ? 0 : radius, 3, fastOctagon);
+		}
+		
+		Strel strel = OctagonStrel.fromRadius(radius);
+		DefaultAlgoListener.monitor(strel);
+		return closing ? Morphology.closing(image, strel) : Morphology.opening(image, strel);
+	}
+	
     @Override
 	public void setNPasses(int nPasses)
 	{
     	this.nPasses = nPasses;
 	}
 
+	/**
+	 * Applies morphological filtering and smoothing on the whole input image,
+	 * at full resolution.
+	 * 
+	 * @param image
+	 *            the image to filter
+	 * @param closingRadius
+	 *            the radius of the octagon used for morphological closing
+	 * @param openingRadius
+	 *            the radius of the octagon used for morphological opening
+	 * @param sigma
+	 *            the width of the gaussian smoothing kernel
+	 * @return the filtered image
+	 */
 	public final static ImageProcessor computeFilteredImage(
 			ImageProcessor image, int closingRadius, int openingRadius,
 			double sigma)
 	{
+		return computeFilteredImage(image, new FilteringOptions(closingRadius, openingRadius, sigma));
+	}
+	
+	/**
+	 * Applies morphological filtering and smoothing on the input image, with
+	 * the specified options.
+	 * 
+	 * @param image
+	 *            the image to filter
+	 * @param options
+	 *            the parameters of the filters, and the way the filtering is
+	 *            computed
+	 * @return the filtered image
+	 * @throws IllegalArgumentException
+	 *             if the combination of options is not supported
+	 * @see FilteringOptions
+	 * @see ProcessingScale
+	 * @see StreamingColorFilter
+	 * @see TiledColorFilter
+	 * @see RecursiveGaussian
+	 * @see RGBMorphoFilter
+	 */
+	public final static ImageProcessor computeFilteredImage(ImageProcessor image,
+			FilteringOptions options)
+	{
+		String error = options.check(image);
+		if (error != null)
+		{
+			throw new IllegalArgumentException(error);
+		}
+		
+		int processingScale = options.processingScale;
+		if (processingScale <= 1)
+		{
+			return filter(image, options.closingRadius, options.openingRadius,
+					options.sigma, options);
+		}
+		
+		IJ.log("Downsample image by a factor " + processingScale);
+		ImageProcessor reduced = ProcessingScale.downsample(image, processingScale);
+		
+		ImageProcessor filtered = filter(reduced, 
+				ProcessingScale.scaleRadius(options.closingRadius, processingScale), 
+				ProcessingScale.scaleRadius(options.openingRadius, processingScale), 
+				options.sigma / processingScale, options);
+		
+		if (options.upsample)
+		{
+			IJ.log("Upsample filtered image");
+			filtered = ProcessingScale.upsample(filtered, processingScale,
+					image.getWidth(), image.getHeight());
+		}
+		return filtered;
+	}
+	
+	/**
+	 * Applies the filtering at the processing scale, for a combination of
+	 * options that has been checked. The radii and the width of the gaussian
+	 * kernel are given in pixels of the processed image.
+	 */
+	private static final ImageProcessor filter(ImageProcessor image,
+			int closingRadius, int openingRadius, double sigma,
+			FilteringOptions options)
+	{
+		int tileSize = options.tileSize;
+		boolean skipBackground = options.skipBackground;
+		boolean fastOctagon = options.fastOctagon;
+		if (options.streaming)
+		{
+			IJ.log("Start streaming color filtering");
+			ImageProcessor filtered = StreamingColorFilter.filter((ColorProcessor) image,
+					closingRadius, openingRadius, sigma);
+			
+			IJ.log("   done.");
+			return filtered;
+		}
+		
+		// a single tile gives the same result as the whole image, unless
+		// background tiles are skipped
+		if (tileSize > 0 && (skipBackground || image.getWidth() > tileSize || image.getHeight() > tileSize))
+		{
+			IJ.log("Start tiled color filtering");
+			TiledColorFilter filter = new TiledColorFilter(closingRadius, openingRadius, sigma, tileSize);
+			filter.setSkipBackground(skipBackground);
+			filter.setFastOctagon(fastOctagon);
+			ImageProcessor filtered = filter.process(image);
+			
+			IJ.log("   done.");
+			return filtered;
+		}
+		
 		// apply morphological filtering for removing cell wall images
 		IJ.log("Start color filtering");
-		IJ.log("   closing");
-		Strel closingStrel = OctagonStrel.fromRadius(closingRadius);
-		DefaultAlgoListener.monitor(closingStrel);
-		
-		ImageProcessor filtered = Morphology.closing(image, closingStrel);
+		ImageProcessor filtered;
+		if (image instanceof ColorProcessor)
+		{
+			// process the three channels in parallel
+			IJ.log("   closing and opening");
+			filtered = RGBMorphoFilter.closingOpening((ColorProcessor) image,
+					closingRadius, openingRadius, 3, fastOctagon);
+		}
+		else
+		{
+			IJ.log("   closing");
+			Strel closingStrel = OctagonStrel.fromRadius(closingRadius);
+			DefaultAlgoListener.monitor(closingStrel);
+			
+			filtered = Morphology.closing(image, closingStrel);
 
-		IJ.log("   opening");
-		Strel openingStrel = OctagonStrel.fromRadius(openingRadius);
-		DefaultAlgoListener.monitor(openingStrel);
-		filtered = Morphology.opening(filtered, openingStrel);
+			IJ.log("   opening");
+			Strel openingStrel = OctagonStrel.fromRadius(openingRadius);
+			DefaultAlgoListener.monitor(openingStrel);
+			filtered = Morphology.opening(filtered, openingStrel);
+		}
 
 		// apply gaussian blur radius 4
 		IJ.log("   smooth");
 		// IJ.runPlugIn("Gaussian Blur...", "sigma=4");
-		new GaussianBlur().blurGaussian(filtered, sigma, sigma, .01);
+		smooth(filtered, sigma, options.recursiveSmoothing);
+
+		IJ.log("   done.");
+		return filtered;
+	}
+
 
+	/**
+	 * Applies morphological filtering and smoothing on a color image, and
+	 * returns the filtered channels as a planar image, that can be used by
+	 * the segmentation and quantification stages without unpacking the RGB
+	 * values again. The result is the same as for the computeFilteredImage
+	 * method with the same parameters.
+	 * 
+	 * @param image
+	 *            the color image to filter
+	 * @param closingRadius
+	 *            the radius of the octagon used for morphological closing
+	 * @param openingRadius
+	 *            the radius of the octagon used for morphological opening
+	 * @param sigma
+	 *            the width of the gaussian smoothing kernel
+	 * @param tileSize
+	 *            the size of the tiles, in pixels. If zero or if the image
+	 *            fits in a single tile, the whole image is processed at once.
+	 * @param skipBackground
+	 *            if true, the tiles that contain only saturated white pixels
+	 *            are not filtered but set to white. Requires tiling.
+	 * @return the filtered image, with planes borrowed from the buffer pool
+	 * @see PlanarRGBImage
+	 */
+	public final static PlanarRGBImage computeFilteredPlanarImage(
+			ColorProcessor image, int closingRadius, int openingRadius,
+			double sigma, int tileSize, boolean skipBackground)
+	{
+		if (tileSize > 0 && (image.getWidth() > tileSize || image.getHeight() > tileSize))
+		{
+			IJ.log("Start tiled color filtering");
+			TiledColorFilter filter = new TiledColorFilter(closingRadius, openingRadius, sigma, tileSize);
+			filter.setSkipBackground(skipBackground);
+			PlanarRGBImage filtered = filter.processPlanar(image);
+			
+			IJ.log("   done.");
+			return filtered;
+		}
+		
+		IJ.log("Start color filtering");
+		IJ.log("   closing and opening");
+		PlanarRGBImage filtered = RGBMorphoFilter.closingOpeningPlanar(image,
+				closingRadius, openingRadius, 3);
+		
+		IJ.log("   smooth");
+		for (int c = 0; c < 3; c++)
+		{
+			new GaussianBlur().blurGaussian(filtered.getChannelProcessor(c), sigma, sigma, .01);
+		}
+		
 		IJ.log("   done.");
 		return filtered;
 	}
+	
+	/**
+	 * Applies gaussian smoothing in place. The options have been checked, so
+	 * recursive smoothing is only requested for color images and for the
+	 * values of sigma it supports.
+	 */
+	private static final void smooth(ImageProcessor image, double sigma, boolean recursive)
+	{
+		if (recursive)
+		{
+			RecursiveGaussian.blur((ColorProcessor) image, sigma);
+		}
+		else
+		{
+			new GaussianBlur().blurGaussian(image, sigma, sigma, .01);
+		}
+	}
 
 
 	public static final void main(String[] args) 
@@ -0,0 +1,187 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.GenericDialog;
+import ij.measure.ResultsTable;
+import ij.plugin.PlugIn;
+import ij.process.ImageProcessor;
+
+import java.awt.Rectangle;
+
+/**
+ * Compares the results of the Fasga2 workflow when the color filtering is
+ * computed at full resolution and at several processing scales. For each
+ * processing scale, the filtering time and the area fractions of the regions
+ * are reported, together with their difference to the full resolution
+ * results. This helps choosing the largest processing scale that does not
+ * change the quantification.
+ *
+ * @see FilteringOptions#setProcessingScale(int)
+ * @author David Legland
+ *
+ */
+public class Fasga2ProcessingScaleReportPlugin implements PlugIn
+{
+	/** the names of the regions, in the order of their labels */
+	static final String[] REGION_NAMES = new String[] { "Lignified",
+			"NonLignified", "Rind", "Bundle" };
+
+	@Override
+	public void run(String arg0)
+	{
+		ImagePlus imagePlus = IJ.getImage();
+
+		GenericDialog gd = new GenericDialog("Processing Scale Report");
+		gd.addNumericField("Cell Wall Size", 4, 0);
+		gd.addNumericField("Bright Areas Size", 12, 0);
+		gd.addNumericField("Gaussian Smoothing", 4, 1);
+		gd.addStringField("Scales", "2, 4, 8");
+		gd.showDialog();
+
+		if (gd.wasCanceled())
+			return;
+
+		int closingRadius = (int) gd.getNextNumber();
+		int openingRadius = (int) gd.getNextNumber();
+		double sigma = gd.getNextNumber();
+		int[] scales;
+		try
+		{
+			scales = parseScales(gd.getNextString());
+		}
+		catch (NumberFormatException ex)
+		{
+			IJ.error("Processing Scale Report", "Could not parse the list of scales");
+			return;
+		}
+
+		ResultsTable table = compareProcessingScales(imagePlus.getProcessor(),
+				closingRadius, openingRadius, sigma, scales);
+		table.show(imagePlus.getShortTitle() + "-scales");
+	}
+
+	/**
+	 * Parses a list of integer values separated by commas or spaces.
+	 */
+	private static final int[] parseScales(String string)
+	{
+		String[] tokens = string.trim().split("[,\\s]+");
+		int[] scales = new int[tokens.length];
+		for (int i = 0; i < tokens.length; i++)
+		{
+			scales[i] = Integer.parseInt(tokens[i]);
+		}
+		return scales;
+	}
+
+	/**
+	 * Runs the Fasga2 workflow with the color filtering computed at full
+	 * resolution and at each of the specified processing scales, and
+	 * summarizes the results into a table. The filtered images are upsampled
+	 * before segmentation, so that the segmentation parameters are the same
+	 * for all scales. The segmentation uses the default parameters of the
+	 * QuantifFasga2Plugin.
+	 *
+	 * @param image
+	 *            the color image of the stem section
+	 * @param closingRadius
+	 *            the radius of the octagon used for morphological closing
+	 * @param openingRadius
+	 *            the radius of the octagon used for morphological opening
+	 * @param sigma
+	 *            the width of the gaussian smoothing kernel
+	 * @param scales
+	 *            the processing scales to compare with the full resolution
+	 * @return a table with one row for the full resolution and one row for
+	 *         each processing scale
+	 */
+	public static final ResultsTable compareProcessingScales(ImageProcessor image,
+			int closingRadius, int openingRadius, double sigma, int[] scales)
+	{
+		ResultsTable table = new ResultsTable();
+
+		// reference results at full resolution
+		IJ.log("Process image at full resolution");
+		long t0 = System.nanoTime();
+		ImageProcessor filtered = Fasga2MorphoFilteringPlugin.computeFilteredImage(
+				image, closingRadius, openingRadius, sigma);
+		double refTime = (System.nanoTime() - t0) / 1e6;
+		double[] refFractions = computeRegionFractions(filtered);
+		addRow(table, 1, refTime, refTime, refFractions, refFractions);
+
+		for (int scale : scales)
+		{
+			if (scale < 1)
+			{
+				throw new IllegalArgumentException("Processing scale must be at least 1");
+			}
+
+			IJ.log("Process image at scale " + scale);
+			t0 = System.nanoTime();
+			FilteringOptions options = new FilteringOptions(closingRadius, openingRadius, sigma);
+			options.setProcessingScale(scale);
+			options.setUpsample(true);
+			filtered = Fasga2MorphoFilteringPlugin.computeFilteredImage(image, options);
+			double time = (System.nanoTime() - t0) / 1e6;
+			double[] fractions = computeRegionFractions(filtered);
+			addRow(table, scale, refTime, time, refFractions, fractions);
+		}
+
+		return table;
+	}
+
+	/**
+	 * Segments the stem and its regions from the filtered image, and returns
+	 * the stem area in pixels followed by the area fraction of each region.
+	 */
+	private static final double[] computeRegionFractions(ImageProcessor filtered)
+	{
+		Rectangle stemBounds = new Rectangle();
+		ImageProcessor stem = Fasga2SegmentStemPlugin.segmentStem(filtered, .99, .99, 10,
+				false, false, stemBounds);
+		ImageProcessor labelImage = Fasga2SegmentRegionsPlugin.segmentStemRegions(
+				filtered, stem, stemBounds, 130, 170, 100, 6000, false);
+
+		int[] counts = new int[REGION_NAMES.length + 1];
+		for (int i = 0; i < labelImage.getPixelCount(); i++)
+		{
+			counts[labelImage.get(i)]++;
+		}
+
+		int stemArea = labelImage.getPixelCount() - counts[0];
+		double[] res = new double[REGION_NAMES.length + 1];
+		res[0] = stemArea;
+		for (int i = 1; i <= REGION_NAMES.length; i++)
+		{
+			res[i] = stemArea > 0 ? (double) counts[i] / stemArea : 0;
+		}
+		return res;
+	}
+
+	private static final void addRow(ResultsTable table, int scale,
+			double refTime, double time, double[] refFractions, double[] fractions)
+	{
+		table.incrementCounter();
+		table.addValue("Scale", scale);
+		table.addValue("FilteringTime", time);
+		table.addValue("Speedup", refTime / time);
+		table.addValue("StemArea", fractions[0]);
+		// the relative difference is not defined if no stem was found at full
+		// resolution
+		double relDiff = Double.NaN;
+		if (refFractions[0] > 0)
+		{
+			relDiff = (fractions[0] - refFractions[0]) / refFractions[0];
+		}
+		table.addValue("StemAreaRelDiff", relDiff);
+		for (int i = 0; i < REGION_NAMES.length; i++)
+		{
+			table.addValue(REGION_NAMES[i] + "Fraction", fractions[i + 1]);
+			table.addValue(REGION_NAMES[i] + "Diff", fractions[i + 1] - refFractions[i + 1]);
+		}
+	}
+}
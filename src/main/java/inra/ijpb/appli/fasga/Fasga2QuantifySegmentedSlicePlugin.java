@@ -13,8 +13,8 @@ import ij.plugin.filter.PlugInFilter;
 import ij.process.ByteProcessor;
 import ij.process.ColorProcessor;
 import ij.process.ImageProcessor;
-import inra.ijpb.binary.BinaryImages;
-import inra.ijpb.label.LabelImages;
+
+import java.awt.Rectangle;
 
 /**
  * Plugin for quantifying the colorimetry and morphology in various regions of a
@@ -119,6 +119,26 @@ public class Fasga2QuantifySegmentedSlicePlugin implements PlugIn
 
 	public static final ResultsTable quantifyRegions(ImageProcessor refImage,
 			ImageProcessor labelImage, double resol)
+	{
+		return quantifyRegions((ColorProcessor) refImage, null, labelImage, resol);
+	}
+
+	/**
+	 * Quantifies the regions of the stem, reading the average colors from the
+	 * planes of a planar RGB image.
+	 */
+	public static final ResultsTable quantifyRegions(PlanarRGBImage refImage,
+			ImageProcessor labelImage, double resol)
+	{
+		return quantifyRegions(null, refImage, labelImage, resol);
+	}
+
+	/**
+	 * Quantifies the regions, using either the color image or the planar
+	 * image for computing the average colors.
+	 */
+	private static final ResultsTable quantifyRegions(ColorProcessor colorImage,
+			PlanarRGBImage planarImage, ImageProcessor labelImage, double resol)
 	{
 		IJ.log("Quantify regions Morphometry");
 		
@@ -129,6 +149,10 @@ public class Fasga2QuantifySegmentedSlicePlugin implements PlugIn
 			return null;
 		}
 		
+		// restrict the computation to the bounding box of the labels
+		Rectangle bounds = StemCrop.computeBounds(labelImage, 0);
+		labelImage = StemCrop.crop(labelImage, bounds);
+		
 		// extract image size
 		int width = labelImage.getWidth();
 		int height = labelImage.getHeight();
@@ -163,21 +187,22 @@ public class Fasga2QuantifySegmentedSlicePlugin implements PlugIn
 		}
 		
 		// Extract image of bundles for counting them
-		ImageProcessor bundlesImage = new ByteProcessor(width, height);
+		byte[] bundlesPixels = BufferPool.getInstance().borrowBytes(width * height);
+		ImageProcessor bundlesImage = new ByteProcessor(width, height, bundlesPixels);
 		for (int y = 0; y < height; y++) 
 		{
 			for (int x = 0; x < width; x++)
 			{
-				if (labelImage.get(x, y) == 4)
-					bundlesImage.set(x, y, 255);
+				bundlesImage.set(x, y, labelImage.get(x, y) == 4 ? 255 : 0);
 			}
 		}
 		
 		
 		// Analyze bundles -> number of bundles
-		ImageProcessor bunLabels = BinaryImages.componentsLabeling(bundlesImage, 4, 16);
-		int[] labels = LabelImages.findAllLabels(bunLabels);
-		int bundlesNumber = labels.length;
+		ConnectedComponents bundles = ConnectedComponents.label(bundlesImage);
+		int bundlesNumber = bundles.getCount();
+		bundles.release();
+		BufferPool.getInstance().release(bundlesPixels);
 
 		// Compute fraction of each region
 		double bundlesFraction = (double) nPixelBundles / (double) nPixelStem; 
@@ -186,8 +211,18 @@ public class Fasga2QuantifySegmentedSlicePlugin implements PlugIn
 		double blueFraction = (double) nPixelBlue / (double) nPixelStem; 
 
 		// Compute average color in each region
-		ResultsTable rgbTable = DistanceProfile.colorByRegion(
-				(ColorProcessor) refImage, labelImage);
+		ResultsTable rgbTable;
+		if (planarImage != null)
+		{
+			PlanarRGBImage crop = StemCrop.crop(planarImage, bounds);
+			rgbTable = DistanceProfile.colorByRegion(crop, labelImage);
+			crop.release();
+		}
+		else
+		{
+			ColorProcessor crop = (ColorProcessor) StemCrop.crop(colorImage, bounds);
+			rgbTable = DistanceProfile.colorByRegion(crop, labelImage);
+		}
 		
 		// get results table, or create one if necessary
 		ResultsTable table = getResultsTable();
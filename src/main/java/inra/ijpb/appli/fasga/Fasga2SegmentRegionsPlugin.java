@@ -3,7 +3,6 @@
  */
 package inra.ijpb.appli.fasga;
 
-import static inra.ijpb.math.ImageCalculator.not;
 import ij.IJ;
 import ij.ImageJ;
 import ij.ImagePlus;
@@ -14,15 +13,15 @@ import ij.plugin.filter.ExtendedPlugInFilter;
 import ij.plugin.filter.PlugInFilterRunner;
 import ij.process.ByteProcessor;
 import ij.process.ColorProcessor;
-import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
-import inra.ijpb.binary.BinaryImages;
-import inra.ijpb.math.ImageCalculator;
-import inra.ijpb.morphology.Reconstruction;
-import inra.ijpb.segment.Threshold;
 
 import java.awt.AWTEvent;
+import java.awt.Checkbox;
+import java.awt.EventQueue;
+import java.awt.Rectangle;
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Classify an image of maize stem after fasga coloration to identify various tissues type.
@@ -52,8 +51,11 @@ public class Fasga2SegmentRegionsPlugin implements ExtendedPlugInFilter, DialogL
 	private ImageProcessor stemImage;
 	
 	/** Keep instance of result label image */
-	private ImageProcessor result;
-	private ImageProcessor resultRGB;
+	private volatile ImageProcessor result;
+	private volatile ImageProcessor resultRGB;
+
+	/** the preview checkbox of the dialog, checked before publishing a preview */
+	private volatile Checkbox previewCheckbox = null;
 
 	// parameters of the plugin
 	int darkRegionThreshold = 130;
@@ -62,11 +64,9 @@ public class Fasga2SegmentRegionsPlugin implements ExtendedPlugInFilter, DialogL
 	int bundlesMaxPixelNumber = 6000;
 
 	
-	// A list of preview images, stored in plugin to avoid creating many many images...
-	static ImagePlus darkRegionsImagePlus = null;
-	static ImagePlus bundlesImagePlus = null;
-	static ImagePlus redRegionImagePlus = null;
-	static ImagePlus blueRegionImagePlus = null;
+	// The preview windows, indexed by title, stored in plugin to avoid
+	// creating many many images. Only accessed from the event dispatch thread.
+	static final Map<String, ImagePlus> previewWindows = new HashMap<String, ImagePlus>();
 	
 	// Table of RGB values associated to each region
 	int[][] labelColors = new int[][] { 
@@ -127,6 +127,7 @@ public class Fasga2SegmentRegionsPlugin implements ExtendedPlugInFilter, DialogL
 		// Normal setup
     	this.imagePlus = imp;
     	this.baseImage = imp.getProcessor().duplicate();
+    	BufferPool.getInstance().fitToImage(imp.getWidth(), imp.getHeight());
 
     	GenericDialog gd = new GenericDialog("Fasga Segment Regions");
     	gd.addChoice("Filtered Image", imageNames, IJ.getImage().getTitle());
@@ -137,13 +138,19 @@ public class Fasga2SegmentRegionsPlugin implements ExtendedPlugInFilter, DialogL
 		gd.addNumericField("Bundles_Max. Size (pixels)", 6000, 0);
 
 		gd.addPreviewCheckbox(pfr);
+		this.previewCheckbox = gd.getPreviewCheckbox();
 		gd.addDialogListener(this);
 		previewing = true;
 		gd.showDialog();
 		previewing = false;
 
+		// keep the result of the last preview, or discard it if canceled
 		if (gd.wasCanceled())
+		{
+			PreviewExecutor.getInstance().cancel();
 			return DONE;
+		}
+		PreviewExecutor.getInstance().awaitCompletion();
 
 		parseDialogParameters(gd);
 
@@ -156,10 +163,26 @@ public class Fasga2SegmentRegionsPlugin implements ExtendedPlugInFilter, DialogL
 	@Override
 	public boolean dialogItemChanged(GenericDialog gd, AWTEvent evt)
 	{
+		// the runner restores the image when the preview is switched off, so
+		// the computation that may still be running must be discarded
+		if (!isPreviewEnabled())
+		{
+			PreviewExecutor.getInstance().cancel();
+		}
+
 		parseDialogParameters(gd);
     	return true;
 	}
 
+	/**
+	 * Returns true if the preview checkbox of the dialog is selected.
+	 */
+	private boolean isPreviewEnabled()
+	{
+		Checkbox checkbox = this.previewCheckbox;
+		return checkbox != null && checkbox.getState();
+	}
+
     private void parseDialogParameters(GenericDialog gd)
     {
 		// Extract filtered image
@@ -194,29 +217,90 @@ public class Fasga2SegmentRegionsPlugin implements ExtendedPlugInFilter, DialogL
 		if (this.stemImage == null)
 			return;
 		
+		if (previewing)
+		{
+			submitPreview(image);
+			return;
+		}
+		
 		// Execute core of the plugin
 		this.result = segmentStemRegions(this.filteredImage, this.stemImage, 
 				this.darkRegionThreshold, this.redRegionThreshold, 
 				this.bundlesMinPixelNumber, this.bundlesMaxPixelNumber, true);
 		this.resultRGB = ColorUtils.colorizeLabelImage(this.result, this.labelColors);
+	}
+
+	/**
+	 * Computes the preview on the shared preview thread, and writes the
+	 * result into the preview image once computed.
+	 */
+	private void submitPreview(final ImageProcessor image)
+	{
+		// keep current parameters, as the dialog may change them. If an input
+		// is the preview image, use the original image instead.
+		final ImageProcessor filtered = this.filteredImage == image ? this.baseImage : this.filteredImage;
+		final ImageProcessor stem = this.stemImage == image ? this.baseImage : this.stemImage;
+		final int darkThreshold = this.darkRegionThreshold;
+		final int redThreshold = this.redRegionThreshold;
+		final int bundlesMin = this.bundlesMinPixelNumber;
+		final int bundlesMax = this.bundlesMaxPixelNumber;
+		
+		PreviewExecutor.getInstance().submit(new PreviewExecutor.Job<ImageProcessor[]>()
+		{
+			@Override
+			public ImageProcessor[] compute()
+			{
+				ImageProcessor labels = segmentStemRegions(filtered, stem, darkThreshold,
+						redThreshold, bundlesMin, bundlesMax, true);
+				return new ImageProcessor[] {labels, ColorUtils.colorizeLabelImage(labels, labelColors)};
+			}
+
+			@Override
+			public void publish(ImageProcessor[] res)
+			{
+				// the preview may have been switched off during the computation
+				if (!isPreviewEnabled())
+				{
+					return;
+				}
+
+				result = res[0];
+				resultRGB = res[1];
 				
-    	if (previewing) 
-    	{
-    		// Fill up the values of original image with values of the result
-    		for (int i = 0; i < image.getPixelCount(); i++) 
-    		{
-    			image.set(i, resultRGB.get(i));
-    		}
-        }
+				// Fill up the values of original image with values of the result
+				for (int i = 0; i < image.getPixelCount(); i++) 
+				{
+					image.set(i, resultRGB.get(i));
+				}
+				imagePlus.updateAndDraw();
+			}
+		});
 	}
 
 	/**
 	 * Computes a label image corresponding to different regions in the stem.
+	 * The computation is restricted to the bounding box of the stem.
 	 */
 	public static final ImageProcessor segmentStemRegions(ImageProcessor image,
 			ImageProcessor stemImage, int darkRegionsThreshold,
 			int redRegionThreshold, int minBundleSizeInPixels, int maxBundleSizeInPixels,
 			boolean showImages)	
+	{
+		return segmentStemRegions(image, stemImage, null, darkRegionsThreshold,
+				redRegionThreshold, minBundleSizeInPixels, maxBundleSizeInPixels,
+				showImages);
+	}
+
+	/**
+	 * Computes a label image corresponding to different regions in the stem,
+	 * restricting the computation to the bounding box of the stem reported
+	 * by the stem segmentation. If the bounding box is null, it is computed
+	 * from the stem image.
+	 */
+	public static final ImageProcessor segmentStemRegions(ImageProcessor image,
+			ImageProcessor stemImage, Rectangle stemBounds, int darkRegionsThreshold,
+			int redRegionThreshold, int minBundleSizeInPixels, int maxBundleSizeInPixels,
+			boolean showImages)	
 	{
 		// apply morphological filtering for removing cell wall images
 		IJ.log("Start regions segmentation");
@@ -227,68 +311,159 @@ public class Fasga2SegmentRegionsPlugin implements ExtendedPlugInFilter, DialogL
 			throw new IllegalArgumentException("Requires a color image as first input");
 		}
 		
-		// First extract hue and brightness as float processors (between 0 and 1)
-		IJ.log("  Extract color components");
-		ColorProcessor colorImage = (ColorProcessor) image;
-		FloatProcessor hue = ColorUtils.computeHue(colorImage);
-		FloatProcessor brightness = colorImage.getBrightness();
+		// restrict the computation to the bounding box of the stem
+		Rectangle bounds = computeCropBounds(stemImage, stemBounds);
+		ColorProcessor colorImage = (ColorProcessor) StemCrop.crop(image, bounds);
+		
+		// classify the colors of dark and red pixels with a single lookup
+		IJ.log("  Classify colors");
+		ColorClassTable table = ColorClassTable.getInstance(darkRegionsThreshold, redRegionThreshold);
+		BitMask darkPixels = new BitMask(bounds.width, bounds.height);
+		BitMask redPixels = new BitMask(bounds.width, bounds.height);
+		table.classify(colorImage, darkPixels, redPixels);
+
+		ImageProcessor labelImage = segmentStemRegions(darkPixels, redPixels,
+				StemCrop.crop(stemImage, bounds), minBundleSizeInPixels, 
+				maxBundleSizeInPixels, showImages);
+		return embedLabels(labelImage, bounds, image.getWidth(), image.getHeight());
+	}
+	
+	/**
+	 * Computes a label image corresponding to different regions in the stem,
+	 * from the planes of a planar RGB image. The computation is restricted to
+	 * the bounding box of the stem.
+	 */
+	public static final ImageProcessor segmentStemRegions(PlanarRGBImage image,
+			ImageProcessor stemImage, int darkRegionsThreshold,
+			int redRegionThreshold, int minBundleSizeInPixels, int maxBundleSizeInPixels,
+			boolean showImages)	
+	{
+		return segmentStemRegions(image, stemImage, null, darkRegionsThreshold,
+				redRegionThreshold, minBundleSizeInPixels, maxBundleSizeInPixels,
+				showImages);
+	}
+
+	/**
+	 * Computes a label image corresponding to different regions in the stem,
+	 * from the planes of a planar RGB image, restricting the computation to
+	 * the bounding box of the stem reported by the stem segmentation. If the
+	 * bounding box is null, it is computed from the stem image.
+	 */
+	public static final ImageProcessor segmentStemRegions(PlanarRGBImage image,
+			ImageProcessor stemImage, Rectangle stemBounds, int darkRegionsThreshold,
+			int redRegionThreshold, int minBundleSizeInPixels, int maxBundleSizeInPixels,
+			boolean showImages)	
+	{
+		IJ.log("Start regions segmentation");
+		
+		// restrict the computation to the bounding box of the stem
+		Rectangle bounds = computeCropBounds(stemImage, stemBounds);
+		PlanarRGBImage crop = StemCrop.crop(image, bounds);
+		
+		// classify the colors of dark and red pixels with a single lookup
+		IJ.log("  Classify colors");
+		ColorClassTable table = ColorClassTable.getInstance(darkRegionsThreshold, redRegionThreshold);
+		BitMask darkPixels = new BitMask(bounds.width, bounds.height);
+		BitMask redPixels = new BitMask(bounds.width, bounds.height);
+		table.classify(crop, darkPixels, redPixels);
+		crop.release();
+
+		ImageProcessor labelImage = segmentStemRegions(darkPixels, redPixels,
+				StemCrop.crop(stemImage, bounds), minBundleSizeInPixels, 
+				maxBundleSizeInPixels, showImages);
+		return embedLabels(labelImage, bounds, image.getWidth(), image.getHeight());
+	}
+	
+	/**
+	 * Computes the rectangle of the crop of the stem, from the bounding box
+	 * of the stem if it is known, or by scanning the stem image otherwise.
+	 */
+	private static final Rectangle computeCropBounds(ImageProcessor stemImage, Rectangle stemBounds)
+	{
+		if (stemBounds == null)
+		{
+			return StemCrop.computeBounds(stemImage, StemCrop.MARGIN);
+		}
+		return StemCrop.enlarge(stemBounds, StemCrop.MARGIN, stemImage.getWidth(), stemImage.getHeight());
+	}
+
+	/**
+	 * Embeds the label image computed on the crop of the stem into a label
+	 * image with the size of the slide.
+	 */
+	private static final ImageProcessor embedLabels(ImageProcessor labelImage,
+			Rectangle bounds, int width, int height)
+	{
+		ImageProcessor result = StemCrop.embed(labelImage, bounds, width, height);
+		result.setMinAndMax(0, 4);
+		return result;
+	}
+	
+	/**
+	 * Segments the regions of the stem from the masks of the dark and red
+	 * pixels of the crop of the stem. The masks are modified.
+	 */
+	private static final ImageProcessor segmentStemRegions(BitMask darkPixels,
+			BitMask redPixels, ImageProcessor stemImage, int minBundleSizeInPixels, 
+			int maxBundleSizeInPixels, boolean showImages)	
+	{
+		PreviewExecutor.checkCanceled();
 
+		// masks are stored with one bit per pixel, and combined in place.
+		// They are converted into images only for display.
+		BitMask stem = BitMask.fromImage(stemImage);
+		
 		// identify dark regions (-> either rind or bundles)
 		IJ.log("  Extract dark regions");
 		// Extract bundles + sclerenchyme
-		ImageProcessor darkRegions = Threshold.threshold(brightness, 0, darkRegionsThreshold / 255.0);
-		constrainToMask(darkRegions, stemImage);
+		BitMask darkRegions = darkPixels.and(stem);
 		if (showImages)
 		{
-			darkRegionsImagePlus = updatePreview(darkRegionsImagePlus, darkRegions, "Dark Regions");
+			updatePreview(darkRegions.toByteProcessor(), "Dark Regions");
 		}
 		
+		PreviewExecutor.checkCanceled();
+
 		// Compute rind image, as the largest dark region
 		IJ.log("  Compute Rind");
 //		ImageProcessor rind = BinaryImages.keepLargestRegion(darkRegions);
-		ImageProcessor rind = BinaryImages.areaOpening(darkRegions, maxBundleSizeInPixels);
+		BitMask rind = ConnectedComponents.areaOpening(darkRegions, maxBundleSizeInPixels);
 		
-		stemImage = ImageCalculator.combineImages(stemImage, rind, ImageCalculator.Operation.OR);
+		stem.or(rind);
 		
 		
+		PreviewExecutor.checkCanceled();
+
 		// Compute bundles image, by removing rind and filtering remaining image
 		IJ.log("  Compute Bundles");
 //		ImageProcessor bundles = BinaryImages.removeLargestRegion(darkRegions);
-		ImageProcessor bundles = ImageCalculator.combineImages(darkRegions, rind, ImageCalculator.Operation.XOR);
-		
-		bundles = Reconstruction.fillHoles(bundles);
-		bundles = BinaryImages.areaOpening(bundles, minBundleSizeInPixels);
+		BitMask bundles = BinaryHoleFilling.fillHoles(darkRegions.xor(rind));
+		bundles = ConnectedComponents.areaOpening(bundles, minBundleSizeInPixels);
 		if (showImages) 
 		{
-			bundlesImagePlus = updatePreview(bundlesImagePlus, bundles, "Bundles");
+			updatePreview(bundles.toByteProcessor(), "Bundles");
 		}
 		
-		// Extract red area
-		ImageProcessor redZone = Threshold.threshold(hue, redRegionThreshold / 255.0, 1);
-		
-		// combine with stem image to remove background
-		constrainToMask(redZone, stemImage);
-		if (showImages) 
-		{
-			redRegionImagePlus = updatePreview(redRegionImagePlus, redZone, "Red Region");
-		}
-		
-		// combine with stem image to remove background
-		constrainToMask(darkRegions, stemImage);
-
-		// computes Blue region, as the union of non red and non dark
-		IJ.log("  Compute Blue Region");
-		ImageCalculator.Operation op = ImageCalculator.Operation.AND; 
-		ImageProcessor blueZone = ImageCalculator.combineImages(not(redZone), not(rind), op);
-		blueZone = ImageCalculator.combineImages(blueZone, not(bundles), op);
-		constrainToMask(blueZone, stemImage);
+		PreviewExecutor.checkCanceled();
+
+		// the red and blue regions are only computed for display, as the
+		// label image is computed from the masks in a single pass
 		if (showImages) 
 		{
-			blueRegionImagePlus = updatePreview(blueRegionImagePlus, blueZone, "Blue Region");
+			// Extract red area, and combine with stem image to remove background
+			BitMask redZone = redPixels.duplicate().and(stem);
+			updatePreview(redZone.toByteProcessor(), "Red Region");
+
+			// computes Blue region, as the part of the stem that is neither red
+			// nor dark
+			BitMask blueZone = stem.duplicate().andNot(redZone).andNot(rind).andNot(bundles);
+			updatePreview(blueZone.toByteProcessor(), "Blue Region");
 		}
 
+		PreviewExecutor.checkCanceled();
+
 		IJ.log("  Compute Labels");
-		ImageProcessor labelImage = createLabelImage(redZone, blueZone, rind, bundles);
+		ImageProcessor labelImage = createLabelImage(stem, redPixels, rind, bundles);
 		labelImage.setMinAndMax(0, 4);
 		IJ.log("  (end of region segmentation)");
 
@@ -296,81 +471,86 @@ public class Fasga2SegmentRegionsPlugin implements ExtendedPlugInFilter, DialogL
 	}
 	
 
-	private static ImagePlus updatePreview(ImagePlus imagePlus, ImageProcessor image, String title)
+	/**
+	 * Displays an image in the preview window with the specified title,
+	 * creating the window if necessary. As the images may be computed on the
+	 * preview thread, the windows are only accessed from the event dispatch
+	 * thread.
+	 */
+	private static void updatePreview(final ImageProcessor image, final String title)
 	{
-		if (imagePlus == null)
+		EventQueue.invokeLater(new Runnable()
 		{
-			imagePlus = new ImagePlus(title, image);	
-			imagePlus.show();
-		}
-		else
-		{
-			imagePlus.setProcessor(image);
-			imagePlus.repaintWindow();
-		}
-		return imagePlus;
+			@Override
+			public void run()
+			{
+				ImagePlus imagePlus = previewWindows.get(title);
+				if (imagePlus == null)
+				{
+					imagePlus = new ImagePlus(title, image);	
+					imagePlus.show();
+					previewWindows.put(title, imagePlus);
+				}
+				else
+				{
+					imagePlus.setProcessor(image);
+					imagePlus.repaintWindow();
+				}
+			}
+		});
 	}
 	
 
 	/**
-	 * Sets to zero all the pixels of input image that are not in the binary mask.
+	 * Create a new label image from the masks of the regions, in a single
+	 * row-major pass over the words of the masks. The bundles have precedence
+	 * over the rind, and the rind over the red and blue regions, that split
+	 * the rest of the stem. Each pixel of the label image is written at most
+	 * once.
 	 * 
-	 * @param image a grayscale or RGB image
-	 * @param mask a binary mask
+	 * @param stem the mask of the stem
+	 * @param redPixels the mask of the red pixels, within or outside the stem
+	 * @param rind the mask of the rind
+	 * @param bundles the mask of the bundles
+	 * @return a new image with label values: 1 for red region, 2 for blue
+	 *         region, 3 for rind and 4 for bundles
 	 */
-	private static final void constrainToMask(ImageProcessor image, ImageProcessor mask) 
+	private static final ImageProcessor createLabelImage(BitMask stem, 
+			BitMask redPixels, BitMask rind, BitMask bundles)
 	{
-		int width = image.getWidth();
-		int height = image.getHeight();
-
-		if (mask.getWidth() != width || mask.getHeight() != height)
-		{
-			IJ.error("Both images must have the same size");
-			throw new IllegalArgumentException("Input images must have the same size");
-		}
-		
+		int width = stem.getWidth();
+		int height = stem.getHeight();
+		int wordsPerRow = stem.wordsPerRow;
+		byte[] labels = new byte[width * height];
 		for (int y = 0; y < height; y++)
 		{
-			for (int x = 0; x < width; x++)
+			int offset = y * width;
+			for (int w = 0; w < wordsPerRow; w++)
 			{
-				if (mask.get(x, y) == 0)
-					image.set(x, y, 0);
+				int i = y * wordsPerRow + w;
+				long bundlesWord = bundles.words[i];
+				long rindWord = rind.words[i] & ~bundlesWord;
+				long stemWord = stem.words[i] & ~rindWord & ~bundlesWord;
+				long redWord = stemWord & redPixels.words[i];
+
+				int start = offset + (w << 6);
+				fillLabels(labels, start, redWord, (byte) 1);
+				fillLabels(labels, start, stemWord & ~redWord, (byte) 2);
+				fillLabels(labels, start, rindWord, (byte) 3);
+				fillLabels(labels, start, bundlesWord, (byte) 4);
 			}
 		}
+		return new ByteProcessor(width, height, labels);
 	}
 	
-	/**
-	 * Create a new label image from a set of binary images. The label values 
-	 * range between 1 and the number of images.
-	 * 
-	 * @param images a collection of binary images (0: background, >0 pixel belongs to current label)
-	 * @return a new image with label values
-	 */
-	private static final ImageProcessor createLabelImage(ImageProcessor... images)
+	private static final void fillLabels(byte[] labels, int start, long word, byte label)
 	{
-		ImageProcessor refImage = images[0];
-		int width = refImage.getWidth();
-		int height = refImage.getHeight();
-		
-		ImageProcessor result = new ByteProcessor(width, height);
-		
-		int label = 0;
-		for (ImageProcessor image : images) 
+		// iterate over the bits set within the word
+		while (word != 0)
 		{
-			label++;
-			for (int y = 0; y < height; y++)
-			{
-				for (int x = 0; x < width; x++)
-				{
-					if (image.get(x, y) > 0) 
-					{
-						result.set(x, y, label);
-					}
-				}
-			}
+			labels[start + Long.numberOfTrailingZeros(word)] = label;
+			word &= word - 1;
 		}
-		
-		return result;
 	}
 	
 	public static final void main(String[] args) 
@@ -3,27 +3,25 @@
  */
 package inra.ijpb.appli.fasga;
 
-import static inra.ijpb.math.ImageCalculator.not;
 import ij.IJ;
 import ij.ImageJ;
 import ij.ImagePlus;
+import ij.Macro;
 import ij.gui.DialogListener;
 import ij.gui.GenericDialog;
 import ij.plugin.filter.ExtendedPlugInFilter;
 import ij.plugin.filter.PlugInFilterRunner;
 import ij.process.ColorProcessor;
-import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
-import inra.ijpb.binary.BinaryImages;
-import inra.ijpb.math.ImageCalculator;
-import inra.ijpb.morphology.Reconstruction;
-import inra.ijpb.morphology.Morphology;
-import inra.ijpb.morphology.Strel;
-import inra.ijpb.morphology.strel.DiskStrel;
-import inra.ijpb.segment.Threshold;
 
 import java.awt.AWTEvent;
+import java.awt.Checkbox;
+import java.awt.EventQueue;
+import java.awt.Label;
+import java.awt.Rectangle;
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Identify the stem in a color image of fasga-stained maize stem section after
@@ -54,20 +52,33 @@ public class Fasga2SegmentStemPlugin implements ExtendedPlugInFilter, DialogList
 	private ImageProcessor baseImage;
 	
 	/** Keep instance of result label image */
-	private ImageProcessor result;
+	private volatile ImageProcessor result;
+
+	/** the preview checkbox of the dialog, checked before publishing a preview */
+	private volatile Checkbox previewCheckbox = null;
+	
+	/** the stem before hole removal and the component tree of its luma, kept between previews */
+	private ImageProcessor treeStem;
+	private LumaMaxTree stemTree;
+	private int treeBubblesDiameterPx;
+	private boolean treeCoarseToFine;
+
+	/** the suggested bubbles thickness, computed with the first preview, or 0 */
+	private volatile int suggestedDiameterPx = 0;
+
+	/** the label of the dialog displaying the suggestion, or null in macro mode */
+	private volatile Label suggestionLabel = null;
 
 	// parameters of the plugin
 	double highThresholdHoles = .999;
 	double lowThresholdHoles = .99;
 	int bubblesDiameterPx = 20;
+	boolean coarseToFine = false;
 	
 	
-	// A list of preview images, stored in plugin to avoid creating many many images...
-	static ImagePlus stemImagePlus = null;
-	static ImagePlus darkRegionsImagePlus = null;
-	static ImagePlus bundlesImagePlus = null;
-	static ImagePlus redRegionImagePlus = null;
-	static ImagePlus blueRegionImagePlus = null;
+	// The preview windows, indexed by title, stored in plugin to avoid
+	// creating many many images. Only accessed from the event dispatch thread.
+	static final Map<String, ImagePlus> previewWindows = new HashMap<String, ImagePlus>();
 	
 	/**
 	*/
@@ -103,20 +114,42 @@ public class Fasga2SegmentStemPlugin implements ExtendedPlugInFilter, DialogList
 		// Normal setup
     	this.imagePlus = imp;
     	this.baseImage = imp.getProcessor().duplicate();
+    	BufferPool.getInstance().fitToImage(imp.getWidth(), imp.getHeight());
 
     	GenericDialog gd = new GenericDialog("Fasga Segment Stem");
     	gd.addNumericField("High threshold for holes (0->1)", highThresholdHoles, 4);
     	gd.addNumericField("Low threshold for holes (0->1)", lowThresholdHoles, 4);
 		gd.addNumericField("Bubbles Thickness (pixels)", bubblesDiameterPx, 0);
+		// the suggestion is computed by the first preview, and never when
+		// the plugin is called from a macro
+		this.suggestedDiameterPx = 0;
+		this.suggestionLabel = null;
+		if (Macro.getOptions() == null && baseImage instanceof ColorProcessor)
+		{
+			gd.addMessage("Suggested bubbles thickness: (see preview)");
+			if (gd.getMessage() instanceof Label)
+			{
+				this.suggestionLabel = (Label) gd.getMessage();
+			}
+		}
+		gd.addCheckbox("Coarse-to-fine", coarseToFine);
 
 		gd.addPreviewCheckbox(pfr);
+		this.previewCheckbox = gd.getPreviewCheckbox();
 		gd.addDialogListener(this);
 		previewing = true;
 		gd.showDialog();
 		previewing = false;
 
+		// keep the result of the last preview, or discard it if canceled
 		if (gd.wasCanceled())
+		{
+			PreviewExecutor.getInstance().cancel();
+			releaseStemTree();
 			return DONE;
+		}
+		PreviewExecutor.getInstance().awaitCompletion();
+		releaseStemTree();
 
 		parseDialogParameters(gd);
 
@@ -126,18 +159,59 @@ public class Fasga2SegmentStemPlugin implements ExtendedPlugInFilter, DialogList
 	}
 
 	
+	/**
+	 * Suggests the bubbles thickness from the granulometry of the pixels
+	 * darker than the stem threshold, computed from a single distance
+	 * transform.
+	 */
+	private static final int suggestBubblesDiameter(ImageProcessor stemMask)
+	{
+		IJ.log("Compute granulometry of stem mask");
+		int[] counts = Granulometry.compute(stemMask);
+		int diameter = Granulometry.suggestDiameter(counts);
+		IJ.log("  suggested bubbles thickness: " + diameter + " pixels");
+		return diameter;
+	}
+
+	/**
+	 * Discards the component tree once the previews are finished, as it uses
+	 * several times the memory of the image.
+	 */
+	private synchronized void releaseStemTree()
+	{
+		this.stemTree = null;
+		this.treeStem = null;
+	}
+
 	@Override
 	public boolean dialogItemChanged(GenericDialog gd, AWTEvent evt)
 	{
+		// the runner restores the image when the preview is switched off, so
+		// the computation that may still be running must be discarded
+		if (!isPreviewEnabled())
+		{
+			PreviewExecutor.getInstance().cancel();
+		}
+
 		parseDialogParameters(gd);
     	return true;
 	}
 
+	/**
+	 * Returns true if the preview checkbox of the dialog is selected.
+	 */
+	private boolean isPreviewEnabled()
+	{
+		Checkbox checkbox = this.previewCheckbox;
+		return checkbox != null && checkbox.getState();
+	}
+
     private void parseDialogParameters(GenericDialog gd) {
 		// Extract parameters
 		this.highThresholdHoles = gd.getNextNumber();
 		this.lowThresholdHoles 	= gd.getNextNumber();
 		this.bubblesDiameterPx 	= (int) gd.getNextNumber();
+		this.coarseToFine 		= gd.getNextBoolean();
     }
 
     @Override
@@ -149,19 +223,112 @@ public class Fasga2SegmentStemPlugin implements ExtendedPlugInFilter, DialogList
 	@Override
 	public void run(ImageProcessor image)
 	{ 
+		if (previewing)
+		{
+			submitPreview(image);
+			return;
+		}
+		
 		// Execute core of the plugin
 		this.result = segmentStem(image,
 				this.highThresholdHoles, this.lowThresholdHoles, 
-				this.bubblesDiameterPx, true);
+				this.bubblesDiameterPx, this.coarseToFine, true);
+	}
+
+	/**
+	 * Computes the preview on the shared preview thread, from the original
+	 * image, and writes the result into the preview image once computed.
+	 */
+	private void submitPreview(final ImageProcessor image)
+	{
+		// keep current parameters, as the dialog may change them
+		final double highThreshold = this.highThresholdHoles;
+		final double lowThreshold = this.lowThresholdHoles;
+		final int bubblesDiameter = this.bubblesDiameterPx;
+		final boolean coarse = this.coarseToFine;
+		
+		PreviewExecutor.getInstance().submit(new PreviewExecutor.Job<ImageProcessor>()
+		{
+			@Override
+			public ImageProcessor compute()
+			{
+				return previewStem(highThreshold, lowThreshold, bubblesDiameter, coarse);
+			}
+
+			@Override
+			public void publish(ImageProcessor res)
+			{
+				// the preview may have been switched off during the computation
+				if (!isPreviewEnabled())
+				{
+					return;
+				}
+
+				result = res;
+				updatePreview(res, "Segmented Stem");
+				int suggested = suggestedDiameterPx;
+				Label label = suggestionLabel;
+				if (label != null && suggested > 0)
+				{
+					label.setText("Suggested bubbles thickness: " + suggested + " pixels");
+				}
 				
-    	if (previewing) 
-    	{
-    		// Fill up the values of original image with values of the result
-    		for (int i = 0; i < image.getPixelCount(); i++) 
-    		{
-    			image.set(i, result.get(i) * 0x010101);
-    		}
-        }
+				// Fill up the values of original image with values of the result
+				for (int i = 0; i < image.getPixelCount(); i++) 
+				{
+					image.set(i, res.get(i) * 0x010101);
+				}
+				imagePlus.updateAndDraw();
+			}
+		});
+	}
+
+	/**
+	 * Computes the preview of the stem. The stem before hole removal and the
+	 * component tree of the luma within its bounding box are computed for
+	 * the first preview, and when the bubbles parameters change. Changing the
+	 * hole thresholds then only walks the tree over the bright pixels. The
+	 * fields of the tree are guarded by the plugin instance. The first
+	 * preview also computes the suggested bubbles thickness from the stem
+	 * mask.
+	 */
+	private synchronized ImageProcessor previewStem(double holeThresholdHigh, double holeThresholdLow,
+			int bubblesDiameterPx, boolean coarseToFine)
+	{
+		if (!(baseImage instanceof ColorProcessor)) 
+		{
+			throw new IllegalArgumentException("Requires a color image as first input");
+		}
+		
+		if (stemTree == null || bubblesDiameterPx != treeBubblesDiameterPx
+				|| coarseToFine != treeCoarseToFine)
+		{
+			stemTree = null;
+			IJ.log("Start segmenting stem");
+			LumaThresholdKernel masks = LumaThresholdKernel.compute((ColorProcessor) baseImage,
+					holeThresholdHigh, holeThresholdLow);
+			if (suggestionLabel != null && suggestedDiameterPx == 0)
+			{
+				suggestedDiameterPx = suggestBubblesDiameter(masks.getStemMask());
+			}
+			Rectangle bounds = new Rectangle();
+			ImageProcessor stem = computeStem(masks, (bubblesDiameterPx - 1) / 2, coarseToFine, bounds);
+			masks.release();
+
+			// without stem, the tree is built over the whole image
+			IJ.log("  Compute component tree of luma");
+			LumaMaxTree tree = LumaMaxTree.build((ColorProcessor) baseImage,
+					StemCrop.enlarge(bounds, 0, baseImage.getWidth(), baseImage.getHeight()));
+			treeStem = stem;
+			treeBubblesDiameterPx = bubblesDiameterPx;
+			treeCoarseToFine = coarseToFine;
+			stemTree = tree;
+		}
+
+		// remove the holes from a copy of the stem
+		ImageProcessor stem = treeStem.duplicate();
+		stemTree.paint(stem, holeThresholdHigh, holeThresholdLow, 0);
+		return stem;
 	}
 
 	/**
@@ -170,6 +337,33 @@ public class Fasga2SegmentStemPlugin implements ExtendedPlugInFilter, DialogList
 	public static final ImageProcessor segmentStem(ImageProcessor image,
 			double holeThresholdHigh, double holeThresholdLow, 
 			int bubblesDiameterPx, boolean showImages)
+	{
+		return segmentStem(image, holeThresholdHigh, holeThresholdLow,
+				bubblesDiameterPx, false, showImages);
+	}
+
+	/**
+	 * Computes a label image corresponding to the stem, optionally by
+	 * processing a coarse image of the slide before refining the boundaries.
+	 */
+	public static final ImageProcessor segmentStem(ImageProcessor image,
+			double holeThresholdHigh, double holeThresholdLow, 
+			int bubblesDiameterPx, boolean coarseToFine, boolean showImages)
+	{
+		return segmentStem(image, holeThresholdHigh, holeThresholdLow,
+				bubblesDiameterPx, coarseToFine, showImages, null);
+	}
+
+	/**
+	 * Computes a label image corresponding to the stem, optionally by
+	 * processing a coarse image of the slide before refining the boundaries.
+	 * If the bounds are not null, they receive the bounding box of the stem,
+	 * or an empty rectangle if no stem was found.
+	 */
+	public static final ImageProcessor segmentStem(ImageProcessor image,
+			double holeThresholdHigh, double holeThresholdLow, 
+			int bubblesDiameterPx, boolean coarseToFine, boolean showImages,
+			Rectangle bounds)
 	{
 		// apply morphological filtering for removing cell wall images
 		IJ.log("Start segmenting stem");
@@ -180,55 +374,189 @@ public class Fasga2SegmentStemPlugin implements ExtendedPlugInFilter, DialogList
 			throw new IllegalArgumentException("Requires a color image as first input");
 		}
 		
-		// First extract luma as float processors (between 0 and 1)
-		IJ.log("  Extract Luma component");
-		ColorProcessor colorImage = (ColorProcessor) image;
-		FloatProcessor luma = ColorUtils.computeLuma(colorImage);
-
-		// Segment stem using threshold on luminance
+		// Threshold luma for stem and holes within a single pass
 		IJ.log("  Binarize Image");
-		ImageProcessor stem = Threshold.threshold(luma, 0, 200.0 / 255.0);
-		stem = Reconstruction.fillHoles(stem);
+		LumaThresholdKernel masks = LumaThresholdKernel.compute((ColorProcessor) image,
+				holeThresholdHigh, holeThresholdLow);
+
+		return segmentStem(masks, bubblesDiameterPx, coarseToFine, showImages, bounds);
+	}
+	
+	/**
+	 * Computes a label image corresponding to the stem, from the planes of a
+	 * planar RGB image.
+	 */
+	public static final ImageProcessor segmentStem(PlanarRGBImage image,
+			double holeThresholdHigh, double holeThresholdLow, 
+			int bubblesDiameterPx, boolean showImages)
+	{
+		return segmentStem(image, holeThresholdHigh, holeThresholdLow,
+				bubblesDiameterPx, false, showImages);
+	}
+
+	/**
+	 * Computes a label image corresponding to the stem, from the planes of a
+	 * planar RGB image, optionally by processing a coarse image of the slide
+	 * before refining the boundaries.
+	 */
+	public static final ImageProcessor segmentStem(PlanarRGBImage image,
+			double holeThresholdHigh, double holeThresholdLow, 
+			int bubblesDiameterPx, boolean coarseToFine, boolean showImages)
+	{
+		return segmentStem(image, holeThresholdHigh, holeThresholdLow,
+				bubblesDiameterPx, coarseToFine, showImages, null);
+	}
+
+	/**
+	 * Computes a label image corresponding to the stem, from the planes of a
+	 * planar RGB image, optionally by processing a coarse image of the slide
+	 * before refining the boundaries. If the bounds are not null, they
+	 * receive the bounding box of the stem, or an empty rectangle if no stem
+	 * was found, so that the next stages can work on the crop of the stem.
+	 */
+	public static final ImageProcessor segmentStem(PlanarRGBImage image,
+			double holeThresholdHigh, double holeThresholdLow, 
+			int bubblesDiameterPx, boolean coarseToFine, boolean showImages,
+			Rectangle bounds)
+	{
+		IJ.log("Start segmenting stem");
 		
-		// Morphological filtering to remove boundary of bubbles
-		IJ.log("  Remove bubbles");
-//		Strel se = DiskStrel.fromDiameter(bubblesDiameterPx);
-		Strel se = DiskStrel.fromRadius((bubblesDiameterPx - 1)/ 2);
-		stem = Morphology.opening(stem, se);
+		// Threshold luma for stem and holes within a single pass
+		IJ.log("  Binarize Image");
+		LumaThresholdKernel masks = LumaThresholdKernel.compute(image,
+				holeThresholdHigh, holeThresholdLow);
 
-		// remove small components
-		stem = BinaryImages.keepLargestRegion(stem);
+		return segmentStem(masks, bubblesDiameterPx, coarseToFine, showImages, bounds);
+	}
+	
+	/**
+	 * Segments the stem from the binary images computed by thresholding the
+	 * luma of the image. The buffers of the binary images are given back to
+	 * the buffer pool. If the bounds are not null, they receive the bounding
+	 * box of the stem.
+	 */
+	private static final ImageProcessor segmentStem(LumaThresholdKernel masks,
+			int bubblesDiameterPx, boolean coarseToFine, boolean showImages,
+			Rectangle bounds)
+	{
+		if (bounds == null)
+		{
+			bounds = new Rectangle();
+		}
+		ImageProcessor stem = computeStem(masks, (bubblesDiameterPx - 1) / 2, coarseToFine, bounds);
+
+		PreviewExecutor.checkCanceled();
 
 		// detect eventual holes in the stem
 		IJ.log("  Detect holes");
-		ImageProcessor holes = Threshold.threshold(luma, holeThresholdHigh, 1.0);
-		ImageProcessor holes2 = Threshold.threshold(luma, holeThresholdLow, 1.0);
-		holes = Reconstruction.reconstructByDilation(holes, holes2);
+		ImageProcessor holes = HysteresisThreshold.reconstruct(
+				masks.getHolesHighMask(), masks.getHolesLowMask());
+		
+		PreviewExecutor.checkCanceled();
+
+		// combine image of stem with image of holes, in place
+		for (int i = 0; i < stem.getPixelCount(); i++)
+		{
+			if (holes.get(i) != 0)
+			{
+				stem.set(i, 0);
+			}
+		}
+		masks.release();
 		
-		// combine image of stem with image of holes
-		stem = ImageCalculator.combineImages(stem, not(holes), ImageCalculator.Operation.AND);
 		if (showImages)
 		{
-			stemImagePlus = updatePreview(stemImagePlus, stem, "Segmented Stem");
+			updatePreview(stem, "Segmented Stem");
 		}
 	
 
 		return stem;
 	}
 	
-	private static ImagePlus updatePreview(ImagePlus imagePlus, ImageProcessor image, String title)
+	/**
+	 * Computes the stem from the binary image of the dark pixels, by filling
+	 * holes, removing bubbles and keeping the largest component. The holes
+	 * detected by the hole thresholds are not removed. The bounds receive the
+	 * bounding box of the stem, or an empty rectangle if no stem was found.
+	 */
+	private static final ImageProcessor computeStem(LumaThresholdKernel masks,
+			int radius, boolean coarseToFine, Rectangle bounds)
 	{
-		if (imagePlus == null)
+		PreviewExecutor.checkCanceled();
+
+		ImageProcessor stem = null;
+		if (coarseToFine)
 		{
-			imagePlus = new ImagePlus(title, image);	
-			imagePlus.show();
+			// fill holes, remove bubbles and keep the largest component on a
+			// coarse image, and refine only around the boundaries
+			IJ.log("  Coarse-to-fine stem");
+			Rectangle blockBounds = new Rectangle();
+			stem = CoarseToFineStem.segment(masks.getStemMask(), radius, blockBounds);
+			if (stem != null)
+			{
+				// only the blocks that may contain the stem are scanned
+				bounds.setBounds(StemCrop.findBounds(stem, blockBounds));
+			}
+			else
+			{
+				IJ.log("  No stem on the coarse image, use full resolution");
+			}
 		}
-		else
+
+		if (stem == null)
 		{
-			imagePlus.setProcessor(image);
-			imagePlus.repaintWindow();
+			// Segment stem using threshold on luminance
+			stem = BinaryHoleFilling.fillHoles(masks.getStemMask());
+			
+			PreviewExecutor.checkCanceled();
+
+			// Morphological filtering to remove boundary of bubbles
+			IJ.log("  Remove bubbles");
+//			Strel se = DiskStrel.fromDiameter(bubblesDiameterPx);
+			// same result as the opening by DiskStrel.fromRadius, with a
+			// computation time that does not depend on the bubbles thickness
+			stem = BinaryDiskOpening.opening(stem, radius);
+
+			PreviewExecutor.checkCanceled();
+
+			// remove small components, and keep the bounding box of the stem
+			ConnectedComponents components = ConnectedComponents.label(stem);
+			int largest = components.getLargestLabel();
+			stem = components.createMask(largest);
+			bounds.setBounds(largest > 0 ? components.getBounds(largest) : new Rectangle());
+			components.release();
 		}
-		return imagePlus;
+
+		return stem;
+	}
+	
+	/**
+	 * Displays an image in the preview window with the specified title,
+	 * creating the window if necessary. As the images may be computed on the
+	 * preview thread, the windows are only accessed from the event dispatch
+	 * thread.
+	 */
+	private static void updatePreview(final ImageProcessor image, final String title)
+	{
+		EventQueue.invokeLater(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				ImagePlus imagePlus = previewWindows.get(title);
+				if (imagePlus == null)
+				{
+					imagePlus = new ImagePlus(title, image);	
+					imagePlus.show();
+					previewWindows.put(title, imagePlus);
+				}
+				else
+				{
+					imagePlus.setProcessor(image);
+					imagePlus.repaintWindow();
+				}
+			}
+		});
 	}
 	
 	
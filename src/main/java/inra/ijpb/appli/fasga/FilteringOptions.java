@@ -0,0 +1,194 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * The options of the color filtering of the Fasga2 workflow. The radii of
+ * the structuring elements and the width of the gaussian kernel are given to
+ * the constructor. The other options are set to their default values, that
+ * correspond to the filtering of the whole image at full resolution, and can
+ * be changed with the setters. Each option either applies, or the
+ * combination is rejected:
+ * <ul>
+ * <li>when the processing scale is greater than 1, the image is downsampled,
+ * and all the other options apply to the downsampled image. The radii of the
+ * structuring elements and the width of the gaussian kernel are divided by
+ * the processing scale, but the tile size is given in pixels of the
+ * downsampled image.</li>
+ * <li>streaming, recursive smoothing and background skipping only apply to
+ * color images. The fast octagon is ignored for other images, that are
+ * filtered with the OctagonStrel class, with the same result.</li>
+ * <li>streaming processes the whole image, and gives the same result as the
+ * non-streaming filtering for sigma up to 4.5 at the processing scale. For
+ * larger values of sigma, its gaussian smoothing differs slightly. It
+ * requires the fast octagon, and can not be combined with tiling, recursive
+ * smoothing or background skipping.</li>
+ * <li>background skipping requires tiling.</li>
+ * <li>recursive smoothing is applied on the whole image, and can not be
+ * combined with tiling. It requires a value of sigma, at the processing
+ * scale, of at least RecursiveGaussian.MIN_SIGMA.</li>
+ * </ul>
+ *
+ * @see Fasga2MorphoFilteringPlugin#computeFilteredImage(ImageProcessor,
+ *      FilteringOptions)
+ * @author David Legland
+ *
+ */
+public class FilteringOptions
+{
+	int closingRadius;
+	int openingRadius;
+	double sigma;
+	int tileSize = 0;
+	boolean streaming = false;
+	int processingScale = 1;
+	boolean upsample = true;
+	boolean recursiveSmoothing = false;
+	boolean skipBackground = false;
+	boolean fastOctagon = true;
+
+	/**
+	 * Creates the options of the filtering of the whole image at full
+	 * resolution.
+	 *
+	 * @param closingRadius
+	 *            the radius of the octagon used for morphological closing, in
+	 *            pixels of the original image
+	 * @param openingRadius
+	 *            the radius of the octagon used for morphological opening, in
+	 *            pixels of the original image
+	 * @param sigma
+	 *            the width of the gaussian smoothing kernel, in pixels of the
+	 *            original image
+	 */
+	public FilteringOptions(int closingRadius, int openingRadius, double sigma)
+	{
+		this.closingRadius = closingRadius;
+		this.openingRadius = openingRadius;
+		this.sigma = sigma;
+	}
+
+	/**
+	 * @param tileSize
+	 *            the size of the tiles, in pixels of the processed image. If
+	 *            zero (the default), the whole image is processed at once.
+	 * @see TiledColorFilter
+	 */
+	public void setTileSize(int tileSize)
+	{
+		this.tileSize = tileSize;
+	}
+
+	/**
+	 * @param streaming
+	 *            if true, color images are filtered by streaming their rows
+	 * @see StreamingColorFilter
+	 */
+	public void setStreaming(boolean streaming)
+	{
+		this.streaming = streaming;
+	}
+
+	/**
+	 * @param processingScale
+	 *            the downsampling factor. If 1 (the default), the image is
+	 *            processed at its original resolution.
+	 * @see ProcessingScale
+	 */
+	public void setProcessingScale(int processingScale)
+	{
+		this.processingScale = processingScale;
+	}
+
+	/**
+	 * @param upsample
+	 *            if true (the default), the result of the filtering at a
+	 *            processing scale is upsampled to the size of the original
+	 *            image. Otherwise, the downsampled result is returned.
+	 */
+	public void setUpsample(boolean upsample)
+	{
+		this.upsample = upsample;
+	}
+
+	/**
+	 * @param recursiveSmoothing
+	 *            if true, color images are smoothed with a recursive filter
+	 *            whose computation time does not depend on sigma. Otherwise
+	 *            (the default), the GaussianBlur class of ImageJ is used.
+	 * @see RecursiveGaussian
+	 */
+	public void setRecursiveSmoothing(boolean recursiveSmoothing)
+	{
+		this.recursiveSmoothing = recursiveSmoothing;
+	}
+
+	/**
+	 * @param skipBackground
+	 *            if true, the tiles of color images that contain only
+	 *            saturated white pixels are not filtered but set to white,
+	 *            with the same result
+	 * @see TiledColorFilter#setSkipBackground(boolean)
+	 */
+	public void setSkipBackground(boolean skipBackground)
+	{
+		this.skipBackground = skipBackground;
+	}
+
+	/**
+	 * @param fastOctagon
+	 *            if true (the default), color images are filtered with the
+	 *            OctagonMorphology class, whose computation time does not
+	 *            depend on the radius. Otherwise, the OctagonStrel class of
+	 *            MorphoLibJ is used. Both give the same result.
+	 * @see RGBMorphoFilter
+	 */
+	public void setFastOctagon(boolean fastOctagon)
+	{
+		this.fastOctagon = fastOctagon;
+	}
+
+	/**
+	 * Checks if the combination of options is supported for the specified
+	 * image.
+	 *
+	 * @param image
+	 *            the image to filter
+	 * @return null if the options can be combined, or a message explaining
+	 *         why they can not
+	 */
+	public String check(ImageProcessor image)
+	{
+		if (!(image instanceof ColorProcessor)
+				&& (this.streaming || this.recursiveSmoothing || this.skipBackground))
+		{
+			return "Streaming, recursive smoothing and background skipping require a color image";
+		}
+		if (this.streaming && (this.tileSize > 0 || this.recursiveSmoothing || this.skipBackground))
+		{
+			return "Streaming can not be combined with tiling, recursive smoothing or background skipping";
+		}
+		if (this.streaming && !this.fastOctagon)
+		{
+			return "Streaming requires the fast octagon";
+		}
+		if (this.skipBackground && this.tileSize <= 0)
+		{
+			return "Skipping background tiles requires tiling";
+		}
+		if (this.recursiveSmoothing && this.tileSize > 0)
+		{
+			return "Recursive smoothing can not be combined with tiling";
+		}
+		if (this.recursiveSmoothing && this.sigma / Math.max(this.processingScale, 1) < RecursiveGaussian.MIN_SIGMA)
+		{
+			return "Recursive smoothing requires a sigma of at least " + RecursiveGaussian.MIN_SIGMA
+					+ " at the processing scale";
+		}
+		return null;
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import ij.Prefs;
+import ij.process.ImageProcessor;
+
+/**
+ * Opening granulometry of binary images by disks, computed from a single
+ * Euclidean distance transform.
+ *
+ * The opening by a disk of radius r, as computed by the BinaryDiskOpening
+ * class, keeps the centers of the disks whose squared distance d to the
+ * background is greater than r^2 + 1. A local maximum of the distance map is
+ * the center of a maximal disk within the structure, so it is kept by the
+ * openings of radius r such that r^2 + 1 &lt; d. The smallest radius that
+ * does not keep the center of the disk gives the local thickness of the
+ * structure, and the histogram of these radii over the local maxima gives the
+ * size distribution of the structures of the image, for all the radii at
+ * once. Within thick structures, a local maximum can still be covered by a
+ * larger disk centered nearby, so the distribution describes the thickness
+ * of the thin structures better than the area removed by each opening.
+ *
+ * The distance transform is computed in linear time, and the local maxima
+ * are found by a single scan, so the whole distribution costs less than a
+ * single opening.
+ *
+ * @see BinaryDiskOpening
+ * @author David Legland
+ *
+ */
+public class Granulometry
+{
+	/**
+	 * The fraction of the number of local maxima of the mode under which the
+	 * histogram is considered to have reached the end of the thin structures.
+	 */
+	static final double VALLEY_RATIO = .1;
+
+	/**
+	 * Computes, for each radius r, the number of local maxima of the distance
+	 * map that are kept by the openings by disks of radius smaller than r, and
+	 * not by the opening of radius r, unless they are covered by a larger
+	 * disk.
+	 *
+	 * @param mask
+	 *            a binary image, where non-zero values correspond to the
+	 *            foreground
+	 * @return the number of local maxima for each removal radius
+	 */
+	public static final int[] compute(ImageProcessor mask)
+	{
+		int width = mask.getWidth();
+		int height = mask.getHeight();
+		int size = width * height;
+
+		BufferPool pool = BufferPool.getInstance();
+		byte[] values = pool.borrowBytes(size);
+		for (int i = 0; i < size; i++)
+		{
+			values[i] = mask.get(i) != 0 ? (byte) 255 : 0;
+		}
+		int[] distances = pool.borrowInts(size);
+		BinaryDiskOpening.squaredDistances(values, (byte) 0, width, height, distances, Prefs.getThreads());
+		pool.release(values);
+
+		PreviewExecutor.checkCanceled();
+
+		// the removal radius of each local maximum, within 8-neighborhood
+		int[] counts = new int[1];
+		for (int y = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++)
+			{
+				int d = distances[y * width + x];
+				if (d == 0 || d == Integer.MAX_VALUE || !isLocalMaximum(distances, width, height, x, y, d))
+				{
+					continue;
+				}
+				int radius = removalRadius(d);
+				if (radius >= counts.length)
+				{
+					int[] newCounts = new int[radius + 1];
+					System.arraycopy(counts, 0, newCounts, 0, counts.length);
+					counts = newCounts;
+				}
+				counts[radius]++;
+			}
+		}
+		pool.release(distances);
+		return counts;
+	}
+
+	private static final boolean isLocalMaximum(int[] distances, int width, int height, int x, int y, int d)
+	{
+		for (int y2 = Math.max(y - 1, 0); y2 <= Math.min(y + 1, height - 1); y2++)
+		{
+			for (int x2 = Math.max(x - 1, 0); x2 <= Math.min(x + 1, width - 1); x2++)
+			{
+				if (distances[y2 * width + x2] > d)
+				{
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the smallest radius r such that r^2 + 1 &gt;= d, that is the
+	 * smallest radius of the openings whose erosion removes a center with
+	 * squared distance d.
+	 */
+	static final int removalRadius(int d)
+	{
+		int r = (int) Math.sqrt(Math.max(d - 1, 0));
+		while ((long) r * r + 1 < d)
+		{
+			r++;
+		}
+		while (r > 0 && (long) (r - 1) * (r - 1) + 1 >= d)
+		{
+			r--;
+		}
+		return r;
+	}
+
+	/**
+	 * Suggests the diameter of the opening that removes the thin structures
+	 * of a binary image, such as the boundaries of the bubbles around the
+	 * stem. The thin structures correspond to the mode of the granulometry.
+	 * The suggested radius is the first radius after the mode where the
+	 * number of local maxima falls below a fraction of the mode.
+	 *
+	 * @param counts
+	 *            the number of local maxima for each removal radius, as
+	 *            computed by the compute() method
+	 * @return the suggested diameter, in pixels, that can be used as the
+	 *         bubbles thickness of the stem segmentation
+	 */
+	public static final int suggestDiameter(int[] counts)
+	{
+		int mode = 0;
+		for (int r = 1; r < counts.length; r++)
+		{
+			if (counts[r] > counts[mode])
+			{
+				mode = r;
+			}
+		}
+
+		int radius = mode;
+		while (radius < counts.length - 1 && counts[radius] > counts[mode] * VALLEY_RATIO)
+		{
+			radius++;
+		}
+		return 2 * radius + 1;
+	}
+}
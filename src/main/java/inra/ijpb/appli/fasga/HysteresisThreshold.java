@@ -0,0 +1,126 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * Hysteresis threshold of binary images, computed by growing the seeds
+ * within the mask with a FIFO queue.
+ *
+ * The seeds are the pixels selected by the high threshold, and the mask
+ * contains the pixels selected by the low threshold. The result contains the
+ * pixels of the mask that are 4-connected to a seed through pixels of the
+ * mask. Each pixel of the mask is added to the queue at most once, so the
+ * computation time is linear in the number of pixels, whatever the shape of
+ * the regions.
+ *
+ * The result is the same as the reconstructByDilation() method of the
+ * Reconstruction class of MorphoLibJ applied on binary images, that uses the
+ * 4-connectivity by default.
+ *
+ * @author David Legland
+ *
+ */
+public class HysteresisThreshold
+{
+	/**
+	 * Computes the hysteresis threshold from the binary images obtained with
+	 * the high and the low thresholds.
+	 *
+	 * @param seeds
+	 *            the binary image obtained with the high threshold, where
+	 *            non-zero values correspond to the seeds
+	 * @param mask
+	 *            the binary image obtained with the low threshold, where
+	 *            non-zero values correspond to the pixels that can be reached
+	 * @return a new binary image with the value 255 for the pixels of the mask
+	 *         connected to a seed
+	 */
+	public static final ByteProcessor reconstruct(ImageProcessor seeds, ImageProcessor mask)
+	{
+		int width = mask.getWidth();
+		int height = mask.getHeight();
+		if (seeds.getWidth() != width || seeds.getHeight() != height)
+		{
+			throw new IllegalArgumentException("Seed and mask images must have the same size");
+		}
+		int size = width * height;
+
+		// the queue receives each pixel at most once, so it never wraps
+		BufferPool pool = BufferPool.getInstance();
+		int[] queue = pool.borrowInts(size);
+		int head = 0;
+		int tail = 0;
+
+		// the result is initialized with the seeds that belong to the mask
+		byte[] result = new byte[size];
+		for (int i = 0; i < size; i++)
+		{
+			if (seeds.get(i) != 0 && mask.get(i) != 0)
+			{
+				result[i] = (byte) 255;
+				queue[tail++] = i;
+			}
+		}
+		if (tail == 0)
+		{
+			pool.release(queue);
+			return new ByteProcessor(width, height, result);
+		}
+
+		// pixels of the mask that were not reached yet
+		boolean[] candidates = new boolean[size];
+		if (mask instanceof ByteProcessor)
+		{
+			byte[] pixels = (byte[]) mask.getPixels();
+			for (int i = 0; i < size; i++)
+			{
+				candidates[i] = pixels[i] != 0 && result[i] == 0;
+			}
+		}
+		else
+		{
+			for (int i = 0; i < size; i++)
+			{
+				candidates[i] = mask.get(i) != 0 && result[i] == 0;
+			}
+		}
+
+		// grow the seeds within the mask
+		while (head < tail)
+		{
+			int index = queue[head++];
+			int x = index % width;
+			if (x > 0 && candidates[index - 1])
+			{
+				candidates[index - 1] = false;
+				result[index - 1] = (byte) 255;
+				queue[tail++] = index - 1;
+			}
+			if (x < width - 1 && candidates[index + 1])
+			{
+				candidates[index + 1] = false;
+				result[index + 1] = (byte) 255;
+				queue[tail++] = index + 1;
+			}
+			if (index >= width && candidates[index - width])
+			{
+				candidates[index - width] = false;
+				result[index - width] = (byte) 255;
+				queue[tail++] = index - width;
+			}
+			if (index < size - width && candidates[index + width])
+			{
+				candidates[index + width] = false;
+				result[index + width] = (byte) 255;
+				queue[tail++] = index + width;
+			}
+		}
+
+		pool.release(queue);
+		return new ByteProcessor(width, height, result);
+	}
+}
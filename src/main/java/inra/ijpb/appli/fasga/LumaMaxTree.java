@@ -0,0 +1,390 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Component tree of the bright regions of the luma of a color image, used to
+ * compute the hysteresis threshold of the holes for any pair of thresholds
+ * without scanning the image again.
+ *
+ * Each node of the tree is a 4-connected component of the pixels whose luma
+ * is greater than or equal to a level, and its parent is the component of the
+ * next lower level that contains it. The tree is computed once for the pixels
+ * within a rectangle, usually the bounding box of the stem, with the
+ * union-find algorithm of Najman and Couprie. The nodes are represented by
+ * their canonical pixels, and each canonical pixel stores the largest luma
+ * within its component.
+ *
+ * A pixel belongs to the result of the hysteresis threshold if its luma is
+ * greater than or equal to the low threshold, and if the largest luma within
+ * the component of the low threshold that contains it is greater than or
+ * equal to the high threshold. The result is computed by visiting only the
+ * pixels brighter than the low threshold, from the darkest to the brightest,
+ * so that each pixel inherits the decision of its parent.
+ *
+ * The luma is the weighted sum of the components used by the
+ * LumaThresholdKernel class, and the thresholds are converted to bounds of
+ * this sum in the same way, so that the result is the same as the
+ * reconstruction of the hole masks of the kernel, restricted to the
+ * rectangle.
+ *
+ * @see LumaThresholdKernel
+ * @see HysteresisThreshold
+ * @author David Legland
+ *
+ */
+public class LumaMaxTree
+{
+	/** the pixels used for the computation of the tree */
+	Rectangle bounds;
+
+	/** the weighted sum of the components of each pixel within the bounds */
+	float[] values;
+
+	/** the indices of the pixels within the bounds, by increasing value */
+	int[] order;
+
+	/**
+	 * the parent of each pixel: the canonical pixel of the parent node for
+	 * canonical pixels, the canonical pixel of its node for the others, or
+	 * itself for the root
+	 */
+	int[] parents;
+
+	/** the largest value within the node of each canonical pixel */
+	float[] maxValues;
+
+	/** the decisions of the last computation of the hysteresis threshold */
+	boolean[] kept;
+
+	private LumaMaxTree(Rectangle bounds)
+	{
+		this.bounds = new Rectangle(bounds);
+		int size = bounds.width * bounds.height;
+		this.values = new float[size];
+		this.order = new int[size];
+		this.parents = new int[size];
+		this.maxValues = new float[size];
+		this.kept = new boolean[size];
+	}
+
+	/**
+	 * Computes the component tree of the luma of the pixels of a color image
+	 * within a rectangle.
+	 *
+	 * @param image
+	 *            the (filtered) color image
+	 * @param bounds
+	 *            the rectangle containing the pixels of the tree, usually the
+	 *            bounding box of the stem
+	 * @return the component tree of the luma within the rectangle
+	 */
+	public static final LumaMaxTree build(ColorProcessor image, Rectangle bounds)
+	{
+		Rectangle imageBounds = new Rectangle(0, 0, image.getWidth(), image.getHeight());
+		if (!imageBounds.contains(bounds))
+		{
+			throw new IllegalArgumentException("Bounds must be contained within the image");
+		}
+
+		LumaMaxTree tree = new LumaMaxTree(bounds);
+		tree.computeValues((int[]) image.getPixels(), image.getWidth());
+		PreviewExecutor.checkCanceled();
+		tree.sortPixels();
+		PreviewExecutor.checkCanceled();
+		tree.buildParents();
+		return tree;
+	}
+
+	private void computeValues(int[] pixels, int imageWidth)
+	{
+		int width = this.bounds.width;
+		for (int y = 0; y < this.bounds.height; y++)
+		{
+			int offset = (this.bounds.y + y) * imageWidth + this.bounds.x;
+			for (int x = 0; x < width; x++)
+			{
+				int c = pixels[offset + x];
+				int r = (c & 0xFF0000) >> 16;
+				int g = (c & 0xFF00) >> 8;
+				int b = c & 0xFF;
+				this.values[y * width + x] = r * .299f + g * .587f + b * .114f;
+			}
+		}
+	}
+
+	/**
+	 * Sorts the pixels by increasing value, with a radix sort on the bits of
+	 * the values. As the values are positive, the order of their bits is the
+	 * same as the order of the values.
+	 */
+	private void sortPixels()
+	{
+		int size = this.values.length;
+		BufferPool pool = BufferPool.getInstance();
+		int[] buffer = pool.borrowInts(size);
+		int[] counts = new int[0x10000 + 1];
+
+		// sort on the low 16 bits, then on the high 16 bits
+		for (int i = 0; i < size; i++)
+		{
+			counts[(Float.floatToRawIntBits(this.values[i]) & 0xFFFF) + 1]++;
+		}
+		for (int k = 1; k < counts.length; k++)
+		{
+			counts[k] += counts[k - 1];
+		}
+		for (int i = 0; i < size; i++)
+		{
+			buffer[counts[Float.floatToRawIntBits(this.values[i]) & 0xFFFF]++] = i;
+		}
+
+		Arrays.fill(counts, 0);
+		for (int i = 0; i < size; i++)
+		{
+			counts[(Float.floatToRawIntBits(this.values[i]) >>> 16) + 1]++;
+		}
+		for (int k = 1; k < counts.length; k++)
+		{
+			counts[k] += counts[k - 1];
+		}
+		for (int k = 0; k < size; k++)
+		{
+			int i = buffer[k];
+			this.order[counts[Float.floatToRawIntBits(this.values[i]) >>> 16]++] = i;
+		}
+		pool.release(buffer);
+	}
+
+	/**
+	 * Computes the parent of each pixel by processing the pixels from the
+	 * brightest to the darkest, and merging the components of the processed
+	 * neighbors. The components are stored in a union-find structure with
+	 * union by rank and path compression, that keeps the current root of the
+	 * tree for each component. Then computes the canonical pixels and the
+	 * largest value within each node.
+	 */
+	private void buildParents()
+	{
+		int width = this.bounds.width;
+		int size = this.values.length;
+
+		// the union-find structure of the processed pixels, with -1 for the
+		// pixels not processed yet, and the root of the tree of each set
+		BufferPool pool = BufferPool.getInstance();
+		int[] sets = pool.borrowInts(size);
+		int[] roots = pool.borrowInts(size);
+		byte[] ranks = pool.borrowBytes(size);
+		Arrays.fill(sets, 0, size, -1);
+		Arrays.fill(ranks, 0, size, (byte) 0);
+		for (int k = size - 1; k >= 0; k--)
+		{
+			int p = this.order[k];
+			this.parents[p] = p;
+			sets[p] = p;
+			roots[p] = p;
+			int set = p;
+			int x = p % width;
+			if (x > 0)
+			{
+				set = merge(p, set, p - 1, sets, roots, ranks);
+			}
+			if (x < width - 1)
+			{
+				set = merge(p, set, p + 1, sets, roots, ranks);
+			}
+			if (p >= width)
+			{
+				set = merge(p, set, p - width, sets, roots, ranks);
+			}
+			if (p < size - width)
+			{
+				merge(p, set, p + width, sets, roots, ranks);
+			}
+		}
+		pool.release(sets);
+		pool.release(roots);
+		pool.release(ranks);
+
+		// the parents are processed after their children, so they come
+		// first in the order of increasing values
+		for (int k = 0; k < size; k++)
+		{
+			int p = this.order[k];
+			int q = this.parents[p];
+			if (this.values[this.parents[q]] == this.values[q])
+			{
+				this.parents[p] = this.parents[q];
+			}
+		}
+
+		// propagate the largest values from the children to the parents
+		System.arraycopy(this.values, 0, this.maxValues, 0, size);
+		for (int k = size - 1; k >= 0; k--)
+		{
+			int p = this.order[k];
+			int q = this.parents[p];
+			if (this.maxValues[p] > this.maxValues[q])
+			{
+				this.maxValues[q] = this.maxValues[p];
+			}
+		}
+	}
+
+	/**
+	 * Merges the set of the pixel p with the set of its neighbor q, if q was
+	 * processed, and returns the set containing p.
+	 */
+	private int merge(int p, int set, int q, int[] sets, int[] roots, byte[] ranks)
+	{
+		if (sets[q] < 0)
+		{
+			return set;
+		}
+		int set2 = findSet(q, sets);
+		if (set2 == set)
+		{
+			return set;
+		}
+
+		// the root of the tree of the neighbor becomes a child of p
+		this.parents[roots[set2]] = p;
+		if (ranks[set] < ranks[set2])
+		{
+			int tmp = set;
+			set = set2;
+			set2 = tmp;
+		}
+		else if (ranks[set] == ranks[set2])
+		{
+			ranks[set]++;
+		}
+		sets[set2] = set;
+		roots[set] = p;
+		return set;
+	}
+
+	private static final int findSet(int p, int[] sets)
+	{
+		int r = p;
+		while (sets[r] != r)
+		{
+			r = sets[r];
+		}
+
+		// path compression
+		while (sets[p] != r)
+		{
+			int next = sets[p];
+			sets[p] = r;
+			p = next;
+		}
+		return r;
+	}
+
+	/**
+	 * Sets the pixels of an image that belong to the result of the
+	 * hysteresis threshold to the specified value. The other pixels are not
+	 * modified.
+	 *
+	 * @param image
+	 *            an image with the size of the color image used to build the
+	 *            tree
+	 * @param highThreshold
+	 *            the lower threshold of luma for the seeds, between 0 and 1
+	 * @param lowThreshold
+	 *            the lower threshold of luma for the extent of the regions,
+	 *            between 0 and 1
+	 * @param value
+	 *            the value of the pixels of the result
+	 */
+	public void paint(ImageProcessor image, double highThreshold, double lowThreshold, int value)
+	{
+		Rectangle imageBounds = new Rectangle(0, 0, image.getWidth(), image.getHeight());
+		if (!imageBounds.contains(this.bounds))
+		{
+			throw new IllegalArgumentException("Image must contain the bounds of the tree");
+		}
+
+		float highBound = LumaThresholdKernel.sumLowerBound(highThreshold);
+		float lowBound = LumaThresholdKernel.sumLowerBound(lowThreshold);
+
+		int width = this.bounds.width;
+		int imageWidth = image.getWidth();
+		int size = this.order.length;
+		for (int k = firstIndexAbove(lowBound); k < size; k++)
+		{
+			// the parent was visited before, if it is brighter than the low
+			// threshold
+			int p = this.order[k];
+			int q = this.parents[p];
+			boolean keep = q != p && this.values[q] >= lowBound ? this.kept[q] : this.maxValues[p] >= highBound;
+			this.kept[p] = keep;
+			if (keep)
+			{
+				image.set((this.bounds.y + p / width) * imageWidth + this.bounds.x + p % width, value);
+			}
+		}
+	}
+
+	/**
+	 * Computes the binary image of the hysteresis threshold.
+	 *
+	 * @param highThreshold
+	 *            the lower threshold of luma for the seeds, between 0 and 1
+	 * @param lowThreshold
+	 *            the lower threshold of luma for the extent of the regions,
+	 *            between 0 and 1
+	 * @param width
+	 *            the width of the color image used to build the tree
+	 * @param height
+	 *            the height of the color image used to build the tree
+	 * @return a new binary image with the value 255 for the pixels of the
+	 *         regions connected to a seed, within the bounds of the tree
+	 */
+	public ByteProcessor hysteresis(double highThreshold, double lowThreshold, int width, int height)
+	{
+		ByteProcessor result = new ByteProcessor(width, height);
+		paint(result, highThreshold, lowThreshold, 255);
+		return result;
+	}
+
+	/**
+	 * Returns the position within the order of the first pixel whose value is
+	 * greater than or equal to the bound.
+	 */
+	private int firstIndexAbove(float bound)
+	{
+		int lo = 0;
+		int hi = this.order.length;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (this.values[this.order[mid]] < bound)
+			{
+				lo = mid + 1;
+			}
+			else
+			{
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * @return the rectangle containing the pixels of the tree
+	 */
+	public Rectangle getBounds()
+	{
+		return new Rectangle(this.bounds);
+	}
+}
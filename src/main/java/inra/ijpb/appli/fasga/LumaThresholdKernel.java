@@ -0,0 +1,276 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import ij.Prefs;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Computes in a single pass over a color image the binary images used for
+ * stem segmentation: the stem, obtained by thresholding the luma with the
+ * stem threshold, and the bright regions obtained with the high and low hole
+ * thresholds. The histogram of the luma values of the pixels of the stem is
+ * computed in the same pass.
+ *
+ * The luma of each pixel is computed as in the ColorUtils.computeLuma()
+ * method, and compared to the thresholds as in the Threshold class of
+ * MorphoLibJ, so that the binary images are the same as the ones obtained by
+ * thresholding the luma image. No intermediate image of luma is created, and
+ * the thresholds are converted into bounds of the weighted sum of the
+ * components to avoid the normalization of each value.
+ *
+ * Bands of rows are processed in parallel. The pixel arrays of the binary
+ * images are borrowed from the buffer pool.
+ *
+ * @see ColorUtils#computeLuma(ColorProcessor)
+ * @author David Legland
+ *
+ */
+public class LumaThresholdKernel
+{
+	/** The upper threshold of luma for the stem, between 0 and 1 */
+	public static final double STEM_THRESHOLD = 200.0 / 255.0;
+
+	// the results
+	ByteProcessor stem;
+	ByteProcessor holesHigh;
+	ByteProcessor holesLow;
+	int[] stemHistogram;
+
+	private LumaThresholdKernel(int width, int height)
+	{
+		BufferPool pool = BufferPool.getInstance();
+		int size = width * height;
+		this.stem = new ByteProcessor(width, height, pool.borrowBytes(size));
+		this.holesHigh = new ByteProcessor(width, height, pool.borrowBytes(size));
+		this.holesLow = new ByteProcessor(width, height, pool.borrowBytes(size));
+		this.stemHistogram = new int[256];
+	}
+
+	/**
+	 * Computes the binary images and the histogram of the stem from a color
+	 * image.
+	 *
+	 * @param image
+	 *            the (filtered) color image
+	 * @param holeThresholdHigh
+	 *            the lower threshold of luma for the seeds of the holes
+	 * @param holeThresholdLow
+	 *            the lower threshold of luma for the extent of the holes
+	 * @return the result of the computation
+	 */
+	public static final LumaThresholdKernel compute(ColorProcessor image,
+			double holeThresholdHigh, double holeThresholdLow)
+	{
+		final int[] pixels = (int[]) image.getPixels();
+		return compute(image.getWidth(), image.getHeight(), holeThresholdHigh, holeThresholdLow,
+				new PixelSource()
+				{
+					@Override
+					public int getRGB(int index)
+					{
+						return pixels[index];
+					}
+				});
+	}
+
+	/**
+	 * Computes the binary images and the histogram of the stem from a planar
+	 * color image.
+	 *
+	 * @param image
+	 *            the (filtered) planar color image
+	 * @param holeThresholdHigh
+	 *            the lower threshold of luma for the seeds of the holes
+	 * @param holeThresholdLow
+	 *            the lower threshold of luma for the extent of the holes
+	 * @return the result of the computation
+	 */
+	public static final LumaThresholdKernel compute(PlanarRGBImage image,
+			double holeThresholdHigh, double holeThresholdLow)
+	{
+		final byte[] red = image.getRed();
+		final byte[] green = image.getGreen();
+		final byte[] blue = image.getBlue();
+		return compute(image.getWidth(), image.getHeight(), holeThresholdHigh, holeThresholdLow,
+				new PixelSource()
+				{
+					@Override
+					public int getRGB(int index)
+					{
+						return (red[index] & 0xFF) << 16 | (green[index] & 0xFF) << 8 | (blue[index] & 0xFF);
+					}
+				});
+	}
+
+	/**
+	 * Gives access to the RGB value of each pixel, whatever the storage of
+	 * the image.
+	 */
+	private interface PixelSource
+	{
+		int getRGB(int index);
+	}
+
+	private static final LumaThresholdKernel compute(final int width, int height,
+			final double holeThresholdHigh, final double holeThresholdLow,
+			final PixelSource source)
+	{
+		final LumaThresholdKernel result = new LumaThresholdKernel(width, height);
+		final byte[] stem = (byte[]) result.stem.getPixels();
+		final byte[] holesHigh = (byte[]) result.holesHigh.getPixels();
+		final byte[] holesLow = (byte[]) result.holesLow.getPixels();
+
+		// thresholds converted to bounds on the weighted sum of components,
+		// giving the same comparisons as the normalized luma values
+		final float stemUpper = sumUpperBound(STEM_THRESHOLD);
+		final float holesUpper = sumUpperBound(1.0);
+		final float holesHighLower = sumLowerBound(holeThresholdHigh);
+		final float holesLowLower = sumLowerBound(holeThresholdLow);
+
+		// each band computes its own histogram
+		int nThreads = Math.max(Math.min(Prefs.getThreads(), height), 1);
+		final int[][] histograms = new int[nThreads][257];
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(nThreads);
+		for (int t = 0; t < nThreads; t++)
+		{
+			final int i0 = width * (height * t / nThreads);
+			final int i1 = width * (height * (t + 1) / nThreads);
+			final int[] histogram = histograms[t];
+			tasks.add(new Callable<Void>()
+			{
+				@Override
+				public Void call()
+				{
+					for (int i = i0; i < i1; i++)
+					{
+						int c = source.getRGB(i);
+						int r = (c & 0xFF0000) >> 16;
+						int g = (c & 0xFF00) >> 8;
+						int b = c & 0xFF;
+						float sum = r * .299f + g * .587f + b * .114f;
+
+						boolean inStem = sum <= stemUpper;
+						stem[i] = inStem ? (byte) 255 : 0;
+						holesHigh[i] = sum >= holesHighLower && sum <= holesUpper ? (byte) 255 : 0;
+						holesLow[i] = sum >= holesLowLower && sum <= holesUpper ? (byte) 255 : 0;
+						// pixels outside of the stem are counted in the last bin
+						histogram[inStem ? (int) (sum + .5f) : 256]++;
+						if ((i & 0xFFFF) == 0)
+						{
+							PreviewExecutor.checkCanceled();
+						}
+					}
+					return null;
+				}
+			});
+		}
+		ThreadUtils.invokeAll(tasks, nThreads);
+
+		for (int[] histogram : histograms)
+		{
+			for (int k = 0; k < 256; k++)
+			{
+				result.stemHistogram[k] += histogram[k];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the largest weighted sum of components whose normalized luma,
+	 * computed as sum / 255 in float precision, is smaller than or equal to
+	 * the threshold. As the normalization is monotonic, comparing the sum to
+	 * the result gives the same result as comparing the luma to the
+	 * threshold.
+	 */
+	static final float sumUpperBound(double threshold)
+	{
+		float sum = (float) (threshold * 255);
+		while (sum / 255 <= threshold)
+		{
+			sum = Math.nextUp(sum);
+		}
+		while (sum / 255 > threshold)
+		{
+			sum = Math.nextAfter(sum, Double.NEGATIVE_INFINITY);
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the smallest weighted sum of components whose normalized luma
+	 * is greater than or equal to the threshold.
+	 */
+	static final float sumLowerBound(double threshold)
+	{
+		float sum = (float) (threshold * 255);
+		while (sum / 255 >= threshold)
+		{
+			sum = Math.nextAfter(sum, Double.NEGATIVE_INFINITY);
+		}
+		while (sum / 255 < threshold)
+		{
+			sum = Math.nextUp(sum);
+		}
+		return sum;
+	}
+
+	/**
+	 * @return the binary image of the pixels darker than the stem threshold
+	 */
+	public ByteProcessor getStemMask()
+	{
+		return this.stem;
+	}
+
+	/**
+	 * @return the binary image of the pixels brighter than the high hole
+	 *         threshold
+	 */
+	public ByteProcessor getHolesHighMask()
+	{
+		return this.holesHigh;
+	}
+
+	/**
+	 * @return the binary image of the pixels brighter than the low hole
+	 *         threshold
+	 */
+	public ByteProcessor getHolesLowMask()
+	{
+		return this.holesLow;
+	}
+
+	/**
+	 * Returns the histogram of the luma values of the pixels within the stem
+	 * mask, with luma values rounded to 256 levels.
+	 *
+	 * @return the number of pixels of the stem for each luma level
+	 */
+	public int[] getStemHistogram()
+	{
+		return this.stemHistogram;
+	}
+
+	/**
+	 * Gives the pixel arrays of the binary images back to the buffer pool.
+	 * The binary images must not be used anymore after calling this method.
+	 */
+	public void release()
+	{
+		BufferPool pool = BufferPool.getInstance();
+		pool.releasePixels(this.stem.getPixels());
+		pool.releasePixels(this.holesHigh.getPixels());
+		pool.releasePixels(this.holesLow.getPixels());
+		this.stem = null;
+		this.holesHigh = null;
+		this.holesLow = null;
+	}
+}
@@ -0,0 +1,199 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+/**
+ * Element-wise minimum and maximum of rows of unsigned 8-bits values, used by
+ * the morphological filters of the OctagonMorphology class.
+ *
+ * Two implementations are available: a scalar one, and one based on the
+ * Vector API of the JDK, that processes many values per instruction. The
+ * vectorized implementation is compiled only with the "vector" maven profile
+ * (JDK 17 or later), and is used only if the jdk.incubator.vector module is
+ * available at runtime, for example when ImageJ is started with the
+ * "--add-modules jdk.incubator.vector" JVM option. The scalar implementation
+ * is used otherwise, or if the "fasga.vector" system property is set to
+ * false.
+ *
+ * @see OctagonMorphology
+ * @author David Legland
+ *
+ */
+public abstract class MinMaxKernels
+{
+	/**
+	 * The name of the class implementing the vectorized kernels.
+	 */
+	static final String VECTOR_CLASS_NAME = "inra.ijpb.appli.fasga.VectorMinMaxKernels";
+
+	/** The implementation chosen at runtime */
+	private static MinMaxKernels instance = null;
+
+	/**
+	 * Returns the fastest implementation available on the running JVM.
+	 *
+	 * @return the implementation of the kernels
+	 */
+	public static final synchronized MinMaxKernels getInstance()
+	{
+		if (instance == null)
+		{
+			instance = createInstance();
+		}
+		return instance;
+	}
+
+	private static final MinMaxKernels createInstance()
+	{
+		if ("false".equalsIgnoreCase(System.getProperty("fasga.vector")))
+		{
+			return new Scalar();
+		}
+
+		try
+		{
+			return (MinMaxKernels) Class.forName(VECTOR_CLASS_NAME).newInstance();
+		}
+		catch (Exception ex)
+		{
+			// the class was not compiled
+		}
+		catch (LinkageError ex)
+		{
+			// the incubator module is not available
+		}
+		return new Scalar();
+	}
+
+	/**
+	 * Returns the name of the implementation, for information.
+	 *
+	 * @return the name of the implementation
+	 */
+	public abstract String getName();
+
+	/**
+	 * Replaces each value of the target array by the maximum of itself and of
+	 * the value at the same position in the source array, for indices between
+	 * from (inclusive) and to (exclusive).
+	 *
+	 * @param target
+	 *            the array to update
+	 * @param source
+	 *            the array to combine with the target
+	 * @param from
+	 *            the first index to process
+	 * @param to
+	 *            the index after the last index to process
+	 */
+	public abstract void max(byte[] target, byte[] source, int from, int to);
+
+	/**
+	 * Replaces each value of the target array by the minimum of itself and of
+	 * the value at the same position in the source array, for indices between
+	 * from (inclusive) and to (exclusive).
+	 *
+	 * @param target
+	 *            the array to update
+	 * @param source
+	 *            the array to combine with the target
+	 * @param from
+	 *            the first index to process
+	 * @param to
+	 *            the index after the last index to process
+	 */
+	public abstract void min(byte[] target, byte[] source, int from, int to);
+
+	/**
+	 * Stores in the target array the maximum of two source arrays, starting
+	 * at the specified offsets. The target array may be one of the sources.
+	 *
+	 * @param source1
+	 *            the first source array
+	 * @param offset1
+	 *            the index of the first value within the first source
+	 * @param source2
+	 *            the second source array
+	 * @param offset2
+	 *            the index of the first value within the second source
+	 * @param target
+	 *            the array that receives the result, from index 0
+	 * @param length
+	 *            the number of values to process
+	 */
+	public abstract void max(byte[] source1, int offset1, byte[] source2, int offset2,
+			byte[] target, int length);
+
+	/**
+	 * Stores in the target array the minimum of two source arrays, starting
+	 * at the specified offsets. The target array may be one of the sources.
+	 *
+	 * @param source1
+	 *            the first source array
+	 * @param offset1
+	 *            the index of the first value within the first source
+	 * @param source2
+	 *            the second source array
+	 * @param offset2
+	 *            the index of the first value within the second source
+	 * @param target
+	 *            the array that receives the result, from index 0
+	 * @param length
+	 *            the number of values to process
+	 */
+	public abstract void min(byte[] source1, int offset1, byte[] source2, int offset2,
+			byte[] target, int length);
+
+	/**
+	 * The scalar implementation of the kernels, always available.
+	 */
+	static final class Scalar extends MinMaxKernels
+	{
+		@Override
+		public String getName()
+		{
+			return "scalar";
+		}
+
+		@Override
+		public void max(byte[] target, byte[] source, int from, int to)
+		{
+			for (int i = from; i < to; i++)
+			{
+				if ((source[i] & 0xFF) > (target[i] & 0xFF))
+					target[i] = source[i];
+			}
+		}
+
+		@Override
+		public void min(byte[] target, byte[] source, int from, int to)
+		{
+			for (int i = from; i < to; i++)
+			{
+				if ((source[i] & 0xFF) < (target[i] & 0xFF))
+					target[i] = source[i];
+			}
+		}
+
+		@Override
+		public void max(byte[] source1, int offset1, byte[] source2, int offset2,
+				byte[] target, int length)
+		{
+			for (int i = 0; i < length; i++)
+			{
+				target[i] = (byte) Math.max(source1[offset1 + i] & 0xFF, source2[offset2 + i] & 0xFF);
+			}
+		}
+
+		@Override
+		public void min(byte[] source1, int offset1, byte[] source2, int offset2,
+				byte[] target, int length)
+		{
+			for (int i = 0; i < length; i++)
+			{
+				target[i] = (byte) Math.min(source1[offset1 + i] & 0xFF, source2[offset2 + i] & 0xFF);
+			}
+		}
+	}
+}
@@ -0,0 +1,875 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Strel;
+import inra.ijpb.morphology.strel.InPlaceStrel;
+import inra.ijpb.morphology.strel.OctagonStrel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Morphological erosion and dilation of 8-bits images by the octagonal
+ * structuring element of the OctagonStrel class of MorphoLibJ, with a
+ * computation time that does not depend on the radius of the octagon.
+ *
+ * The decomposition of the octagon is the one of the OctagonStrel class:
+ * horizontal, vertical and diagonal segments, and 3x3 crosses that may be
+ * shifted. It is read from an OctagonStrel instance, and its elements are
+ * applied in the same order, for the dilation as for the erosion. As each
+ * element ignores the pixels outside of the image, the results are identical
+ * to the ones of OctagonStrel, including near image borders. The running
+ * minimum or maximum along each segment is computed with the algorithm of van
+ * Herk and Gil-Werman, that requires a constant number of comparisons per
+ * pixel whatever the length of the segment. The minimum and maximum of rows
+ * are computed by the MinMaxKernels class, that may use vector instructions.
+ *
+ * The operations are implemented as chains of row filters: each filter only
+ * keeps the rows required by two consecutive blocks of the algorithm, whose
+ * size depends on the length of the segment but not on the image height. They
+ * can be applied in place on a whole array, or be included in a longer chain
+ * of row filters.
+ *
+ * @see RowConsumer
+ * @see MinMaxKernels
+ *
+ * @author David Legland
+ *
+ */
+public class OctagonMorphology
+{
+	/** The kernels used for computing minimum and maximum of rows */
+	private static final MinMaxKernels KERNELS = MinMaxKernels.getInstance();
+
+	/** The radius of the octagon */
+	int radius;
+
+	/**
+	 * The elements of the decomposition of the octagon, in the order they are
+	 * applied. Each element is given by the (dx, dy) shifts of its pixels.
+	 */
+	List<int[][]> elements = new ArrayList<int[][]>();
+
+	/**
+	 * Creates a new octagon with the given radius, identical to the one
+	 * obtained with OctagonStrel.fromRadius(radius).
+	 *
+	 * @param radius
+	 *            the radius of the octagon, in pixels
+	 */
+	public OctagonMorphology(int radius)
+	{
+		if (radius < 0)
+		{
+			throw new IllegalArgumentException("Radius must be positive or zero");
+		}
+		this.radius = radius;
+
+		if (radius > 0)
+		{
+			for (InPlaceStrel element : OctagonStrel.fromRadius(radius).decompose())
+			{
+				this.elements.add(element.getShifts());
+			}
+		}
+	}
+
+	/**
+	 * @return the radius of the octagon
+	 */
+	public int getRadius()
+	{
+		return this.radius;
+	}
+
+	/**
+	 * Computes the morphological dilation of an 8-bits image, and returns the
+	 * result in a new image.
+	 *
+	 * @param image
+	 *            the image to dilate
+	 * @return the result of dilation
+	 */
+	public ImageProcessor dilation(ImageProcessor image)
+	{
+		ByteProcessor result = duplicateAsByte(image);
+		dilation((byte[]) result.getPixels(), image.getWidth(), image.getHeight());
+		return result;
+	}
+
+	/**
+	 * Computes the morphological erosion of an 8-bits image, and returns the
+	 * result in a new image.
+	 *
+	 * @param image
+	 *            the image to erode
+	 * @return the result of erosion
+	 */
+	public ImageProcessor erosion(ImageProcessor image)
+	{
+		ByteProcessor result = duplicateAsByte(image);
+		erosion((byte[]) result.getPixels(), image.getWidth(), image.getHeight());
+		return result;
+	}
+
+	/**
+	 * Computes the morphological closing of an 8-bits image, and returns the
+	 * result in a new image.
+	 *
+	 * @param image
+	 *            the image to process
+	 * @return the result of closing
+	 */
+	public ImageProcessor closing(ImageProcessor image)
+	{
+		ByteProcessor result = duplicateAsByte(image);
+		closing((byte[]) result.getPixels(), image.getWidth(), image.getHeight());
+		return result;
+	}
+
+	/**
+	 * Computes the morphological opening of an 8-bits image, and returns the
+	 * result in a new image.
+	 *
+	 * @param image
+	 *            the image to process
+	 * @return the result of opening
+	 */
+	public ImageProcessor opening(ImageProcessor image)
+	{
+		ByteProcessor result = duplicateAsByte(image);
+		opening((byte[]) result.getPixels(), image.getWidth(), image.getHeight());
+		return result;
+	}
+
+	private static final ByteProcessor duplicateAsByte(ImageProcessor image)
+	{
+		if (!(image instanceof ByteProcessor))
+		{
+			throw new IllegalArgumentException("Requires an 8-bits image");
+		}
+		return (ByteProcessor) image.duplicate();
+	}
+
+	/**
+	 * Computes in place the morphological closing of an array of 8-bits
+	 * values.
+	 *
+	 * @param pixels
+	 *            the values of the image, in row-major order
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 */
+	public void closing(byte[] pixels, int width, int height)
+	{
+		RowConsumer sink = new ArrayRowConsumer(pixels, width);
+		processInPlace(pixels, width, height, closingFilter(width, height, sink));
+	}
+
+	/**
+	 * Computes in place the morphological opening of an array of 8-bits
+	 * values.
+	 *
+	 * @param pixels
+	 *            the values of the image, in row-major order
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 */
+	public void opening(byte[] pixels, int width, int height)
+	{
+		RowConsumer sink = new ArrayRowConsumer(pixels, width);
+		processInPlace(pixels, width, height, openingFilter(width, height, sink));
+	}
+
+	/**
+	 * Computes in place the morphological dilation of an array of 8-bits
+	 * values.
+	 *
+	 * @param pixels
+	 *            the values of the image, in row-major order
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 */
+	public void dilation(byte[] pixels, int width, int height)
+	{
+		RowConsumer sink = new ArrayRowConsumer(pixels, width);
+		processInPlace(pixels, width, height, dilationFilter(width, height, sink));
+	}
+
+	/**
+	 * Computes in place the morphological erosion of an array of 8-bits
+	 * values.
+	 *
+	 * @param pixels
+	 *            the values of the image, in row-major order
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 */
+	public void erosion(byte[] pixels, int width, int height)
+	{
+		RowConsumer sink = new ArrayRowConsumer(pixels, width);
+		processInPlace(pixels, width, height, erosionFilter(width, height, sink));
+	}
+
+	/**
+	 * Sends the rows of the array to the filter. As the filters never emit a
+	 * row before having received it, the result rows can be written into the
+	 * input array.
+	 */
+	private static final void processInPlace(byte[] pixels, int width, int height,
+			RowConsumer filter)
+	{
+		if (pixels.length < width * height)
+		{
+			throw new IllegalArgumentException("Pixel array is too small for image size");
+		}
+
+		byte[] row = new byte[width];
+		for (int y = 0; y < height; y++)
+		{
+			PreviewExecutor.checkCanceled();
+			System.arraycopy(pixels, y * width, row, 0, width);
+			filter.consume(row);
+		}
+		filter.finish();
+	}
+
+	/**
+	 * Creates a row filter that computes the morphological closing of the
+	 * rows it receives, and sends the result rows to another consumer.
+	 *
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @param next
+	 *            the consumer of the result rows
+	 * @return the row filter
+	 */
+	public RowConsumer closingFilter(int width, int height, RowConsumer next)
+	{
+		return dilationFilter(width, height, erosionFilter(width, height, next));
+	}
+
+	/**
+	 * Creates a row filter that computes the morphological opening of the
+	 * rows it receives, and sends the result rows to another consumer.
+	 *
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @param next
+	 *            the consumer of the result rows
+	 * @return the row filter
+	 */
+	public RowConsumer openingFilter(int width, int height, RowConsumer next)
+	{
+		return erosionFilter(width, height, dilationFilter(width, height, next));
+	}
+
+	/**
+	 * Creates a row filter that computes the morphological dilation of the
+	 * rows it receives, and sends the result rows to another consumer.
+	 *
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @param next
+	 *            the consumer of the result rows
+	 * @return the row filter
+	 */
+	public RowConsumer dilationFilter(int width, int height, RowConsumer next)
+	{
+		return createFilter(width, height, true, next);
+	}
+
+	/**
+	 * Creates a row filter that computes the morphological erosion of the
+	 * rows it receives, and sends the result rows to another consumer.
+	 *
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @param next
+	 *            the consumer of the result rows
+	 * @return the row filter
+	 */
+	public RowConsumer erosionFilter(int width, int height, RowConsumer next)
+	{
+		return createFilter(width, height, false, next);
+	}
+
+	/**
+	 * Chains the filters of the elements of the decomposition, in the order of
+	 * the OctagonStrel class. The dilation takes the maximum over the pixels
+	 * p - s, and the erosion the minimum over the pixels p + s, where s are
+	 * the shifts of the element.
+	 */
+	private RowConsumer createFilter(int width, int height, boolean dilation, RowConsumer next)
+	{
+		List<ChainedRowFilter> filters = new ArrayList<ChainedRowFilter>();
+		for (int[][] shifts : this.elements)
+		{
+			int[][] offsets = new int[shifts.length][];
+			for (int i = 0; i < shifts.length; i++)
+			{
+				int sign = dilation ? -1 : 1;
+				offsets[i] = new int[] { sign * shifts[i][0], sign * shifts[i][1] };
+			}
+
+			ChainedRowFilter filter = createElementFilter(width, height, offsets, dilation);
+			if (filter != null)
+			{
+				filters.add(filter);
+			}
+		}
+
+		// connect the filters, starting from the last one
+		RowConsumer filter = next;
+		for (int i = filters.size() - 1; i >= 0; i--)
+		{
+			ChainedRowFilter current = filters.get(i);
+			current.next = filter;
+			filter = current;
+		}
+		return filter;
+	}
+
+	/**
+	 * Creates the filter computing the extremum over the given offsets around
+	 * each pixel. Segments containing the origin use the running extremum
+	 * algorithm, other elements must fit within three rows. Returns null if
+	 * the element contains only the origin.
+	 */
+	private static final ChainedRowFilter createElementFilter(int width, int height,
+			int[][] offsets, boolean dilation)
+	{
+		int minX = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE;
+		int minY = Integer.MAX_VALUE;
+		int maxY = Integer.MIN_VALUE;
+		boolean horizontal = true;
+		boolean vertical = true;
+		boolean diagonal = true;
+		boolean antiDiagonal = true;
+		for (int[] offset : offsets)
+		{
+			int dx = offset[0];
+			int dy = offset[1];
+			minX = Math.min(minX, dx);
+			maxX = Math.max(maxX, dx);
+			minY = Math.min(minY, dy);
+			maxY = Math.max(maxY, dy);
+			horizontal = horizontal && dy == 0;
+			vertical = vertical && dx == 0;
+			diagonal = diagonal && dx == dy;
+			antiDiagonal = antiDiagonal && dx == -dy;
+		}
+
+		if (minX == 0 && maxX == 0 && minY == 0 && maxY == 0)
+		{
+			return null;
+		}
+
+		// the pixels of a segment are distinct, and contiguous if their
+		// number equals the extent of the segment
+		if (horizontal && offsets.length == maxX - minX + 1)
+		{
+			return new HorizontalSegmentFilter(width, minX, maxX, dilation);
+		}
+		boolean segment = offsets.length == maxY - minY + 1 && minY <= 0 && maxY >= 0;
+		if (segment && vertical)
+		{
+			return new SegmentFilter(width, height, 0, minY, maxY, dilation);
+		}
+		if (segment && diagonal)
+		{
+			return new SegmentFilter(width, height, 1, minY, maxY, dilation);
+		}
+		if (segment && antiDiagonal)
+		{
+			return new SegmentFilter(width, height, -1, minY, maxY, dilation);
+		}
+		if (minY >= -1 && maxY <= 1)
+		{
+			return new SmallElementFilter(width, offsets, dilation);
+		}
+		throw new IllegalArgumentException("Unsupported element in the decomposition of the octagon");
+	}
+
+	/**
+	 * Replaces each value of the target array by the maximum (dilation) or the
+	 * minimum (erosion) of itself and of the value at the same position in the
+	 * source array, for indices between from (inclusive) and to (exclusive).
+	 */
+	static final void combine(byte[] target, byte[] source, int from, int to, boolean dilation)
+	{
+		if (dilation)
+		{
+			KERNELS.max(target, source, from, to);
+		}
+		else
+		{
+			KERNELS.min(target, source, from, to);
+		}
+	}
+
+	/**
+	 * Stores in the target array the maximum (dilation) or the minimum
+	 * (erosion) of two source arrays, starting at the specified offsets.
+	 */
+	static final void combine(byte[] source1, int offset1, byte[] source2, int offset2,
+			byte[] target, int length, boolean dilation)
+	{
+		if (dilation)
+		{
+			KERNELS.max(source1, offset1, source2, offset2, target, length);
+		}
+		else
+		{
+			KERNELS.min(source1, offset1, source2, offset2, target, length);
+		}
+	}
+
+	/**
+	 * Base class for the filters of the decomposition, that send their result
+	 * rows to another consumer.
+	 */
+	private static abstract class ChainedRowFilter implements RowConsumer
+	{
+		RowConsumer next;
+	}
+
+	/**
+	 * Writes the received rows into an array.
+	 */
+	private static final class ArrayRowConsumer implements RowConsumer
+	{
+		byte[] pixels;
+		int width;
+		int y = 0;
+
+		ArrayRowConsumer(byte[] pixels, int width)
+		{
+			this.pixels = pixels;
+			this.width = width;
+		}
+
+		@Override
+		public void consume(byte[] row)
+		{
+			System.arraycopy(row, 0, this.pixels, this.y * this.width, this.width);
+			this.y++;
+		}
+
+		@Override
+		public void finish()
+		{
+		}
+	}
+
+	/**
+	 * Running extremum along horizontal segments: the neighbors of pixel
+	 * (x, y) are the pixels (x + t, y), with t0 &le; t &le; t1. Each row is
+	 * processed as soon as it is received.
+	 */
+	private static final class HorizontalSegmentFilter extends ChainedRowFilter
+	{
+		int width;
+		int t0;
+		int t1;
+		boolean dilation;
+
+		/** the index of the first value of the row within the padded row */
+		int padding;
+
+		/** the row padded with neutral values, and rounded to blocks */
+		byte[] values;
+		byte[] forward;
+		byte[] backward;
+		byte[] result;
+
+		HorizontalSegmentFilter(int width, int t0, int t1, boolean dilation)
+		{
+			this.width = width;
+			this.t0 = t0;
+			this.t1 = t1;
+			this.dilation = dilation;
+
+			int blockSize = t1 - t0 + 1;
+			this.padding = Math.max(-t0, 0);
+			int length = this.padding + width + Math.max(t1, 0);
+			int nBlocks = (length + blockSize - 1) / blockSize;
+			int paddedWidth = nBlocks * blockSize;
+			this.values = new byte[paddedWidth];
+			this.forward = new byte[paddedWidth];
+			this.backward = new byte[paddedWidth];
+			this.result = new byte[width];
+			Arrays.fill(this.values, (byte) (dilation ? 0 : 255));
+		}
+
+		@Override
+		public void consume(byte[] row)
+		{
+			// padding values are never overwritten
+			System.arraycopy(row, 0, this.values, this.padding, this.width);
+
+			// running extremum from the beginning and from the end of each block
+			int blockSize = this.t1 - this.t0 + 1;
+			for (int b = 0; b < this.values.length; b += blockSize)
+			{
+				int last = b + blockSize - 1;
+				this.forward[b] = this.values[b];
+				this.backward[last] = this.values[last];
+				for (int i = 1; i < blockSize; i++)
+				{
+					this.forward[b + i] = extremum(this.forward[b + i - 1], this.values[b + i]);
+					this.backward[last - i] = extremum(this.backward[last - i + 1], this.values[last - i]);
+				}
+			}
+
+			// the window of each pixel overlaps at most two blocks
+			combine(this.backward, this.padding + this.t0, this.forward, this.padding + this.t1,
+					this.result, this.width, this.dilation);
+			this.next.consume(this.result);
+		}
+
+		private byte extremum(byte v1, byte v2)
+		{
+			if (this.dilation)
+				return (v1 & 0xFF) > (v2 & 0xFF) ? v1 : v2;
+			else
+				return (v1 & 0xFF) < (v2 & 0xFF) ? v1 : v2;
+		}
+
+		@Override
+		public void finish()
+		{
+			this.next.finish();
+		}
+	}
+
+	/**
+	 * Running extremum along vertical (shear = 0) or diagonal (shear = +1 or
+	 * -1) segments. The neighbors of pixel (x, y) are the pixels
+	 * (x + shear * t, y + t), with t0 &le; 0 &le; t &le; t1.
+	 *
+	 * The image is padded with neutral rows on top and bottom, and the
+	 * algorithm is applied on blocks of t1 - t0 + 1 padded rows, stored in
+	 * arrays indexed by the position of the row within its block. Within a
+	 * block, rows are sheared such that the segments become vertical, so that
+	 * the buffers are only wider than the image by a few times the length of
+	 * the segment. The result rows of a block are emitted once the next block
+	 * has been received, so that the filter keeps four blocks of rows in
+	 * memory, whatever the height of the image.
+	 */
+	private static final class SegmentFilter extends ChainedRowFilter
+	{
+		int width;
+		int height;
+		int shear;
+		int t0;
+		int t1;
+		boolean dilation;
+
+		int blockSize;
+		byte neutral;
+
+		/**
+		 * the pixel (x,y) in row r of its block is stored at index
+		 * x + origin - shear * r
+		 */
+		int origin;
+
+		/** the input rows of the current block, then their backward extremum */
+		byte[][] values;
+		/** the forward extremum within the current block */
+		byte[][] forward;
+		/** the forward and backward extrema within the previous block */
+		byte[][] previousForward;
+		byte[][] previousBackward;
+
+		/** the number of padded rows received so far */
+		int nReceived = 0;
+
+		byte[] result;
+
+		SegmentFilter(int width, int height, int shear, int t0, int t1, boolean dilation)
+		{
+			this.width = width;
+			this.height = height;
+			this.shear = shear;
+			this.t0 = t0;
+			this.t1 = t1;
+			this.dilation = dilation;
+
+			this.blockSize = t1 - t0 + 1;
+			this.neutral = (byte) (dilation ? 0 : 255);
+
+			// the segment of a pixel may start one block before its row, and
+			// be shifted by the position of the pixel within its block
+			this.origin = 2 * Math.abs(shear) * (this.blockSize - 1);
+			int bufferWidth = width + 2 * this.origin;
+			this.values = new byte[this.blockSize][bufferWidth];
+			this.forward = new byte[this.blockSize][bufferWidth];
+			this.previousForward = new byte[this.blockSize][bufferWidth];
+			this.previousBackward = new byte[this.blockSize][bufferWidth];
+			this.result = new byte[width];
+
+			// top padding
+			for (int i = 0; i < -t0; i++)
+			{
+				addPaddedRow(null);
+			}
+		}
+
+		@Override
+		public void consume(byte[] row)
+		{
+			addPaddedRow(row);
+		}
+
+		@Override
+		public void finish()
+		{
+			// add neutral rows until the block following the one of the last
+			// image row is complete
+			int lastBlock = (this.height - 1) / this.blockSize;
+			while (this.nReceived < (lastBlock + 2) * this.blockSize)
+			{
+				addPaddedRow(null);
+			}
+			this.next.finish();
+		}
+
+		private void addPaddedRow(byte[] row)
+		{
+			int r = this.nReceived % this.blockSize;
+
+			// store the sheared row
+			byte[] buffer = this.values[r];
+			Arrays.fill(buffer, this.neutral);
+			if (row != null)
+			{
+				System.arraycopy(row, 0, buffer, this.origin - this.shear * r, this.width);
+			}
+
+			// update forward extremum
+			byte[] forw = this.forward[r];
+			System.arraycopy(buffer, 0, forw, 0, buffer.length);
+			if (r > 0)
+			{
+				combine(forw, this.forward[r - 1], 0, forw.length, this.dilation);
+			}
+
+			this.nReceived++;
+			if (r == this.blockSize - 1)
+			{
+				processBlock();
+			}
+		}
+
+		/**
+		 * Computes the backward extremum of the block that has just been
+		 * completed, and emits the result rows of the previous block.
+		 */
+		private void processBlock()
+		{
+			for (int r = this.blockSize - 2; r >= 0; r--)
+			{
+				combine(this.values[r], this.values[r + 1], 0, this.values[r].length, this.dilation);
+			}
+
+			int block = this.nReceived / this.blockSize - 1;
+			if (block > 0)
+			{
+				int start = (block - 1) * this.blockSize;
+				int end = Math.min(start + this.blockSize, this.height);
+				for (int y = start; y < end; y++)
+				{
+					// the window of row y spans padded rows y to y + t1 - t0
+					int r0 = y - start;
+					int r1 = r0 + this.blockSize - 1;
+					byte[] back = this.previousBackward[r0];
+					byte[] forw;
+					if (r1 < this.blockSize)
+					{
+						forw = this.previousForward[r1];
+					}
+					else
+					{
+						r1 -= this.blockSize;
+						forw = this.forward[r1];
+					}
+					int offset0 = this.origin + this.shear * (this.t0 - r0);
+					int offset1 = this.origin + this.shear * (this.t1 - r1);
+					combine(back, offset0, forw, offset1, this.result, this.width, this.dilation);
+					this.next.consume(this.result);
+				}
+			}
+
+			// the current block becomes the previous one
+			byte[][] tmp = this.previousForward;
+			this.previousForward = this.forward;
+			this.forward = tmp;
+			tmp = this.previousBackward;
+			this.previousBackward = this.values;
+			this.values = tmp;
+		}
+	}
+
+	/**
+	 * Extremum over a small set of offsets around each pixel, within the
+	 * previous, the current and the next rows, such as a 3x3 cross. Each row
+	 * is emitted once the next row has been received.
+	 */
+	private static final class SmallElementFilter extends ChainedRowFilter
+	{
+		int width;
+		int[][] offsets;
+		boolean dilation;
+
+		/** the index of the first value of a row within the padded rows */
+		int padding;
+
+		/** the previous, current and next rows, padded with neutral values */
+		byte[][] rows;
+		byte[] result;
+		boolean started = false;
+
+		SmallElementFilter(int width, int[][] offsets, boolean dilation)
+		{
+			this.width = width;
+			this.offsets = offsets;
+			this.dilation = dilation;
+
+			for (int[] offset : offsets)
+			{
+				this.padding = Math.max(this.padding, Math.abs(offset[0]));
+			}
+			this.rows = new byte[3][width + 2 * this.padding];
+			for (byte[] row : this.rows)
+			{
+				Arrays.fill(row, (byte) (dilation ? 0 : 255));
+			}
+			this.result = new byte[width];
+		}
+
+		@Override
+		public void consume(byte[] row)
+		{
+			if (this.started)
+			{
+				System.arraycopy(row, 0, this.rows[2], this.padding, this.width);
+				emit();
+
+				byte[] tmp = this.rows[0];
+				this.rows[0] = this.rows[1];
+				this.rows[1] = this.rows[2];
+				this.rows[2] = tmp;
+			}
+			else
+			{
+				System.arraycopy(row, 0, this.rows[1], this.padding, this.width);
+				this.started = true;
+			}
+		}
+
+		@Override
+		public void finish()
+		{
+			if (this.started)
+			{
+				Arrays.fill(this.rows[2], (byte) (this.dilation ? 0 : 255));
+				emit();
+			}
+			this.next.finish();
+		}
+
+		/**
+		 * Computes the result for the current row.
+		 */
+		private void emit()
+		{
+			int[] offset = this.offsets[0];
+			System.arraycopy(this.rows[offset[1] + 1], this.padding + offset[0], this.result, 0, this.width);
+			for (int i = 1; i < this.offsets.length; i++)
+			{
+				offset = this.offsets[i];
+				combine(this.result, 0, this.rows[offset[1] + 1], this.padding + offset[0],
+						this.result, this.width, this.dilation);
+			}
+			this.next.consume(this.result);
+		}
+	}
+
+
+	/**
+	 * Compares the computation time of the closing with the running extremum
+	 * algorithm used here and with the OctagonStrel class of MorphoLibJ, for
+	 * increasing radius. The correctness of the operations is checked by
+	 * the unit tests.
+	 *
+	 * @param args
+	 *            not used
+	 */
+	public static final void main(String[] args)
+	{
+		int width = 2000;
+		int height = 2000;
+		int nRepetitions = 3;
+
+		// generate a random image with a few large structures
+		Random random = new Random(42);
+		byte[] pixels = new byte[width * height];
+		for (int i = 0; i < pixels.length; i++)
+		{
+			pixels[i] = (byte) random.nextInt(256);
+		}
+		ByteProcessor image = new ByteProcessor(width, height, pixels);
+
+		System.out.println("Closing of a " + width + "x" + height + " image (times in ms)");
+		System.out.println("radius\tOctagonMorphology\tOctagonStrel");
+		for (int radius = 4; radius <= 30; radius += 2)
+		{
+			OctagonMorphology octagon = new OctagonMorphology(radius);
+			long fastTime = Long.MAX_VALUE;
+			for (int i = 0; i < nRepetitions; i++)
+			{
+				byte[] buffer = pixels.clone();
+				long t0 = System.nanoTime();
+				octagon.closing(buffer, width, height);
+				fastTime = Math.min(fastTime, System.nanoTime() - t0);
+			}
+
+			Strel strel = OctagonStrel.fromRadius(radius);
+			strel.showProgress(false);
+			long strelTime = Long.MAX_VALUE;
+			for (int i = 0; i < nRepetitions; i++)
+			{
+				long t0 = System.nanoTime();
+				strel.closing(image);
+				strelTime = Math.min(strelTime, System.nanoTime() - t0);
+			}
+
+			System.out.println(radius + "\t" + (fastTime / 1000000) + "\t" + (strelTime / 1000000));
+		}
+	}
+}
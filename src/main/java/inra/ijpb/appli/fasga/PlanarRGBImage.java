@@ -0,0 +1,204 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+
+/**
+ * A color image stored as three planes of unsigned 8-bits values, one for
+ * each of the red, green and blue channels.
+ *
+ * The filtering stage can produce this representation directly from the
+ * filtered channels, and the segmentation and quantification stages read the
+ * channels without unpacking the RGB values of each pixel again. The planes
+ * are usually borrowed from the buffer pool, and can be given back with the
+ * release() method once the image is not used anymore.
+ *
+ * @see BufferPool
+ * @author David Legland
+ *
+ */
+public class PlanarRGBImage
+{
+	int width;
+	int height;
+	byte[] red;
+	byte[] green;
+	byte[] blue;
+
+	/**
+	 * Creates a new planar image from existing planes.
+	 *
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @param red
+	 *            the values of the red channel
+	 * @param green
+	 *            the values of the green channel
+	 * @param blue
+	 *            the values of the blue channel
+	 */
+	public PlanarRGBImage(int width, int height, byte[] red, byte[] green, byte[] blue)
+	{
+		int size = width * height;
+		if (red.length != size || green.length != size || blue.length != size)
+		{
+			throw new IllegalArgumentException("Planes must have the size of the image");
+		}
+		this.width = width;
+		this.height = height;
+		this.red = red;
+		this.green = green;
+		this.blue = blue;
+	}
+
+	/**
+	 * Creates a new planar image with planes borrowed from the buffer pool.
+	 * The content of the planes is undefined.
+	 *
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @return a new planar image
+	 */
+	public static final PlanarRGBImage create(int width, int height)
+	{
+		BufferPool pool = BufferPool.getInstance();
+		int size = width * height;
+		return new PlanarRGBImage(width, height, pool.borrowBytes(size),
+				pool.borrowBytes(size), pool.borrowBytes(size));
+	}
+
+	/**
+	 * Unpacks the values of a color image into a new planar image.
+	 *
+	 * @param image
+	 *            the color image to convert
+	 * @return a new planar image, with planes borrowed from the buffer pool
+	 */
+	public static final PlanarRGBImage fromColorProcessor(ColorProcessor image)
+	{
+		PlanarRGBImage result = create(image.getWidth(), image.getHeight());
+		int[] pixels = (int[]) image.getPixels();
+		byte[] red = result.red;
+		byte[] green = result.green;
+		byte[] blue = result.blue;
+		for (int i = 0; i < pixels.length; i++)
+		{
+			int c = pixels[i];
+			red[i] = (byte) (c >> 16);
+			green[i] = (byte) (c >> 8);
+			blue[i] = (byte) c;
+		}
+		return result;
+	}
+
+	/**
+	 * Packs the values of the planes into a new color image, for example for
+	 * display.
+	 *
+	 * @return a new color image with the same content
+	 */
+	public ColorProcessor toColorProcessor()
+	{
+		int[] pixels = BufferPool.getInstance().borrowInts(this.width * this.height);
+		for (int i = 0; i < pixels.length; i++)
+		{
+			pixels[i] = (this.red[i] & 0xFF) << 16 | (this.green[i] & 0xFF) << 8 | (this.blue[i] & 0xFF);
+		}
+		return new ColorProcessor(this.width, this.height, pixels);
+	}
+
+	/**
+	 * Returns a view of a channel as a ByteProcessor. The processor shares
+	 * the values of the plane, so that it can be used for in-place
+	 * processing.
+	 *
+	 * @param channel
+	 *            the channel index: 0 for red, 1 for green, 2 for blue
+	 * @return a ByteProcessor sharing the values of the plane
+	 */
+	public ByteProcessor getChannelProcessor(int channel)
+	{
+		return new ByteProcessor(this.width, this.height, getPlane(channel));
+	}
+
+	/**
+	 * Returns the plane of the specified channel.
+	 *
+	 * @param channel
+	 *            the channel index: 0 for red, 1 for green, 2 for blue
+	 * @return the values of the channel
+	 */
+	public byte[] getPlane(int channel)
+	{
+		switch (channel)
+		{
+		case 0: return this.red;
+		case 1: return this.green;
+		case 2: return this.blue;
+		default:
+			throw new IllegalArgumentException("Channel index must be 0, 1 or 2: " + channel);
+		}
+	}
+
+	/**
+	 * Gives the planes back to the buffer pool. The image must not be used
+	 * anymore after calling this method.
+	 */
+	public void release()
+	{
+		BufferPool pool = BufferPool.getInstance();
+		pool.release(this.red);
+		pool.release(this.green);
+		pool.release(this.blue);
+		this.red = null;
+		this.green = null;
+		this.blue = null;
+	}
+
+	/**
+	 * @return the width of the image
+	 */
+	public int getWidth()
+	{
+		return this.width;
+	}
+
+	/**
+	 * @return the height of the image
+	 */
+	public int getHeight()
+	{
+		return this.height;
+	}
+
+	/**
+	 * @return the values of the red channel
+	 */
+	public byte[] getRed()
+	{
+		return this.red;
+	}
+
+	/**
+	 * @return the values of the green channel
+	 */
+	public byte[] getGreen()
+	{
+		return this.green;
+	}
+
+	/**
+	 * @return the values of the blue channel
+	 */
+	public byte[] getBlue()
+	{
+		return this.blue;
+	}
+}
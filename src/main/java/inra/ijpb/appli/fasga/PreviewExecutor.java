@@ -0,0 +1,367 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import ij.IJ;
+
+import java.awt.EventQueue;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes the previews of the plugins on a background thread.
+ *
+ * Submitting a new computation cancels the computation that is running or
+ * waiting, so that only the most recent parameters are processed. As each
+ * computation starts after a short delay, rapid edits of the dialog
+ * parameters are coalesced into a single computation. The result of a
+ * computation is published on the event dispatch thread, only if no other
+ * computation was submitted in the meantime.
+ *
+ * Cancellation interrupts the worker thread. Long computations can call the
+ * checkCanceled() method between their processing steps to stop as soon as
+ * possible. The tasks run in parallel by the ThreadUtils class keep the
+ * thread that submitted them as owner, so that they can also call the
+ * checkCanceled() method.
+ *
+ * @author David Legland
+ *
+ */
+public class PreviewExecutor
+{
+	/**
+	 * The delay before starting a computation, in milliseconds.
+	 */
+	static final long DEFAULT_DELAY = 100;
+
+	/** The single instance shared by the plugins */
+	private static PreviewExecutor instance = null;
+
+	/**
+	 * The thread whose interruption cancels the computation of the current
+	 * thread, if the current thread runs a part of a parallel computation.
+	 */
+	private static final ThreadLocal<Thread> owner = new ThreadLocal<Thread>();
+
+	/**
+	 * A preview computation, split into a cancellable computation step run on
+	 * the worker thread, and a publication step run only for the latest
+	 * computation.
+	 *
+	 * @param <T>
+	 *            the type of the computation result
+	 */
+	public static abstract class Job<T>
+	{
+		/**
+		 * Computes the result of the preview.
+		 *
+		 * @return the result of the computation
+		 */
+		public abstract T compute();
+
+		/**
+		 * Displays the result of the computation. Called on the event dispatch
+		 * thread.
+		 *
+		 * @param result
+		 *            the result of the computation
+		 */
+		public abstract void publish(T result);
+	}
+
+	private ScheduledExecutorService executor;
+	private long delay;
+
+	/** the computation that is waiting or running, or null */
+	private Future<?> current = null;
+
+	/** incremented each time a computation is submitted or canceled */
+	private long generation = 0;
+
+	/** the publication waiting for the event dispatch thread, or null */
+	private Runnable pending = null;
+
+	/**
+	 * Returns the preview executor shared by the plugins.
+	 *
+	 * @return the shared instance of preview executor
+	 */
+	public static final synchronized PreviewExecutor getInstance()
+	{
+		if (instance == null)
+		{
+			instance = new PreviewExecutor(DEFAULT_DELAY);
+		}
+		return instance;
+	}
+
+	/**
+	 * Creates a new preview executor with its own worker thread.
+	 *
+	 * @param delay
+	 *            the delay before starting a computation, in milliseconds
+	 */
+	public PreviewExecutor(long delay)
+	{
+		this.delay = delay;
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "Fasga Preview");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Cancels the current computation if any, and schedules a new one.
+	 *
+	 * @param job
+	 *            the computation to run
+	 */
+	public synchronized <T> void submit(final Job<T> job)
+	{
+		if (this.current != null)
+		{
+			this.current.cancel(true);
+		}
+
+		final long jobGeneration = ++this.generation;
+		this.current = this.executor.schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					T result = job.compute();
+					publish(job, result, jobGeneration);
+				}
+				catch (CancellationException ex)
+				{
+					// a more recent computation was submitted
+				}
+				catch (RuntimeException ex)
+				{
+					IJ.log("Preview failed: " + ex);
+				}
+			}
+		}, this.delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Publishes the result of a computation on the event dispatch thread, only
+	 * if no other computation was submitted since.
+	 */
+	private synchronized <T> void publish(final Job<T> job, final T result, final long jobGeneration)
+	{
+		if (jobGeneration != this.generation || Thread.currentThread().isInterrupted())
+		{
+			return;
+		}
+
+		this.pending = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				// the generation is checked again, as the computation may
+				// have been canceled while waiting for the event queue
+				synchronized (PreviewExecutor.this)
+				{
+					if (pending != this)
+					{
+						return;
+					}
+					pending = null;
+					if (jobGeneration == generation)
+					{
+						job.publish(result);
+					}
+				}
+			}
+		};
+		EventQueue.invokeLater(this.pending);
+	}
+
+	/**
+	 * Runs the publication that waits for the event dispatch thread, if any.
+	 * When called outside of the event dispatch thread, waits for the event
+	 * queue to process the publication.
+	 */
+	private void flushPublication()
+	{
+		if (EventQueue.isDispatchThread())
+		{
+			Runnable publication;
+			synchronized (this)
+			{
+				publication = this.pending;
+			}
+			if (publication != null)
+			{
+				publication.run();
+			}
+			return;
+		}
+
+		try
+		{
+			// the events are processed in order, so the publication has been
+			// run once the empty event has been processed
+			EventQueue.invokeAndWait(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+				}
+			});
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (InvocationTargetException ex)
+		{
+			throw new RuntimeException(ex.getCause());
+		}
+	}
+
+	/**
+	 * Cancels the current computation if any, and waits until the worker
+	 * thread has stopped working on it. After this method returns, no result
+	 * of a previously submitted computation will be published.
+	 */
+	public void cancel()
+	{
+		synchronized (this)
+		{
+			this.generation++;
+			this.pending = null;
+			if (this.current != null)
+			{
+				this.current.cancel(true);
+				this.current = null;
+			}
+		}
+
+		// the worker runs tasks sequentially, so waiting for an empty task
+		// ensures the canceled computation is finished
+		try
+		{
+			this.executor.submit(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+				}
+			}).get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException ex)
+		{
+			throw new RuntimeException(ex.getCause());
+		}
+	}
+
+	/**
+	 * Waits until the current computation, if any, has been computed and
+	 * published. Used when the dialog is validated, to keep the result of the
+	 * last preview. The fields written by the publication can then be read
+	 * by the calling thread.
+	 */
+	public void awaitCompletion()
+	{
+		Future<?> future;
+		synchronized (this)
+		{
+			future = this.current;
+		}
+		if (future == null)
+		{
+			return;
+		}
+
+		try
+		{
+			future.get();
+			flushPublication();
+		}
+		catch (CancellationException ex)
+		{
+			// the computation was replaced by another one
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException ex)
+		{
+			throw new RuntimeException(ex.getCause());
+		}
+	}
+
+	/**
+	 * Checks if the computation running on the current thread was canceled,
+	 * and stops it by throwing an exception in that case. This method can be
+	 * called between the steps of long computations, and within the parallel
+	 * tasks run by the ThreadUtils class.
+	 *
+	 * @throws CancellationException
+	 *             if the current thread, or the thread that submitted the
+	 *             parallel task running on the current thread, was
+	 *             interrupted
+	 */
+	public static final void checkCanceled()
+	{
+		Thread thread = owner.get();
+		if (Thread.currentThread().isInterrupted() || (thread != null && thread.isInterrupted()))
+		{
+			throw new CancellationException("Computation was canceled");
+		}
+	}
+
+	/**
+	 * Returns the thread whose interruption cancels the computation of the
+	 * current thread: the owner of the current thread if it runs a part of a
+	 * parallel computation, or the current thread otherwise.
+	 */
+	static final Thread getOwner()
+	{
+		Thread thread = owner.get();
+		return thread != null ? thread : Thread.currentThread();
+	}
+
+	/**
+	 * Sets the thread whose interruption cancels the computation of the
+	 * current thread, or removes it if the thread is null, and returns the
+	 * previous one.
+	 */
+	static final Thread setOwner(Thread thread)
+	{
+		Thread previous = owner.get();
+		if (thread == null)
+		{
+			owner.remove();
+		}
+		else
+		{
+			owner.set(thread);
+		}
+		return previous;
+	}
+}
@@ -0,0 +1,281 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+import java.util.Arrays;
+
+/**
+ * Utility methods for processing images at a coarser resolution than the
+ * acquisition resolution. Images are downsampled by an integer factor using
+ * area averaging, and the results can be upsampled back to the original size
+ * using bilinear interpolation.
+ *
+ * Both operations process the images row by row, and only allocate the
+ * result image, so that they can be applied on whole slides.
+ *
+ * @author David Legland
+ *
+ */
+public class ProcessingScale
+{
+	/**
+	 * Downsamples an image by an integer factor, by averaging the values
+	 * within each block of factor-by-factor pixels. The blocks on the right
+	 * and bottom borders may be smaller when the image size is not a multiple
+	 * of the factor.
+	 *
+	 * @param image
+	 *            the image to downsample (color, 8-bits, 16-bits or float)
+	 * @param factor
+	 *            the downsampling factor, greater than or equal to 1
+	 * @return the downsampled image, with the same type as the input image
+	 */
+	public static final ImageProcessor downsample(ImageProcessor image, int factor)
+	{
+		if (factor < 1)
+		{
+			throw new IllegalArgumentException("Processing scale must be at least 1");
+		}
+		if (factor == 1)
+		{
+			return image.duplicate();
+		}
+
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int width2 = (width + factor - 1) / factor;
+		int height2 = (height + factor - 1) / factor;
+
+		if (image instanceof ColorProcessor)
+		{
+			return downsampleColor((ColorProcessor) image, factor);
+		}
+
+		// other types: average float values, and round for integer types
+		ImageProcessor result = image.createProcessor(width2, height2);
+		boolean isFloat = image instanceof FloatProcessor;
+		double[] sums = new double[width2];
+		for (int y2 = 0; y2 < height2; y2++)
+		{
+			// accumulate the rows of the current row of blocks
+			Arrays.fill(sums, 0);
+			int y1 = Math.min((y2 + 1) * factor, height);
+			for (int y = y2 * factor; y < y1; y++)
+			{
+				int offset = y * width;
+				for (int x = 0; x < width; x++)
+				{
+					sums[x / factor] += image.getf(offset + x);
+				}
+			}
+
+			for (int x2 = 0; x2 < width2; x2++)
+			{
+				int count = (Math.min((x2 + 1) * factor, width) - x2 * factor) * (y1 - y2 * factor);
+				float avg = (float) (sums[x2] / count);
+				result.setf(y2 * width2 + x2, isFloat ? avg : Math.round(avg));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Downsamples a color image, by accumulating the channels of the rows of
+	 * each row of blocks, so that no full-size intermediate array is created.
+	 */
+	private static final ColorProcessor downsampleColor(ColorProcessor image, int factor)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int width2 = (width + factor - 1) / factor;
+		int height2 = (height + factor - 1) / factor;
+
+		int[] pixels = (int[]) image.getPixels();
+		int[] result = new int[width2 * height2];
+		int[][] sums = new int[3][width2];
+		for (int y2 = 0; y2 < height2; y2++)
+		{
+			// accumulate the rows of the current row of blocks
+			for (int c = 0; c < 3; c++)
+			{
+				Arrays.fill(sums[c], 0);
+			}
+			int y1 = Math.min((y2 + 1) * factor, height);
+			for (int y = y2 * factor; y < y1; y++)
+			{
+				int offset = y * width;
+				for (int x = 0; x < width; x++)
+				{
+					int rgb = pixels[offset + x];
+					int x2 = x / factor;
+					sums[0][x2] += (rgb >> 16) & 0xFF;
+					sums[1][x2] += (rgb >> 8) & 0xFF;
+					sums[2][x2] += rgb & 0xFF;
+				}
+			}
+
+			// same rounding as for the other types
+			for (int x2 = 0; x2 < width2; x2++)
+			{
+				int count = (Math.min((x2 + 1) * factor, width) - x2 * factor) * (y1 - y2 * factor);
+				int rgb = 0;
+				for (int c = 0; c < 3; c++)
+				{
+					float avg = (float) ((double) sums[c][x2] / count);
+					rgb |= Math.min(Math.round(avg), 255) << (16 - 8 * c);
+				}
+				result[y2 * width2 + x2] = rgb;
+			}
+		}
+		return new ColorProcessor(width2, height2, result);
+	}
+
+	/**
+	 * Upsamples an image that was downsampled by the specified factor, using
+	 * bilinear interpolation between the centers of the downsampled pixels.
+	 *
+	 * @param image
+	 *            the downsampled image (color, 8-bits, 16-bits or float)
+	 * @param factor
+	 *            the factor used for downsampling
+	 * @param width
+	 *            the width of the result image
+	 * @param height
+	 *            the height of the result image
+	 * @return the upsampled image, with the same type as the input image
+	 */
+	public static final ImageProcessor upsample(ImageProcessor image, int factor, int width, int height)
+	{
+		if (factor < 1)
+		{
+			throw new IllegalArgumentException("Processing scale must be at least 1");
+		}
+
+		int width2 = image.getWidth();
+		int height2 = image.getHeight();
+
+		// pre-compute interpolation indices and weights along each direction
+		int[] x0 = new int[width];
+		float[] wx = new float[width];
+		computeWeights(width, width2, factor, x0, wx);
+		int[] y0 = new int[height];
+		float[] wy = new float[height];
+		computeWeights(height, height2, factor, y0, wy);
+
+		int dx = width2 > 1 ? 1 : 0;
+		int dy = height2 > 1 ? width2 : 0;
+
+		if (image instanceof ColorProcessor)
+		{
+			// interpolate the channels of the two rows of the downsampled
+			// image around each row of the result
+			int[] pixels = (int[]) image.getPixels();
+			int[] result = new int[width * height];
+			float[][] rows = new float[6][width2];
+			int currentRow = -1;
+			for (int y = 0; y < height; y++)
+			{
+				if (y0[y] != currentRow)
+				{
+					currentRow = y0[y];
+					unpackRow(pixels, currentRow * width2, width2, rows, 0);
+					unpackRow(pixels, currentRow * width2 + dy, width2, rows, 3);
+				}
+				float ty = wy[y];
+				for (int x = 0; x < width; x++)
+				{
+					int i = x0[x];
+					float tx = wx[x];
+					int rgb = 0;
+					for (int c = 0; c < 3; c++)
+					{
+						float[] top = rows[c];
+						float[] bottom = rows[c + 3];
+						float value = interpolate(top[i], top[i + dx], bottom[i], bottom[i + dx], tx, ty);
+						rgb |= Math.min(Math.round(value), 255) << (16 - 8 * c);
+					}
+					result[y * width + x] = rgb;
+				}
+			}
+			return new ColorProcessor(width, height, result);
+		}
+
+		ImageProcessor result = image.createProcessor(width, height);
+		boolean isFloat = image instanceof FloatProcessor;
+		for (int y = 0; y < height; y++)
+		{
+			int offset = y0[y] * width2;
+			float ty = wy[y];
+			for (int x = 0; x < width; x++)
+			{
+				int i = offset + x0[x];
+				float value = interpolate(image.getf(i), image.getf(i + dx),
+						image.getf(i + dy), image.getf(i + dy + dx), wx[x], ty);
+				result.setf(y * width + x, isFloat ? value : Math.round(value));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * For each position of the upsampled grid, computes the index of the
+	 * downsampled pixel on the left, and the weight of the pixel on the right.
+	 */
+	private static final void computeWeights(int size, int size2, int factor, int[] indices, float[] weights)
+	{
+		for (int i = 0; i < size; i++)
+		{
+			// position in the downsampled grid, pixel centers at integer values
+			double pos = (i + .5) / factor - .5;
+			pos = Math.min(Math.max(pos, 0), size2 - 1);
+			int i0 = Math.min((int) pos, Math.max(size2 - 2, 0));
+			indices[i] = i0;
+			weights[i] = (float) (pos - i0);
+		}
+	}
+
+	/**
+	 * Extracts the three channels of a row of packed RGB values into three
+	 * consecutive rows of the target array, starting at the specified index.
+	 */
+	private static final void unpackRow(int[] pixels, int offset, int width, float[][] rows, int index)
+	{
+		for (int x = 0; x < width; x++)
+		{
+			int rgb = pixels[offset + x];
+			rows[index][x] = (rgb >> 16) & 0xFF;
+			rows[index + 1][x] = (rgb >> 8) & 0xFF;
+			rows[index + 2][x] = rgb & 0xFF;
+		}
+	}
+
+	/**
+	 * Bilinear interpolation between the values of four neighbor pixels.
+	 */
+	private static final float interpolate(float v00, float v10, float v01, float v11, float tx, float ty)
+	{
+		float top = v00 * (1 - tx) + v10 * tx;
+		float bottom = v01 * (1 - tx) + v11 * tx;
+		return top * (1 - ty) + bottom * ty;
+	}
+
+	/**
+	 * Converts a length given in pixels of the original image into a number
+	 * of pixels in the downsampled image.
+	 *
+	 * @param radius
+	 *            the radius in pixels of the original image
+	 * @param factor
+	 *            the downsampling factor
+	 * @return the radius in pixels of the downsampled image
+	 */
+	public static final int scaleRadius(int radius, int factor)
+	{
+		return (int) Math.round((double) radius / factor);
+	}
+}
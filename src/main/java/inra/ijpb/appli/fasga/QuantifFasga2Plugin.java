@@ -13,6 +13,7 @@ import ij.plugin.PlugIn;
 import ij.plugin.filter.GaussianBlur;
 import ij.process.AutoThresholder;
 import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
 import ij.process.ImageProcessor;
 import ij.process.ImageStatistics;
 import inra.ijpb.algo.DefaultAlgoListener;
@@ -29,6 +30,7 @@ import inra.ijpb.morphology.strel.SquareStrel;
 import inra.ijpb.segment.Threshold;
 
 import java.awt.Color;
+import java.awt.Rectangle;
 import java.io.File;
 import java.util.HashMap;
 
@@ -57,6 +59,39 @@ public class QuantifFasga2Plugin implements PlugIn
 		ImagePlus imagePlus = IJ.getImage();
 		ImageProcessor image = imagePlus.getProcessor();
 
+		if (!(image instanceof ColorProcessor))
+		{
+			IJ.error("Requires a color image");
+			return;
+		}
+		BufferPool.getInstance().fitToImage(image.getWidth(), image.getHeight());
+		
+		ResultsTable table = quantifySlide((ColorProcessor) image, true);
+		table.setLabel(imagePlus.getShortTitle(), table.getCounter() - 1);
+		
+		table.show("Fasga Results");
+		
+		// the buffers are kept for the next slide, within the bound of the
+		// pool that was fitted to the size of the slide
+		IJ.log(BufferPool.getInstance().toString());
+	}
+	
+	/**
+	 * Applies the processing steps of the Fasga2 workflow to a color image of
+	 * a slide, and returns the table of quantification results. The
+	 * intermediate buffers are borrowed from the buffer pool, and released at
+	 * the end of the processing, so that the next slide with the same size
+	 * reuses them.
+	 * 
+	 * @param image
+	 *            the color image of the slide
+	 * @param showImages
+	 *            if true, the intermediate images are displayed
+	 * @return the table of quantification results
+	 * @see BufferPool#fitToImage(int, int)
+	 */
+	public static final ResultsTable quantifySlide(ColorProcessor image, boolean showImages)
+	{
 		// First step is to apply several image processing filters
 		// Calls the filtering plugin
 //		int closingRadius = 6;
@@ -65,17 +100,26 @@ public class QuantifFasga2Plugin implements PlugIn
 		int closingRadius = 4;
 		int openingRadius = 12;
 		double sigma = 4;
-		ImageProcessor filteredImage = Fasga2MorphoFilteringPlugin
-				.computeFilteredImage(image, closingRadius, openingRadius,
-						sigma);
-		new ImagePlus("Filtered", filteredImage).show();
+		int tileSize = 1024;
+		
+		// the filtered channels are kept as planes for the next steps
+		PlanarRGBImage filteredImage = Fasga2MorphoFilteringPlugin
+				.computeFilteredPlanarImage(image, closingRadius, 
+						openingRadius, sigma, tileSize, false);
+		if (showImages)
+		{
+			new ImagePlus("Filtered", filteredImage.toColorProcessor()).show();
+		}
 
 		double holeThresholdHigh = .99;
 		double holeThresholdLow = .99;
 		int bubblesThicknessPx = 10;
+		// the stem is segmented at full resolution, the coarse-to-fine
+		// computation is only enabled on request
+		Rectangle stemBounds = new Rectangle();
 		ImageProcessor stemImage = 
 				Fasga2SegmentStemPlugin.segmentStem(filteredImage, holeThresholdHigh, holeThresholdLow, 
-			bubblesThicknessPx, true);
+			bubblesThicknessPx, false, showImages, stemBounds);
 				
 		// Computes regions from filtered image and segmented stem
 		// Result is a label image
@@ -85,15 +129,14 @@ public class QuantifFasga2Plugin implements PlugIn
 		int maxBundleSizeInPixels = 6000;
 		ImageProcessor labelImage = 
 				Fasga2SegmentRegionsPlugin.segmentStemRegions(filteredImage,
-						stemImage, darkRegionsThreshold, redRegionThreshold, 
-						minBundleSizeInPixels, maxBundleSizeInPixels, true);
+						stemImage, stemBounds, darkRegionsThreshold, redRegionThreshold, 
+						minBundleSizeInPixels, maxBundleSizeInPixels, showImages);
 		
 		// Compute morphometric features
 		IJ.log("Compute Results");
 		ResultsTable table = Fasga2QuantifySegmentedSlicePlugin.quantifyRegions(filteredImage, labelImage, 1);
-		table.setLabel(imagePlus.getShortTitle(), table.getCounter() - 1);
-		
-		table.show("Fasga Results");
+		filteredImage.release();
+		return table;
 	}
 	
 	/* (non-Javadoc)
@@ -138,7 +181,7 @@ public class QuantifFasga2Plugin implements PlugIn
 
 		// Add morphological processing to keep stem image
 		IJ.log("fill holes");
-		ImageProcessor stem = Reconstruction.fillHoles(darkRegions);
+		ImageProcessor stem = BinaryHoleFilling.fillHoles(darkRegions);
 		IJ.log("morphological filtering");
 		Strel sq2 = SquareStrel.fromRadius(2); 
 		Strel sq4 = SquareStrel.fromRadius(4);
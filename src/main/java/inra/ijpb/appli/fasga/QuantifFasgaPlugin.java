@@ -10,9 +10,6 @@ import ij.plugin.PlugIn;
 import ij.process.ColorProcessor;
 import ij.process.ImageProcessor;
 import inra.ijpb.binary.BinaryImages;
-import inra.ijpb.morphology.Morphology;
-import inra.ijpb.morphology.Strel;
-import inra.ijpb.morphology.strel.OctagonStrel;
 
 import java.awt.Color;
 import java.io.File;
@@ -152,9 +149,9 @@ public class QuantifFasgaPlugin implements PlugIn {
 		
 		// compute morphological opening on each channel
 		IJ.showStatus("Morphological Filtering...");
-		Strel strel = new OctagonStrel(25);
-		strel.showProgress(false);
-		ColorProcessor rgbFilt = (ColorProcessor) Morphology.opening(fitted, strel);
+		// (an octagon of size 25 corresponds to a radius of 12)
+		ColorProcessor rgbFilt = RGBMorphoFilter.closingOpening(
+				(ColorProcessor) fitted, 0, 12);
 		
 		String name = image.getShortTitle() + "-filt";
 		new ImagePlus(name, rgbFilt).show();
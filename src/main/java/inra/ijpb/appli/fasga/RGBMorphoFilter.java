@@ -0,0 +1,261 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Strel;
+import inra.ijpb.morphology.strel.OctagonStrel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Morphological closing followed by morphological opening on a RGB image.
+ *
+ * Each channel is extracted once from the packed pixels, and the closing and
+ * the opening are applied on the channels in parallel. The resulting channels
+ * are packed only once at the end, avoiding the creation of an intermediate
+ * RGB image between the closing and the opening. They can also be returned
+ * without packing, as a planar image.
+ *
+ * By default, the morphological operations are computed in place by the
+ * OctagonMorphology class, whose computation time does not depend on the
+ * radius, and whose results are identical to the ones of the OctagonStrel
+ * class of MorphoLibJ. The OctagonStrel class can still be selected, for
+ * comparison.
+ *
+ * @see OctagonMorphology
+ *
+ * @author David Legland
+ *
+ */
+public class RGBMorphoFilter
+{
+	/**
+	 * Applies a morphological closing followed by a morphological opening on
+	 * each channel of a color image, using octagonal structuring elements.
+	 *
+	 * @param image
+	 *            the color image to filter
+	 * @param closingRadius
+	 *            the radius of the octagon used for closing, or 0 to skip the
+	 *            closing
+	 * @param openingRadius
+	 *            the radius of the octagon used for opening, or 0 to skip the
+	 *            opening
+	 * @return a new color image containing the filtered channels
+	 */
+	public static final ColorProcessor closingOpening(ColorProcessor image,
+			int closingRadius, int openingRadius)
+	{
+		return closingOpening(image, closingRadius, openingRadius, 3);
+	}
+
+	/**
+	 * Applies a morphological closing followed by a morphological opening on
+	 * each channel of a color image, using octagonal structuring elements and
+	 * the specified number of threads.
+	 *
+	 * @param image
+	 *            the color image to filter
+	 * @param closingRadius
+	 *            the radius of the octagon used for closing, or 0 to skip the
+	 *            closing
+	 * @param openingRadius
+	 *            the radius of the octagon used for opening, or 0 to skip the
+	 *            opening
+	 * @param nThreads
+	 *            the number of channels processed simultaneously (between 1
+	 *            and 3)
+	 * @return a new color image containing the filtered channels
+	 */
+	public static final ColorProcessor closingOpening(ColorProcessor image,
+			int closingRadius, int openingRadius, int nThreads)
+	{
+		return closingOpening(image, closingRadius, openingRadius, nThreads, true);
+	}
+
+	/**
+	 * Applies a morphological closing followed by a morphological opening on
+	 * each channel of a color image, using the specified number of threads,
+	 * and choosing the implementation of the octagonal structuring elements.
+	 *
+	 * @param image
+	 *            the color image to filter
+	 * @param closingRadius
+	 *            the radius of the octagon used for closing, or 0 to skip the
+	 *            closing
+	 * @param openingRadius
+	 *            the radius of the octagon used for opening, or 0 to skip the
+	 *            opening
+	 * @param nThreads
+	 *            the number of channels processed simultaneously (between 1
+	 *            and 3)
+	 * @param fastOctagon
+	 *            if true, uses the OctagonMorphology class. Otherwise, uses
+	 *            the OctagonStrel class of MorphoLibJ.
+	 * @return a new color image containing the filtered channels
+	 */
+	public static final ColorProcessor closingOpening(ColorProcessor image,
+			int closingRadius, int openingRadius, int nThreads, boolean fastOctagon)
+	{
+		PlanarRGBImage planar = closingOpeningPlanar(image, closingRadius, openingRadius,
+				nThreads, fastOctagon);
+
+		// pack the filtered channels, that are not used anymore
+		ColorProcessor result = planar.toColorProcessor();
+		planar.release();
+		return result;
+	}
+
+	/**
+	 * Applies a morphological closing followed by a morphological opening on
+	 * each channel of a color image, and returns the filtered channels
+	 * without packing them.
+	 *
+	 * @param image
+	 *            the color image to filter
+	 * @param closingRadius
+	 *            the radius of the octagon used for closing, or 0 to skip the
+	 *            closing
+	 * @param openingRadius
+	 *            the radius of the octagon used for opening, or 0 to skip the
+	 *            opening
+	 * @param nThreads
+	 *            the number of channels processed simultaneously (between 1
+	 *            and 3)
+	 * @return a new planar image containing the filtered channels, with
+	 *         planes borrowed from the buffer pool
+	 */
+	public static final PlanarRGBImage closingOpeningPlanar(ColorProcessor image,
+			int closingRadius, int openingRadius, int nThreads)
+	{
+		return closingOpeningPlanar(image, closingRadius, openingRadius, nThreads, true);
+	}
+
+	/**
+	 * Applies a morphological closing followed by a morphological opening on
+	 * each channel of a color image, choosing the implementation of the
+	 * octagonal structuring elements, and returns the filtered channels
+	 * without packing them.
+	 *
+	 * @param image
+	 *            the color image to filter
+	 * @param closingRadius
+	 *            the radius of the octagon used for closing, or 0 to skip the
+	 *            closing
+	 * @param openingRadius
+	 *            the radius of the octagon used for opening, or 0 to skip the
+	 *            opening
+	 * @param nThreads
+	 *            the number of channels processed simultaneously (between 1
+	 *            and 3)
+	 * @param fastOctagon
+	 *            if true, uses the OctagonMorphology class. Otherwise, uses
+	 *            the OctagonStrel class of MorphoLibJ.
+	 * @return a new planar image containing the filtered channels, with
+	 *         planes borrowed from the buffer pool
+	 */
+	public static final PlanarRGBImage closingOpeningPlanar(ColorProcessor image,
+			final int closingRadius, final int openingRadius, int nThreads,
+			final boolean fastOctagon)
+	{
+		final int width = image.getWidth();
+		final int height = image.getHeight();
+		final int[] pixels = (int[]) image.getPixels();
+
+		// filter each channel in its own task
+		final byte[][] channels = new byte[3][];
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(3);
+		for (int c = 0; c < 3; c++)
+		{
+			final int channelIndex = c;
+			tasks.add(new Callable<Void>()
+			{
+				@Override
+				public Void call()
+				{
+					byte[] channel = extractChannel(pixels, channelIndex);
+					channels[channelIndex] = filterChannel(channel, width,
+							height, closingRadius, openingRadius, fastOctagon);
+					return null;
+				}
+			});
+		}
+		ThreadUtils.invokeAll(tasks, Math.min(nThreads, 3));
+
+		return new PlanarRGBImage(width, height, channels[0], channels[1], channels[2]);
+	}
+
+	/**
+	 * Extracts the values of a channel from an array of packed RGB values. The
+	 * result array is borrowed from the buffer pool.
+	 *
+	 * @param pixels
+	 *            the packed RGB values
+	 * @param channel
+	 *            the channel index: 0 for red, 1 for green, 2 for blue
+	 * @return the values of the channel
+	 */
+	static final byte[] extractChannel(int[] pixels, int channel)
+	{
+		int shift = 16 - 8 * channel;
+		byte[] values = BufferPool.getInstance().borrowBytes(pixels.length);
+		for (int i = 0; i < pixels.length; i++)
+		{
+			values[i] = (byte) (pixels[i] >> shift);
+		}
+		return values;
+	}
+
+	/**
+	 * Applies closing then opening on the values of a single channel. The
+	 * result is stored in the channel array.
+	 */
+	private static final byte[] filterChannel(byte[] channel, int width, int height,
+			int closingRadius, int openingRadius, boolean fastOctagon)
+	{
+		if (closingRadius > 0)
+		{
+			if (fastOctagon)
+			{
+				new OctagonMorphology(closingRadius).closing(channel, width, height);
+			}
+			else
+			{
+				filterChannel(channel, width, height, closingRadius, true);
+			}
+		}
+		PreviewExecutor.checkCanceled();
+		if (openingRadius > 0)
+		{
+			if (fastOctagon)
+			{
+				new OctagonMorphology(openingRadius).opening(channel, width, height);
+			}
+			else
+			{
+				filterChannel(channel, width, height, openingRadius, false);
+			}
+		}
+		return channel;
+	}
+
+	/**
+	 * Applies closing or opening with the OctagonStrel class, and copies the
+	 * result back into the channel array, that may belong to the buffer pool.
+	 */
+	private static final void filterChannel(byte[] channel, int width, int height,
+			int radius, boolean closing)
+	{
+		ImageProcessor image = new ByteProcessor(width, height, channel);
+		Strel strel = OctagonStrel.fromRadius(radius);
+		strel.showProgress(false);
+		image = closing ? strel.closing(image) : strel.opening(image);
+		System.arraycopy((byte[]) image.getPixels(), 0, channel, 0, width * height);
+	}
+}
@@ -0,0 +1,34 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+/**
+ * Receives the rows of an 8-bits image one after the other, from top to
+ * bottom. Used to chain image filters that only need a band of rows around
+ * the current row, so that a whole image never needs to be stored between two
+ * filters.
+ *
+ * The array given to the consume method may be modified by the caller once
+ * the method returns, so implementations must copy the values they need to
+ * keep.
+ *
+ * @author David Legland
+ *
+ */
+public interface RowConsumer
+{
+	/**
+	 * Processes the next row of the image.
+	 *
+	 * @param row
+	 *            the values of the row
+	 */
+	public void consume(byte[] row);
+
+	/**
+	 * Notifies that all the rows of the image have been sent, so that the
+	 * remaining rows can be processed.
+	 */
+	public void finish();
+}
@@ -0,0 +1,380 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * A binary mask stored as the list of the runs of consecutive pixels of each
+ * row.
+ *
+ * Smooth regions such as the stem, the rind or the red and blue zones contain
+ * only a few runs on each row, so that the memory and the computation time of
+ * the operations depend on the number of runs rather than on the number of
+ * pixels. The runs of each row are sorted, maximal, and do not overlap.
+ *
+ * Run-length masks are used to apply a smooth mask on an image, as for the
+ * constraint of the color profiles to the stem. The masks of the segmentation
+ * of the regions are stored as BitMask instead: they are combined with the
+ * masks of the dark and red pixels, that contain many short runs, and the
+ * labelling and the hole filling process them pixel by pixel.
+ *
+ * @see BitMask
+ * @author David Legland
+ *
+ */
+public class RunLengthMask
+{
+	int width;
+	int height;
+
+	/** the index of the first run of each row, followed by the total number of runs */
+	int[] rowStarts;
+
+	/** the first x-coordinate and the last x-coordinate plus one of each run */
+	int[] runs;
+
+	/**
+	 * The logical operations between the pixels of two masks.
+	 */
+	private enum Operation
+	{
+		AND, OR, AND_NOT;
+
+		boolean apply(boolean inside1, boolean inside2)
+		{
+			switch (this)
+			{
+			case AND: return inside1 && inside2;
+			case OR: return inside1 || inside2;
+			default: return inside1 && !inside2;
+			}
+		}
+	}
+
+	private RunLengthMask(int width, int height, int[] rowStarts, int[] runs)
+	{
+		this.width = width;
+		this.height = height;
+		this.rowStarts = rowStarts;
+		this.runs = runs;
+	}
+
+	/**
+	 * Computes the runs of the non-zero pixels of an image.
+	 *
+	 * @param image
+	 *            a binary image
+	 * @return a new mask containing the non-zero pixels
+	 */
+	public static final RunLengthMask fromImage(ImageProcessor image)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		byte[] pixels = image instanceof ByteProcessor ? (byte[]) image.getPixels() : null;
+
+		RunBuilder builder = new RunBuilder(height);
+		for (int y = 0; y < height; y++)
+		{
+			builder.startRow(y);
+			int offset = y * width;
+			int x = 0;
+			while (x < width)
+			{
+				// skip background, then find the end of the run
+				while (x < width && !isInside(image, pixels, offset + x))
+				{
+					x++;
+				}
+				if (x == width)
+				{
+					break;
+				}
+				int start = x;
+				while (x < width && isInside(image, pixels, offset + x))
+				{
+					x++;
+				}
+				builder.addRun(start, x);
+			}
+		}
+		return builder.build(width, height);
+	}
+
+	private static final boolean isInside(ImageProcessor image, byte[] pixels, int index)
+	{
+		return pixels != null ? pixels[index] != 0 : image.get(index) != 0;
+	}
+
+	/**
+	 * Converts the mask into a binary image.
+	 *
+	 * @return a new binary image with the value 255 for the pixels of the mask
+	 */
+	public ByteProcessor toByteProcessor()
+	{
+		byte[] pixels = new byte[this.width * this.height];
+		for (int y = 0; y < this.height; y++)
+		{
+			int offset = y * this.width;
+			for (int r = this.rowStarts[y]; r < this.rowStarts[y + 1]; r++)
+			{
+				Arrays.fill(pixels, offset + this.runs[2 * r], offset + this.runs[2 * r + 1], (byte) 255);
+			}
+		}
+		return new ByteProcessor(this.width, this.height, pixels);
+	}
+
+	/**
+	 * Sets to zero all the pixels of an image that are not in the mask. Only
+	 * the gaps between the runs are visited.
+	 *
+	 * @param image
+	 *            a grayscale or RGB image with the same size as the mask
+	 */
+	public void constrain(ImageProcessor image)
+	{
+		checkSize(image.getWidth(), image.getHeight());
+		byte[] pixels = image instanceof ByteProcessor ? (byte[]) image.getPixels() : null;
+		for (int y = 0; y < this.height; y++)
+		{
+			int offset = y * this.width;
+			int x = 0;
+			for (int r = this.rowStarts[y]; r < this.rowStarts[y + 1]; r++)
+			{
+				clear(image, pixels, offset + x, offset + this.runs[2 * r]);
+				x = this.runs[2 * r + 1];
+			}
+			clear(image, pixels, offset + x, offset + this.width);
+		}
+	}
+
+	private static final void clear(ImageProcessor image, byte[] pixels, int from, int to)
+	{
+		if (pixels != null)
+		{
+			Arrays.fill(pixels, from, to, (byte) 0);
+			return;
+		}
+		for (int i = from; i < to; i++)
+		{
+			image.set(i, 0);
+		}
+	}
+
+	/**
+	 * @return the number of pixels of the mask
+	 */
+	public long area()
+	{
+		long area = 0;
+		int nRuns = this.rowStarts[this.height];
+		for (int r = 0; r < nRuns; r++)
+		{
+			area += this.runs[2 * r + 1] - this.runs[2 * r];
+		}
+		return area;
+	}
+
+	/**
+	 * @return the smallest rectangle containing the pixels of the mask, or an
+	 *         empty rectangle if the mask is empty
+	 */
+	public Rectangle getBounds()
+	{
+		int xmin = Integer.MAX_VALUE;
+		int xmax = -1;
+		int ymin = -1;
+		int ymax = -1;
+		for (int y = 0; y < this.height; y++)
+		{
+			int r0 = this.rowStarts[y];
+			int r1 = this.rowStarts[y + 1];
+			if (r0 == r1)
+			{
+				continue;
+			}
+			if (ymin < 0)
+			{
+				ymin = y;
+			}
+			ymax = y;
+			xmin = Math.min(xmin, this.runs[2 * r0]);
+			xmax = Math.max(xmax, this.runs[2 * r1 - 1]);
+		}
+		if (ymin < 0)
+		{
+			return new Rectangle(0, 0, 0, 0);
+		}
+		return new Rectangle(xmin, ymin, xmax - xmin, ymax - ymin + 1);
+	}
+
+	/**
+	 * @return the number of runs of the mask
+	 */
+	public int getRunCount()
+	{
+		return this.rowStarts[this.height];
+	}
+
+	/**
+	 * Computes the pixels that belong to both masks.
+	 *
+	 * @param mask
+	 *            a mask with the same size
+	 * @return a new mask
+	 */
+	public RunLengthMask intersection(RunLengthMask mask)
+	{
+		return combine(mask, Operation.AND);
+	}
+
+	/**
+	 * Computes the pixels that belong to at least one of the masks.
+	 *
+	 * @param mask
+	 *            a mask with the same size
+	 * @return a new mask
+	 */
+	public RunLengthMask union(RunLengthMask mask)
+	{
+		return combine(mask, Operation.OR);
+	}
+
+	/**
+	 * Computes the pixels of this mask that do not belong to the other mask.
+	 *
+	 * @param mask
+	 *            a mask with the same size
+	 * @return a new mask
+	 */
+	public RunLengthMask difference(RunLengthMask mask)
+	{
+		return combine(mask, Operation.AND_NOT);
+	}
+
+	/**
+	 * Combines the runs of each row of the two masks, by sweeping the
+	 * boundaries of the runs in increasing order.
+	 */
+	private RunLengthMask combine(RunLengthMask mask, Operation op)
+	{
+		checkSize(mask.width, mask.height);
+		RunBuilder builder = new RunBuilder(this.height);
+		int[] runs1 = this.runs;
+		int[] runs2 = mask.runs;
+		for (int y = 0; y < this.height; y++)
+		{
+			builder.startRow(y);
+			int r1 = this.rowStarts[y];
+			int end1 = this.rowStarts[y + 1];
+			int r2 = mask.rowStarts[y];
+			int end2 = mask.rowStarts[y + 1];
+			boolean inside1 = false;
+			boolean inside2 = false;
+			int start = -1;
+			while (r1 < end1 || r2 < end2)
+			{
+				// the next boundary of each mask
+				int next1 = r1 < end1 ? runs1[2 * r1 + (inside1 ? 1 : 0)] : Integer.MAX_VALUE;
+				int next2 = r2 < end2 ? runs2[2 * r2 + (inside2 ? 1 : 0)] : Integer.MAX_VALUE;
+				int x = Math.min(next1, next2);
+				if (next1 == x)
+				{
+					if (inside1)
+					{
+						r1++;
+					}
+					inside1 = !inside1;
+				}
+				if (next2 == x)
+				{
+					if (inside2)
+					{
+						r2++;
+					}
+					inside2 = !inside2;
+				}
+
+				boolean inside = op.apply(inside1, inside2);
+				if (inside && start < 0)
+				{
+					start = x;
+				}
+				else if (!inside && start >= 0)
+				{
+					builder.addRun(start, x);
+					start = -1;
+				}
+			}
+		}
+		return builder.build(this.width, this.height);
+	}
+
+	private void checkSize(int width, int height)
+	{
+		if (width != this.width || height != this.height)
+		{
+			throw new IllegalArgumentException("Images must have the same size as the mask");
+		}
+	}
+
+	/**
+	 * @return the width of the mask
+	 */
+	public int getWidth()
+	{
+		return this.width;
+	}
+
+	/**
+	 * @return the height of the mask
+	 */
+	public int getHeight()
+	{
+		return this.height;
+	}
+
+	/**
+	 * Accumulates the runs of a mask, row after row.
+	 */
+	private static final class RunBuilder
+	{
+		int[] rowStarts;
+		int[] runs = new int[256];
+		int count = 0;
+
+		RunBuilder(int height)
+		{
+			this.rowStarts = new int[height + 1];
+		}
+
+		void startRow(int y)
+		{
+			this.rowStarts[y] = this.count;
+		}
+
+		void addRun(int start, int end)
+		{
+			if (2 * this.count + 2 > this.runs.length)
+			{
+				this.runs = Arrays.copyOf(this.runs, this.runs.length * 2);
+			}
+			this.runs[2 * this.count] = start;
+			this.runs[2 * this.count + 1] = end;
+			this.count++;
+		}
+
+		RunLengthMask build(int width, int height)
+		{
+			this.rowStarts[height] = this.count;
+			return new RunLengthMask(width, height, this.rowStarts,
+					Arrays.copyOf(this.runs, 2 * this.count));
+		}
+	}
+}
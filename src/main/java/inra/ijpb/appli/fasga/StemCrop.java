@@ -0,0 +1,210 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import ij.process.ImageProcessor;
+
+import java.awt.Rectangle;
+
+/**
+ * Some utilities for restricting the processing stages that follow the stem
+ * segmentation to the bounding box of the stem.
+ *
+ * The slides contain large white margins around the stem. The stages that
+ * follow the stem segmentation crop their inputs to the bounding box of the
+ * stem, enlarged by a small margin so that the crop is surrounded by
+ * background, and embed their results into images with the size of the
+ * slide.
+ *
+ * @author David Legland
+ *
+ */
+public class StemCrop
+{
+	/**
+	 * The number of background pixels added around the bounding box of the
+	 * stem. A single pixel is enough for the crop to be surrounded by
+	 * background, so that the hole filling and the distance maps computed
+	 * on the crop give the same results as on the whole image. The second
+	 * pixel also keeps the 5x5 neighborhood of the pixels of the stem within
+	 * the crop.
+	 */
+	public static final int MARGIN = 2;
+
+	/**
+	 * Computes the bounding box of the non-zero pixels of an image, enlarged
+	 * by a margin and clipped to the image bounds.
+	 *
+	 * @param mask
+	 *            a binary or label image
+	 * @param margin
+	 *            the number of pixels added on each side of the bounding box
+	 * @return the bounding box of the non-zero pixels, or the bounds of the
+	 *         whole image if the image contains only zeros
+	 */
+	public static final Rectangle computeBounds(ImageProcessor mask, int margin)
+	{
+		int width = mask.getWidth();
+		int height = mask.getHeight();
+		Rectangle bounds = findBounds(mask, new Rectangle(0, 0, width, height));
+		return enlarge(bounds, margin, width, height);
+	}
+
+	/**
+	 * Computes the bounding box of the non-zero pixels of an image within a
+	 * rectangle, for example the bounding box of the blocks that may contain
+	 * the stem.
+	 *
+	 * @param mask
+	 *            a binary or label image
+	 * @param searchBounds
+	 *            the rectangle containing the scanned pixels, within the
+	 *            bounds of the image
+	 * @return the bounding box of the non-zero pixels within the rectangle,
+	 *         or an empty rectangle if they are all zero
+	 */
+	public static final Rectangle findBounds(ImageProcessor mask, Rectangle searchBounds)
+	{
+		int width = mask.getWidth();
+		int xmin = Integer.MAX_VALUE;
+		int ymin = Integer.MAX_VALUE;
+		int xmax = -1;
+		int ymax = -1;
+		for (int y = searchBounds.y; y < searchBounds.y + searchBounds.height; y++)
+		{
+			int offset = y * width;
+			for (int x = searchBounds.x; x < searchBounds.x + searchBounds.width; x++)
+			{
+				if (mask.get(offset + x) != 0)
+				{
+					xmin = Math.min(xmin, x);
+					xmax = Math.max(xmax, x);
+					ymin = Math.min(ymin, y);
+					ymax = y;
+				}
+			}
+		}
+
+		if (xmax < 0)
+		{
+			return new Rectangle();
+		}
+		return new Rectangle(xmin, ymin, xmax - xmin + 1, ymax - ymin + 1);
+	}
+
+	/**
+	 * Enlarges the bounding box of the stem by a margin, and clips it to the
+	 * image bounds.
+	 *
+	 * @param bounds
+	 *            the bounding box of the stem, or an empty rectangle if no
+	 *            stem was found
+	 * @param margin
+	 *            the number of pixels added on each side of the bounding box
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @return the enlarged bounding box, or the bounds of the whole image if
+	 *         the bounding box is empty
+	 */
+	public static final Rectangle enlarge(Rectangle bounds, int margin, int width, int height)
+	{
+		if (bounds.isEmpty())
+		{
+			return new Rectangle(0, 0, width, height);
+		}
+		int xmin = Math.max(bounds.x - margin, 0);
+		int ymin = Math.max(bounds.y - margin, 0);
+		int xmax = Math.min(bounds.x + bounds.width - 1 + margin, width - 1);
+		int ymax = Math.min(bounds.y + bounds.height - 1 + margin, height - 1);
+		return new Rectangle(xmin, ymin, xmax - xmin + 1, ymax - ymin + 1);
+	}
+
+	/**
+	 * Copies the pixels of an image within a rectangle into a new image. The
+	 * ROI of the image is not modified.
+	 *
+	 * @param image
+	 *            the image to crop
+	 * @param bounds
+	 *            the rectangle to copy, within the bounds of the image
+	 * @return a new image with the same type and the size of the rectangle
+	 */
+	public static final ImageProcessor crop(ImageProcessor image, Rectangle bounds)
+	{
+		int width = image.getWidth();
+		ImageProcessor result = image.createProcessor(bounds.width, bounds.height);
+		Object source = image.getPixels();
+		Object target = result.getPixels();
+		for (int y = 0; y < bounds.height; y++)
+		{
+			System.arraycopy(source, (bounds.y + y) * width + bounds.x,
+					target, y * bounds.width, bounds.width);
+		}
+		return result;
+	}
+
+	/**
+	 * Copies the planes of a planar color image within a rectangle into a new
+	 * planar image.
+	 *
+	 * @param image
+	 *            the image to crop
+	 * @param bounds
+	 *            the rectangle to copy, within the bounds of the image
+	 * @return a new planar image with the size of the rectangle, with planes
+	 *         borrowed from the buffer pool
+	 */
+	public static final PlanarRGBImage crop(PlanarRGBImage image, Rectangle bounds)
+	{
+		int width = image.getWidth();
+		PlanarRGBImage result = PlanarRGBImage.create(bounds.width, bounds.height);
+		for (int c = 0; c < 3; c++)
+		{
+			byte[] source = image.getPlane(c);
+			byte[] target = result.getPlane(c);
+			for (int y = 0; y < bounds.height; y++)
+			{
+				System.arraycopy(source, (bounds.y + y) * width + bounds.x,
+						target, y * bounds.width, bounds.width);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Embeds an image computed on a crop into a new image with the size of
+	 * the original image. The pixels outside of the crop are set to zero.
+	 *
+	 * @param image
+	 *            the image computed on the crop
+	 * @param bounds
+	 *            the position of the crop within the original image
+	 * @param width
+	 *            the width of the original image
+	 * @param height
+	 *            the height of the original image
+	 * @return a new image with the same type and the size of the original
+	 *         image
+	 */
+	public static final ImageProcessor embed(ImageProcessor image, Rectangle bounds,
+			int width, int height)
+	{
+		if (image.getWidth() != bounds.width || image.getHeight() != bounds.height)
+		{
+			throw new IllegalArgumentException("Image must have the size of the bounds");
+		}
+
+		ImageProcessor result = image.createProcessor(width, height);
+		Object source = image.getPixels();
+		Object target = result.getPixels();
+		for (int y = 0; y < bounds.height; y++)
+		{
+			System.arraycopy(source, y * bounds.width,
+					target, (bounds.y + y) * width + bounds.x, bounds.width);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,311 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import ij.plugin.filter.GaussianBlur;
+import ij.process.ColorProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Applies the color filtering of the Fasga2 workflow (morphological closing,
+ * morphological opening, and gaussian smoothing) by streaming the rows of the
+ * image through a chain of row filters.
+ *
+ * Each filter only keeps the rows required by the height of its kernel, in
+ * buffers whose width exceeds the image width by at most a few kernel sizes,
+ * so that the memory used in addition to the input and result images depends
+ * on the image width and on the filter sizes, but not on the image height.
+ * The three channels are processed in parallel.
+ *
+ * The closing and the opening are computed by the row filters of the
+ * OctagonMorphology class, whose results are identical to the ones of the
+ * OctagonStrel class.
+ *
+ * The gaussian smoothing uses the kernel and the border handling of the
+ * GaussianBlur class of ImageJ, so that the result is identical to the one of
+ * the non-streaming filtering for sigma up to TiledColorFilter.MAX_TILED_SIGMA.
+ * For larger values, GaussianBlur works on a downscaled image, and the result
+ * of the streaming filtering differs slightly.
+ *
+ * @see OctagonMorphology
+ * @author David Legland
+ *
+ */
+public class StreamingColorFilter
+{
+	/**
+	 * Applies closing, opening and gaussian smoothing to a color image, by
+	 * streaming its rows.
+	 *
+	 * @param image
+	 *            the color image to filter
+	 * @param closingRadius
+	 *            the radius of the octagon used for morphological closing
+	 * @param openingRadius
+	 *            the radius of the octagon used for morphological opening
+	 * @param sigma
+	 *            the width of the gaussian smoothing kernel, or 0 to skip the
+	 *            smoothing
+	 * @return a new color image containing the result of the filtering
+	 */
+	public static final ColorProcessor filter(ColorProcessor image,
+			final int closingRadius, final int openingRadius, final double sigma)
+	{
+		final int width = image.getWidth();
+		final int height = image.getHeight();
+		final int[] pixels = (int[]) image.getPixels();
+		final int[] result = new int[width * height];
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(3);
+		for (int c = 0; c < 3; c++)
+		{
+			final int channel = c;
+			tasks.add(new Callable<Void>()
+			{
+				@Override
+				public Void call()
+				{
+					// create the chain of filters, starting from the last one
+					RowConsumer filter = new PackedRowConsumer(result, width, channel);
+					if (sigma > 0)
+					{
+						filter = new GaussianRowFilter(width, height, sigma, filter);
+					}
+					if (openingRadius > 0)
+					{
+						filter = new OctagonMorphology(openingRadius).openingFilter(width, height, filter);
+					}
+					if (closingRadius > 0)
+					{
+						filter = new OctagonMorphology(closingRadius).closingFilter(width, height, filter);
+					}
+
+					// send the rows of the channel
+					int shift = 16 - 8 * channel;
+					byte[] row = new byte[width];
+					for (int y = 0; y < height; y++)
+					{
+						PreviewExecutor.checkCanceled();
+						int offset = y * width;
+						for (int x = 0; x < width; x++)
+						{
+							row[x] = (byte) (pixels[offset + x] >> shift);
+						}
+						filter.consume(row);
+					}
+					filter.finish();
+					return null;
+				}
+			});
+		}
+		ThreadUtils.invokeAll(tasks, 3);
+
+		return new ColorProcessor(width, height, result);
+	}
+
+	/**
+	 * Writes the received rows into one channel of an array of packed RGB
+	 * values. The channels of a same row may be written by different threads,
+	 * so the writing of a row is synchronized on a lock shared by a subset of
+	 * rows.
+	 */
+	private static final class PackedRowConsumer implements RowConsumer
+	{
+		private static final Object[] LOCKS = createLocks(64);
+
+		int[] pixels;
+		int width;
+		int shift;
+		int y = 0;
+
+		PackedRowConsumer(int[] pixels, int width, int channel)
+		{
+			this.pixels = pixels;
+			this.width = width;
+			this.shift = 16 - 8 * channel;
+		}
+
+		@Override
+		public void consume(byte[] row)
+		{
+			int offset = this.y * this.width;
+			synchronized (LOCKS[this.y % LOCKS.length])
+			{
+				for (int x = 0; x < this.width; x++)
+				{
+					this.pixels[offset + x] |= (row[x] & 0xFF) << this.shift;
+				}
+			}
+			this.y++;
+		}
+
+		@Override
+		public void finish()
+		{
+		}
+
+		private static final Object[] createLocks(int n)
+		{
+			Object[] locks = new Object[n];
+			for (int i = 0; i < n; i++)
+			{
+				locks[i] = new Object();
+			}
+			return locks;
+		}
+	}
+
+	/**
+	 * Separable gaussian smoothing, that reproduces the GaussianBlur class of
+	 * ImageJ when it does not downscale the image. The kernel is created by
+	 * GaussianBlur, and the values outside of the image are replaced by the
+	 * values of the first and last pixels of each line, weighted by the
+	 * running sums of the kernel, with the same order of operations. Each
+	 * received row is convolved horizontally, and the result rows are
+	 * obtained by combining the last convolved rows and the first one.
+	 */
+	static final class GaussianRowFilter implements RowConsumer
+	{
+		int width;
+		int height;
+		RowConsumer next;
+
+		/** the kernels for each direction: values from 0, and running sums */
+		float[][] kernelX;
+		float[][] kernelY;
+
+		/** the last rows convolved horizontally, indexed by y modulo ring size */
+		float[][] ring;
+		/** the first row convolved horizontally */
+		float[] firstRow;
+		int nReceived = 0;
+		int nEmitted = 0;
+
+		float[] values;
+		float[] column;
+		byte[] result;
+
+		GaussianRowFilter(int width, int height, double sigma, RowConsumer next)
+		{
+			this.width = width;
+			this.height = height;
+			this.next = next;
+
+			// GaussianBlur limits the kernel radius by the length of the lines
+			GaussianBlur blur = new GaussianBlur();
+			double accuracy = TiledColorFilter.GAUSSIAN_ACCURACY;
+			this.kernelX = blur.makeGaussianKernel(sigma, accuracy, width);
+			this.kernelY = blur.makeGaussianKernel(sigma, accuracy, height);
+
+			int kRadius = this.kernelY[0].length;
+			this.ring = new float[Math.min(2 * kRadius - 1, height)][width];
+			this.firstRow = new float[width];
+			this.values = new float[width];
+			this.column = new float[2 * kRadius - 1];
+			this.result = new byte[width];
+		}
+
+		@Override
+		public void consume(byte[] row)
+		{
+			// horizontal convolution
+			for (int x = 0; x < this.width; x++)
+			{
+				this.values[x] = row[x] & 0xFF;
+			}
+			float[] conv = this.ring[this.nReceived % this.ring.length];
+			for (int x = 0; x < this.width; x++)
+			{
+				conv[x] = convolve(this.values, 0, this.width, x, this.values[0],
+						this.values[this.width - 1], this.kernelX);
+			}
+			if (this.nReceived == 0)
+			{
+				System.arraycopy(conv, 0, this.firstRow, 0, this.width);
+			}
+			this.nReceived++;
+
+			// emit the rows whose vertical neighborhood is complete
+			int kRadius = this.kernelY[0].length;
+			while (this.nEmitted + kRadius - 1 < this.nReceived && this.nEmitted < this.height)
+			{
+				emitRow();
+			}
+		}
+
+		@Override
+		public void finish()
+		{
+			while (this.nEmitted < this.height)
+			{
+				emitRow();
+			}
+			this.next.finish();
+		}
+
+		/**
+		 * Vertical convolution of the next row to emit. The neighbor rows are
+		 * copied into a column array whose origin is the first neighbor row.
+		 */
+		private void emitRow()
+		{
+			int y = this.nEmitted;
+			int kRadius = this.kernelY[0].length;
+			int y0 = Math.max(y - kRadius + 1, 0);
+			int y1 = Math.min(y + kRadius - 1, this.height - 1);
+			float[] lastRow = this.ring[(this.height - 1) % this.ring.length];
+			for (int x = 0; x < this.width; x++)
+			{
+				for (int y2 = y0; y2 <= y1; y2++)
+				{
+					this.column[y2 - y0] = this.ring[y2 % this.ring.length][x];
+				}
+				float value = convolve(this.column, y0, this.height, y, this.firstRow[x],
+						lastRow[x], this.kernelY);
+				this.result[x] = (byte) Math.min(Math.max((int) (value + .5f), 0), 255);
+			}
+			this.nEmitted++;
+			this.next.consume(this.result);
+		}
+
+		/**
+		 * Convolves the value at position i of a line with the given length,
+		 * as the GaussianBlur class. The values of the line are stored in the
+		 * input array from position origin. The first and last values of the
+		 * line are used for the positions outside of the line.
+		 */
+		private static final float convolve(float[] input, int origin, int length, int i,
+				float first, float last, float[][] kern)
+		{
+			float[] kernel = kern[0];
+			float[] kernSum = kern[1];
+			int kRadius = kernel.length;
+
+			float result = input[i - origin] * kernel[0];
+			if (i < kRadius)
+			{
+				result += kernSum[i] * first;
+			}
+			// GaussianBlur uses a large inequality after the first kRadius
+			// pixels, where the running sum is almost zero
+			if (i < kRadius ? i + kRadius > length : i + kRadius >= length)
+			{
+				result += kernSum[length - i - 1] * last;
+			}
+			for (int k = 1; k < kRadius; k++)
+			{
+				float v = 0;
+				if (i - k >= 0)
+					v += input[i - k - origin];
+				if (i + k < length)
+					v += input[i + k - origin];
+				result += kernel[k] * v;
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Some utilities for running the computation of independent parts of an
+ * image in parallel.
+ *
+ * @author David Legland
+ *
+ */
+public class ThreadUtils
+{
+	/**
+	 * The pool shared by all the parallel computations, whose threads are
+	 * created once and reused.
+	 */
+	private static final ForkJoinPool POOL = new ForkJoinPool(
+			Math.max(Runtime.getRuntime().availableProcessors(), 3));
+
+	/**
+	 * Runs a collection of tasks on the shared fork-join pool, with at most
+	 * the specified number of tasks running simultaneously, and waits for all
+	 * of them to complete. With a single thread, the tasks are run by the
+	 * calling thread.
+	 *
+	 * The tasks can call the PreviewExecutor.checkCanceled() method, that
+	 * stops them when the calling thread is interrupted. In that case, or if a
+	 * task fails, the tasks that were not started are skipped, and this
+	 * method waits for the running tasks to stop before throwing.
+	 *
+	 * @param tasks
+	 *            the tasks to run
+	 * @param nThreads
+	 *            the maximum number of tasks running simultaneously
+	 * @throws RuntimeException
+	 *             if one of the tasks failed
+	 * @throws CancellationException
+	 *             if the calling thread was interrupted
+	 */
+	public static final <T> void invokeAll(Collection<? extends Callable<T>> tasks, int nThreads)
+	{
+		if (nThreads <= 1)
+		{
+			for (Callable<T> task : tasks)
+			{
+				try
+				{
+					task.call();
+				}
+				catch (RuntimeException ex)
+				{
+					throw ex;
+				}
+				catch (Exception ex)
+				{
+					throw new RuntimeException("Error during parallel computation", ex);
+				}
+			}
+			return;
+		}
+
+		// the tasks keep the owner of the calling thread, so that they can
+		// check if the computation was canceled
+		final Thread caller = PreviewExecutor.getOwner();
+		final List<Callable<T>> taskList = new ArrayList<Callable<T>>(tasks);
+		final AtomicInteger nextTask = new AtomicInteger(0);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		// each worker runs tasks until all tasks were started, or until a task
+		// failed or the computation was canceled
+		int nWorkers = Math.min(nThreads, taskList.size());
+		List<ForkJoinTask<?>> workers = new ArrayList<ForkJoinTask<?>>(nWorkers);
+		for (int i = 0; i < nWorkers; i++)
+		{
+			workers.add(POOL.submit(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					Thread previous = PreviewExecutor.setOwner(caller);
+					try
+					{
+						int index;
+						while (failure.get() == null && !caller.isInterrupted()
+								&& (index = nextTask.getAndIncrement()) < taskList.size())
+						{
+							taskList.get(index).call();
+						}
+					}
+					catch (Throwable ex)
+					{
+						failure.compareAndSet(null, ex);
+					}
+					finally
+					{
+						PreviewExecutor.setOwner(previous);
+					}
+				}
+			}));
+		}
+
+		// the running tasks stop at their next check of cancellation, and must
+		// be finished before their buffers can be reused, so the workers are
+		// joined without reacting to interruption
+		for (ForkJoinTask<?> worker : workers)
+		{
+			worker.quietlyJoin();
+		}
+
+		Throwable cause = failure.get();
+		if (cause == null && caller.isInterrupted())
+		{
+			throw new CancellationException("Parallel computation was interrupted");
+		}
+		if (cause instanceof RuntimeException)
+		{
+			throw (RuntimeException) cause;
+		}
+		if (cause instanceof Error)
+		{
+			throw (Error) cause;
+		}
+		if (cause != null)
+		{
+			throw new RuntimeException("Error during parallel computation", cause);
+		}
+	}
+}
@@ -0,0 +1,494 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import ij.IJ;
+import ij.Prefs;
+import ij.plugin.filter.GaussianBlur;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+import inra.ijpb.morphology.strel.OctagonStrel;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Applies the color filtering of the Fasga2 workflow (morphological closing,
+ * morphological opening, and gaussian smoothing) by splitting the image into
+ * tiles that are processed in parallel.
+ *
+ * Each tile is extended by a halo large enough for the result within the
+ * tile core to be identical to the result obtained on the whole image. Tile
+ * cores are then stitched back into the result image.
+ *
+ * Optionally, the tiles of the background can be skipped. A mask of the
+ * pixels that are not saturated white is first computed at low resolution,
+ * and the tiles whose core and halo contain only saturated white pixels are
+ * filled with white instead of being filtered. As the filtering of a white
+ * region is white, the result is the same as without skipping. The skipping
+ * is therefore effective only for slides whose background is saturated.
+ *
+ * @see Fasga2MorphoFilteringPlugin#computeFilteredImage(ImageProcessor,
+ *      FilteringOptions)
+ * @author David Legland
+ *
+ */
+public class TiledColorFilter
+{
+	/**
+	 * The accuracy used for gaussian smoothing, the same as in the non-tiled
+	 * filtering.
+	 */
+	static final double GAUSSIAN_ACCURACY = .01;
+
+	/**
+	 * Above this value of sigma, the GaussianBlur class of ImageJ smoothes a
+	 * downscaled version of the image, whose sampling grid depends on the
+	 * image origin. In that case the smoothing is applied on the stitched
+	 * image instead of on each tile.
+	 */
+	static final double MAX_TILED_SIGMA = 4.5;
+
+	/**
+	 * The size of the blocks of pixels corresponding to a pixel of the
+	 * low-resolution foreground mask.
+	 */
+	static final int MASK_BLOCK_SIZE = 8;
+
+	/** The color of the skipped background tiles (white) */
+	static final int BACKGROUND_COLOR = 0xFFFFFF;
+
+	// parameters of the filter
+	int closingRadius;
+	int openingRadius;
+	double sigma;
+	int tileSize;
+	int nThreads;
+	boolean skipBackground = false;
+	boolean fastOctagon = true;
+
+	/**
+	 * Creates a new tiled filter, using the number of threads specified in
+	 * ImageJ preferences.
+	 *
+	 * @param closingRadius
+	 *            the radius of the octagon used for morphological closing
+	 * @param openingRadius
+	 *            the radius of the octagon used for morphological opening
+	 * @param sigma
+	 *            the width of the gaussian smoothing kernel
+	 * @param tileSize
+	 *            the size of the tile cores, in pixels
+	 */
+	public TiledColorFilter(int closingRadius, int openingRadius, double sigma, int tileSize)
+	{
+		this(closingRadius, openingRadius, sigma, tileSize, Prefs.getThreads());
+	}
+
+	/**
+	 * Creates a new tiled filter.
+	 *
+	 * @param closingRadius
+	 *            the radius of the octagon used for morphological closing
+	 * @param openingRadius
+	 *            the radius of the octagon used for morphological opening
+	 * @param sigma
+	 *            the width of the gaussian smoothing kernel
+	 * @param tileSize
+	 *            the size of the tile cores, in pixels
+	 * @param nThreads
+	 *            the number of tiles processed simultaneously
+	 */
+	public TiledColorFilter(int closingRadius, int openingRadius, double sigma, int tileSize, int nThreads)
+	{
+		if (tileSize < 1)
+		{
+			throw new IllegalArgumentException("Tile size must be positive");
+		}
+		this.closingRadius = closingRadius;
+		this.openingRadius = openingRadius;
+		this.sigma = sigma;
+		this.tileSize = tileSize;
+		this.nThreads = Math.max(nThreads, 1);
+	}
+
+	/**
+	 * Chooses whether the tiles of a color image that contain only saturated
+	 * white pixels within their halo are filtered or filled with white. The
+	 * result is the same in both cases.
+	 *
+	 * @param skipBackground
+	 *            true if background tiles should not be filtered
+	 */
+	public void setSkipBackground(boolean skipBackground)
+	{
+		this.skipBackground = skipBackground;
+	}
+
+	/**
+	 * Chooses the implementation of the octagonal structuring elements used
+	 * for the filtering of color images.
+	 *
+	 * @param fastOctagon
+	 *            if true (the default), uses the OctagonMorphology class.
+	 *            Otherwise, uses the OctagonStrel class of MorphoLibJ. Both
+	 *            give the same result.
+	 * @see RGBMorphoFilter
+	 */
+	public void setFastOctagon(boolean fastOctagon)
+	{
+		this.fastOctagon = fastOctagon;
+	}
+
+	/**
+	 * Computes the size of the halo around each tile. Each of the dilation and
+	 * erosion steps propagates the influence of the tile border by the radius
+	 * of the octagon (plus one pixel for asymmetric decompositions), and the
+	 * gaussian smoothing by the radius of its kernel.
+	 *
+	 * @return the number of pixels to add on each side of the tile cores
+	 */
+	public int haloSize()
+	{
+		int halo = 2 * (this.closingRadius + 1) + 2 * (this.openingRadius + 1);
+		if (smoothTiles())
+		{
+			halo += gaussianKernelRadius(this.sigma);
+		}
+		return halo;
+	}
+
+	/**
+	 * Applies the filtering to the input image.
+	 *
+	 * @param image
+	 *            the image to filter
+	 * @return a new image containing the result of the filtering
+	 */
+	public ImageProcessor process(final ImageProcessor image)
+	{
+		ImageProcessor result = image.createProcessor(image.getWidth(), image.getHeight());
+		processTiles(image, result, null);
+		return result;
+	}
+
+	/**
+	 * Applies the filtering to a color image, and returns the filtered
+	 * channels as a planar image. The filtered tiles are copied into the
+	 * planes of the result without packing the RGB values.
+	 *
+	 * @param image
+	 *            the color image to filter
+	 * @return a new planar image containing the result of the filtering, with
+	 *         planes borrowed from the buffer pool
+	 */
+	public PlanarRGBImage processPlanar(final ColorProcessor image)
+	{
+		PlanarRGBImage result = PlanarRGBImage.create(image.getWidth(), image.getHeight());
+		processTiles(image, null, result);
+		return result;
+	}
+
+	/**
+	 * Filters the tiles of the image, and stores the result either in an
+	 * image processor or in a planar image.
+	 */
+	private void processTiles(final ImageProcessor image, final ImageProcessor result,
+			final PlanarRGBImage planarResult)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		final int halo = haloSize();
+
+		// optionally identify the background
+		ByteProcessor foreground = null;
+		if (this.skipBackground && image instanceof ColorProcessor)
+		{
+			foreground = computeForegroundMask((ColorProcessor) image);
+		}
+
+		// create one task for each tile
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		int nSkipped = 0;
+		for (int y0 = 0; y0 < height; y0 += this.tileSize)
+		{
+			for (int x0 = 0; x0 < width; x0 += this.tileSize)
+			{
+				final Rectangle core = new Rectangle(x0, y0,
+						Math.min(this.tileSize, width - x0),
+						Math.min(this.tileSize, height - y0));
+				if (foreground != null && !touchesForeground(foreground, core, halo))
+				{
+					if (planarResult != null)
+					{
+						fillTile(planarResult, core, BACKGROUND_COLOR);
+					}
+					else
+					{
+						fillTile((ColorProcessor) result, core, BACKGROUND_COLOR);
+					}
+					nSkipped++;
+					continue;
+				}
+
+				tasks.add(new Callable<Void>()
+				{
+					@Override
+					public Void call()
+					{
+						PreviewExecutor.checkCanceled();
+						if (planarResult != null)
+						{
+							processPlanarTile((ColorProcessor) image, planarResult, core, halo);
+						}
+						else
+						{
+							processTile(image, result, core, halo);
+						}
+						return null;
+					}
+				});
+			}
+		}
+
+		if (foreground != null)
+		{
+			IJ.log("   skipped " + nSkipped + " background tiles over " + (nSkipped + tasks.size()));
+		}
+
+		// process tiles in parallel
+		ThreadUtils.invokeAll(tasks, this.nThreads);
+
+		// if tiles were not smoothed, smooth the whole image
+		if (!smoothTiles())
+		{
+			if (planarResult != null)
+			{
+				for (int c = 0; c < 3; c++)
+				{
+					new GaussianBlur().blurGaussian(planarResult.getChannelProcessor(c),
+							this.sigma, this.sigma, GAUSSIAN_ACCURACY);
+				}
+			}
+			else
+			{
+				new GaussianBlur().blurGaussian(result, this.sigma, this.sigma, GAUSSIAN_ACCURACY);
+			}
+		}
+	}
+
+	/**
+	 * Filters the tile corresponding to the specified core, and copies the
+	 * core of the result into the result image.
+	 */
+	private void processTile(ImageProcessor image, ImageProcessor result, Rectangle core, int halo)
+	{
+		// compute the extended tile, clipped to image bounds
+		Rectangle bounds = new Rectangle(0, 0, image.getWidth(), image.getHeight());
+		Rectangle extended = new Rectangle(core.x - halo, core.y - halo,
+				core.width + 2 * halo, core.height + 2 * halo).intersection(bounds);
+
+		// the roi is a state of the input image, so cropping is serialized
+		ImageProcessor tile;
+		synchronized (image)
+		{
+			image.setRoi(extended);
+			tile = image.crop();
+			image.resetRoi();
+		}
+
+		// apply morphological filtering on tile (tiles already run in
+		// parallel, so the channels of a tile are processed sequentially).
+		// Only the pixels of packed color tiles are borrowed from the pool.
+		boolean borrowed = tile instanceof ColorProcessor;
+		if (borrowed)
+		{
+			tile = RGBMorphoFilter.closingOpening((ColorProcessor) tile,
+					this.closingRadius, this.openingRadius, 1, this.fastOctagon);
+		}
+		else
+		{
+			Strel closingStrel = OctagonStrel.fromRadius(this.closingRadius);
+			closingStrel.showProgress(false);
+			tile = Morphology.closing(tile, closingStrel);
+			Strel openingStrel = OctagonStrel.fromRadius(this.openingRadius);
+			openingStrel.showProgress(false);
+			tile = Morphology.opening(tile, openingStrel);
+		}
+		if (smoothTiles())
+		{
+			new GaussianBlur().blurGaussian(tile, this.sigma, this.sigma, GAUSSIAN_ACCURACY);
+		}
+
+		// extract the core of the filtered tile
+		tile.setRoi(core.x - extended.x, core.y - extended.y, core.width, core.height);
+		ImageProcessor tileCore = tile.crop();
+		if (borrowed)
+		{
+			BufferPool.getInstance().releasePixels(tile.getPixels());
+		}
+
+		synchronized (result)
+		{
+			result.insert(tileCore, core.x, core.y);
+		}
+	}
+
+	/**
+	 * Filters the tile corresponding to the specified core, and copies the
+	 * core of each filtered channel into the planes of the result.
+	 */
+	private void processPlanarTile(ColorProcessor image, PlanarRGBImage result, Rectangle core, int halo)
+	{
+		// compute the extended tile, clipped to image bounds
+		Rectangle bounds = new Rectangle(0, 0, image.getWidth(), image.getHeight());
+		Rectangle extended = new Rectangle(core.x - halo, core.y - halo,
+				core.width + 2 * halo, core.height + 2 * halo).intersection(bounds);
+
+		// the roi is a state of the input image, so cropping is serialized
+		ColorProcessor tile;
+		synchronized (image)
+		{
+			image.setRoi(extended);
+			tile = (ColorProcessor) image.crop();
+			image.resetRoi();
+		}
+
+		PlanarRGBImage filtered = RGBMorphoFilter.closingOpeningPlanar(tile,
+				this.closingRadius, this.openingRadius, 1, this.fastOctagon);
+		for (int c = 0; c < 3; c++)
+		{
+			if (smoothTiles())
+			{
+				new GaussianBlur().blurGaussian(filtered.getChannelProcessor(c),
+						this.sigma, this.sigma, GAUSSIAN_ACCURACY);
+			}
+
+			// copy the rows of the core, tiles of the result do not overlap
+			byte[] source = filtered.getPlane(c);
+			byte[] target = result.getPlane(c);
+			for (int y = 0; y < core.height; y++)
+			{
+				int sourceOffset = (core.y - extended.y + y) * extended.width + core.x - extended.x;
+				int targetOffset = (core.y + y) * result.getWidth() + core.x;
+				System.arraycopy(source, sourceOffset, target, targetOffset, core.width);
+			}
+		}
+		filtered.release();
+	}
+
+	/**
+	 * Computes a low-resolution mask of the foreground, containing one pixel
+	 * for each block of the image. A block belongs to the foreground if it
+	 * contains a pixel that is not saturated white.
+	 */
+	static final ByteProcessor computeForegroundMask(ColorProcessor image)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] pixels = (int[]) image.getPixels();
+
+		int maskWidth = (width + MASK_BLOCK_SIZE - 1) / MASK_BLOCK_SIZE;
+		int maskHeight = (height + MASK_BLOCK_SIZE - 1) / MASK_BLOCK_SIZE;
+		ByteProcessor mask = new ByteProcessor(maskWidth, maskHeight);
+
+		for (int y = 0; y < height; y++)
+		{
+			int offset = y * width;
+			int maskOffset = (y / MASK_BLOCK_SIZE) * maskWidth;
+			for (int x = 0; x < width; x++)
+			{
+				if ((pixels[offset + x] & 0xFFFFFF) != BACKGROUND_COLOR)
+				{
+					mask.set(maskOffset + x / MASK_BLOCK_SIZE, 255);
+				}
+			}
+		}
+
+		return mask;
+	}
+
+	/**
+	 * Checks if the tile core, extended by the specified margin, contains a
+	 * block of the foreground mask.
+	 */
+	private static final boolean touchesForeground(ByteProcessor foreground, Rectangle core, int margin)
+	{
+		int maskWidth = foreground.getWidth();
+		int maskHeight = foreground.getHeight();
+		int bx0 = Math.max((core.x - margin) / MASK_BLOCK_SIZE, 0);
+		int by0 = Math.max((core.y - margin) / MASK_BLOCK_SIZE, 0);
+		int bx1 = Math.min((core.x + core.width - 1 + margin) / MASK_BLOCK_SIZE, maskWidth - 1);
+		int by1 = Math.min((core.y + core.height - 1 + margin) / MASK_BLOCK_SIZE, maskHeight - 1);
+		for (int by = by0; by <= by1; by++)
+		{
+			for (int bx = bx0; bx <= bx1; bx++)
+			{
+				if (foreground.get(bx, by) != 0)
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Fills the pixels of the result within the tile core with the background
+	 * color. Tiles do not overlap, so no synchronization is necessary.
+	 */
+	private static final void fillTile(ColorProcessor result, Rectangle core, int color)
+	{
+		int width = result.getWidth();
+		int[] pixels = (int[]) result.getPixels();
+		for (int y = core.y; y < core.y + core.height; y++)
+		{
+			int offset = y * width;
+			for (int x = core.x; x < core.x + core.width; x++)
+			{
+				pixels[offset + x] = color;
+			}
+		}
+	}
+
+	/**
+	 * Fills the planes of the result within the tile core with the channels
+	 * of the background color.
+	 */
+	private static final void fillTile(PlanarRGBImage result, Rectangle core, int color)
+	{
+		int width = result.getWidth();
+		for (int c = 0; c < 3; c++)
+		{
+			byte value = (byte) (color >> (16 - 8 * c));
+			byte[] plane = result.getPlane(c);
+			for (int y = core.y; y < core.y + core.height; y++)
+			{
+				Arrays.fill(plane, y * width + core.x, y * width + core.x + core.width, value);
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the gaussian smoothing can be applied on each tile
+	 * without changing the result.
+	 */
+	private boolean smoothTiles()
+	{
+		return this.sigma <= MAX_TILED_SIGMA;
+	}
+
+	/**
+	 * Computes the radius of the kernel used by the GaussianBlur class of
+	 * ImageJ for the given sigma, using the same accuracy as the filtering.
+	 */
+	static final int gaussianKernelRadius(double sigma)
+	{
+		return (int) Math.ceil(sigma * Math.sqrt(-2 * Math.log(GAUSSIAN_ACCURACY))) + 1;
+	}
+}
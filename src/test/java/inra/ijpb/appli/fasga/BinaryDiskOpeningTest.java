@@ -0,0 +1,93 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import static org.junit.Assert.assertEquals;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.strel.DiskStrel;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author David Legland
+ *
+ */
+public class BinaryDiskOpeningTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.BinaryDiskOpening#opening(ij.process.ImageProcessor, int, int)}.
+	 */
+	@Test
+	public void testOpening_RandomDisks()
+	{
+		ByteProcessor image = createRandomDisks(150, 100);
+
+		for (int radius = 0; radius <= 8; radius++)
+		{
+			ImageProcessor expected = Morphology.opening(image, DiskStrel.fromRadius(radius));
+			for (int nThreads : new int[] { 1, 4 })
+			{
+				ImageProcessor result = BinaryDiskOpening.opening(image, radius, nThreads);
+				for (int i = 0; i < image.getPixelCount(); i++)
+				{
+					assertEquals("radius " + radius + ", index " + i, expected.get(i), result.get(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.BinaryDiskOpening#opening(ij.process.ImageProcessor, int)}.
+	 */
+	@Test
+	public void testOpening_ThinLine()
+	{
+		// a vertical line thinner than the disk is removed, a thick bar is kept
+		ByteProcessor image = new ByteProcessor(40, 30);
+		for (int y = 0; y < 30; y++)
+		{
+			image.set(5, y, 255);
+			for (int x = 20; x < 31; x++)
+			{
+				image.set(x, y, 255);
+			}
+		}
+
+		ImageProcessor result = BinaryDiskOpening.opening(image, 3);
+
+		for (int y = 0; y < 30; y++)
+		{
+			assertEquals(0, result.get(5, y));
+			assertEquals(255, result.get(25, y));
+		}
+	}
+
+	private static final ByteProcessor createRandomDisks(int width, int height)
+	{
+		ByteProcessor image = new ByteProcessor(width, height);
+		Random random = new Random(42);
+		for (int k = 0; k < 40; k++)
+		{
+			int xc = random.nextInt(width);
+			int yc = random.nextInt(height);
+			int r = 1 + random.nextInt(15);
+			for (int y = Math.max(yc - r, 0); y < Math.min(yc + r + 1, height); y++)
+			{
+				for (int x = Math.max(xc - r, 0); x < Math.min(xc + r + 1, width); x++)
+				{
+					if ((x - xc) * (x - xc) + (y - yc) * (y - yc) <= r * r)
+					{
+						image.set(x, y, 255);
+					}
+				}
+			}
+		}
+		return image;
+	}
+}
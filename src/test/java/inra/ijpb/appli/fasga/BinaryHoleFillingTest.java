@@ -0,0 +1,149 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Reconstruction;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author David Legland
+ *
+ */
+public class BinaryHoleFillingTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.BinaryHoleFilling#fillHoles(ij.process.ImageProcessor)}.
+	 */
+	@Test
+	public void testFillHoles_SameAsReconstruction()
+	{
+		Random random = new Random(42);
+		for (int k = 0; k < 20; k++)
+		{
+			// random masks with various sizes and densities of foreground
+			int width = 1 + random.nextInt(120);
+			int height = 1 + random.nextInt(80);
+			int density = 10 + random.nextInt(60);
+			ByteProcessor image = new ByteProcessor(width, height);
+			for (int i = 0; i < width * height; i++)
+			{
+				if (random.nextInt(100) < density)
+				{
+					image.set(i, 255);
+				}
+			}
+
+			ImageProcessor result = BinaryHoleFilling.fillHoles(image);
+
+			ImageProcessor expected = Reconstruction.fillHoles(image);
+			for (int i = 0; i < width * height; i++)
+			{
+				assertEquals("mask " + k + ", index " + i, expected.get(i), result.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.BinaryHoleFilling#fillHoles(inra.ijpb.appli.fasga.BitMask)}.
+	 */
+	@Test
+	public void testFillHoles_BitMaskSameAsImage()
+	{
+		Random random = new Random(42);
+		for (int k = 0; k < 20; k++)
+		{
+			// widths around multiples of 64 check the last word of each row
+			int width = 1 + random.nextInt(140);
+			int height = 1 + random.nextInt(80);
+			int density = 10 + random.nextInt(60);
+			ByteProcessor image = new ByteProcessor(width, height);
+			for (int i = 0; i < width * height; i++)
+			{
+				if (random.nextInt(100) < density)
+				{
+					image.set(i, 255);
+				}
+			}
+
+			BitMask result = BinaryHoleFilling.fillHoles(BitMask.fromImage(image));
+
+			ImageProcessor expected = BinaryHoleFilling.fillHoles(image);
+			assertArrayEquals("mask " + k, (byte[]) expected.getPixels(),
+					(byte[]) result.toByteProcessor().getPixels());
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.BinaryHoleFilling#fillHoles(ij.process.ImageProcessor)}.
+	 */
+	@Test
+	public void testFillHoles_RingsAndNoise()
+	{
+		int width = 300;
+		int height = 200;
+
+		// concentric rings with random foreground pixels
+		ByteProcessor image = new ByteProcessor(width, height);
+		Random random = new Random(42);
+		double xc = width / 2.0;
+		double yc = height / 2.0;
+		for (int y = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++)
+			{
+				double r = Math.hypot(x - xc, y - yc);
+				boolean ring = r < 90 && ((int) (r / 8)) % 3 == 0;
+				if (ring || random.nextInt(100) < 30)
+				{
+					image.set(x, y, 255);
+				}
+			}
+		}
+
+		ImageProcessor result = BinaryHoleFilling.fillHoles(image);
+
+		ImageProcessor expected = Reconstruction.fillHoles(image);
+		for (int i = 0; i < width * height; i++)
+		{
+			assertEquals("index " + i, expected.get(i), result.get(i));
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.BinaryHoleFilling#fillHoles(ij.process.ImageProcessor)}.
+	 */
+	@Test
+	public void testFillHoles_DiagonalGap()
+	{
+		// a square whose boundary is 8-connected through a diagonal gap:
+		// the background is 4-connected, so the inside is a hole
+		ByteProcessor image = new ByteProcessor(10, 10);
+		for (int i = 2; i <= 7; i++)
+		{
+			image.set(i, 2, 255);
+			image.set(i, 7, 255);
+			image.set(2, i, 255);
+			image.set(7, i, 255);
+		}
+		image.set(7, 7, 0);
+		image.set(8, 8, 255);
+		image.set(7, 6, 0);
+		image.set(6, 7, 0);
+		image.set(6, 6, 255);
+
+		ImageProcessor result = BinaryHoleFilling.fillHoles(image);
+
+		assertEquals(255, result.get(4, 4));
+		assertEquals(0, result.get(0, 0));
+		assertEquals(0, result.get(7, 7));
+	}
+}
@@ -0,0 +1,171 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import ij.process.ByteProcessor;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author David Legland
+ *
+ */
+public class BitMaskTest
+{
+	// a width that is not a multiple of the number of bits of the words
+	static final int WIDTH = 131;
+	static final int HEIGHT = 50;
+
+	ByteProcessor image1;
+	ByteProcessor image2;
+	BitMask mask1;
+	BitMask mask2;
+
+	@Before
+	public void setUp()
+	{
+		this.image1 = new ByteProcessor(WIDTH, HEIGHT);
+		this.image2 = new ByteProcessor(WIDTH, HEIGHT);
+		Random random = new Random(42);
+		for (int i = 0; i < WIDTH * HEIGHT; i++)
+		{
+			this.image1.set(i, random.nextBoolean() ? 255 : 0);
+			this.image2.set(i, random.nextBoolean() ? 255 : 0);
+		}
+		this.mask1 = BitMask.fromImage(this.image1);
+		this.mask2 = BitMask.fromImage(this.image2);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.BitMask#toByteProcessor()}.
+	 */
+	@Test
+	public void testToByteProcessor()
+	{
+		assertArrayEquals((byte[]) this.image1.getPixels(), (byte[]) this.mask1.toByteProcessor().getPixels());
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.BitMask#and(inra.ijpb.appli.fasga.BitMask)}.
+	 */
+	@Test
+	public void testAnd()
+	{
+		checkMask(this.mask1.duplicate().and(this.mask2), 1);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.BitMask#or(inra.ijpb.appli.fasga.BitMask)}.
+	 */
+	@Test
+	public void testOr()
+	{
+		checkMask(this.mask1.duplicate().or(this.mask2), 2);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.BitMask#xor(inra.ijpb.appli.fasga.BitMask)}.
+	 */
+	@Test
+	public void testXor()
+	{
+		checkMask(this.mask1.duplicate().xor(this.mask2), 3);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.BitMask#andNot(inra.ijpb.appli.fasga.BitMask)}.
+	 */
+	@Test
+	public void testAndNot()
+	{
+		checkMask(this.mask1.duplicate().andNot(this.mask2), 4);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.BitMask#not()}.
+	 */
+	@Test
+	public void testNot()
+	{
+		BitMask mask = this.mask1.duplicate().not();
+
+		// the bits after the end of the rows must not be counted
+		assertEquals((long) WIDTH * HEIGHT - this.mask1.area(), mask.area());
+		checkMask(mask, 5);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.BitMask#duplicate()}.
+	 */
+	@Test
+	public void testDuplicate()
+	{
+		BitMask copy = this.mask1.duplicate();
+		copy.set(3, 4, !copy.get(3, 4));
+
+		assertEquals(this.image1.get(3, 4) != 0, this.mask1.get(3, 4));
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.BitMask#threshold(ij.process.ImageProcessor, double, double)}.
+	 */
+	@Test
+	public void testThreshold()
+	{
+		ByteProcessor image = new ByteProcessor(WIDTH, HEIGHT);
+		for (int i = 0; i < WIDTH * HEIGHT; i++)
+		{
+			image.set(i, i % 256);
+		}
+
+		BitMask mask = BitMask.threshold(image, 50, 100);
+
+		for (int y = 0; y < HEIGHT; y++)
+		{
+			for (int x = 0; x < WIDTH; x++)
+			{
+				int value = image.get(x, y);
+				assertEquals(value >= 50 && value <= 100, mask.get(x, y));
+			}
+		}
+	}
+
+	/**
+	 * Checks each pixel of the result of a logical operation on the two
+	 * masks, and its area.
+	 */
+	private void checkMask(BitMask mask, int operation)
+	{
+		long area = 0;
+		for (int y = 0; y < HEIGHT; y++)
+		{
+			for (int x = 0; x < WIDTH; x++)
+			{
+				boolean b1 = this.image1.get(x, y) != 0;
+				boolean b2 = this.image2.get(x, y) != 0;
+				boolean expected;
+				switch (operation)
+				{
+				case 1: expected = b1 && b2; break;
+				case 2: expected = b1 || b2; break;
+				case 3: expected = b1 != b2; break;
+				case 4: expected = b1 && !b2; break;
+				default: expected = !b1; break;
+				}
+				assertEquals("pixel (" + x + "," + y + ")", expected, mask.get(x, y));
+				if (expected)
+				{
+					area++;
+				}
+			}
+		}
+		assertEquals(area, mask.area());
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author David Legland
+ *
+ */
+public class BufferPoolTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.BufferPool#borrowInts(int)}.
+	 */
+	@Test
+	public void testBorrowInts_ReleasedBufferIsReused()
+	{
+		BufferPool pool = new BufferPool(1000);
+		int[] buffer = pool.borrowInts(100);
+		pool.release(buffer);
+		assertEquals(400, pool.getRetainedBytes());
+
+		assertSame(buffer, pool.borrowInts(100));
+		assertEquals(0, pool.getRetainedBytes());
+		assertEquals(1, pool.getHits());
+		assertEquals(1, pool.getMisses());
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.BufferPool#release(byte[])}.
+	 */
+	@Test
+	public void testRelease_BoundIsRespected()
+	{
+		BufferPool pool = new BufferPool(150);
+		byte[] buffer1 = pool.borrowBytes(100);
+		byte[] buffer2 = pool.borrowBytes(100);
+		pool.release(buffer1);
+		pool.release(buffer2);
+
+		// the second buffer is left to the garbage collector
+		assertEquals(100, pool.getRetainedBytes());
+		assertSame(buffer1, pool.borrowBytes(100));
+		assertNotSame(buffer2, pool.borrowBytes(100));
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.BufferPool#release(float[])}.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testRelease_TwiceThrowsException()
+	{
+		BufferPool pool = new BufferPool(1000);
+		float[] buffer = pool.borrowFloats(10);
+		pool.release(buffer);
+		pool.release(buffer);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.BufferPool#setMaxRetainedBytes(long)}.
+	 */
+	@Test
+	public void testSetMaxRetainedBytes_TrimsRetainedBuffers()
+	{
+		BufferPool pool = new BufferPool(10000);
+		pool.release(new byte[1000]);
+		pool.release(new int[500]);
+		pool.release(new float[250]);
+		assertEquals(4000, pool.getRetainedBytes());
+
+		pool.setMaxRetainedBytes(2500);
+		assertTrue(pool.getRetainedBytes() <= 2500);
+
+		pool.setMaxRetainedBytes(0);
+		assertEquals(0, pool.getRetainedBytes());
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.BufferPool#fitToImage(int, int)}.
+	 */
+	@Test
+	public void testFitToImage()
+	{
+		BufferPool pool = new BufferPool(0);
+		pool.fitToImage(200, 100);
+		assertEquals(BufferPool.MAX_RETAINED_BYTES_PER_PIXEL * 20000L, pool.getMaxRetainedBytes());
+
+		// the bound never exceeds a quarter of the memory
+		pool.fitToImage(100000, 100000);
+		assertTrue(pool.getMaxRetainedBytes() <= Runtime.getRuntime().maxMemory() / 4);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.BufferPool#clear()}.
+	 */
+	@Test
+	public void testClear()
+	{
+		BufferPool pool = new BufferPool(1000);
+		pool.release(pool.borrowBytes(100));
+		pool.clear();
+		assertEquals(0, pool.getRetainedBytes());
+		assertEquals(0, pool.getHits());
+		assertEquals(0, pool.getMisses());
+	}
+}
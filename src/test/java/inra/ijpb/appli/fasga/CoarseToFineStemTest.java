@@ -0,0 +1,124 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import java.awt.Rectangle;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author David Legland
+ *
+ */
+public class CoarseToFineStemTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.CoarseToFineStem#segment(ij.process.ImageProcessor, int)}.
+	 */
+	@Test
+	public void testSegment_SameAsFullResolution()
+	{
+		int width = 1600;
+		int height = 1200;
+		int radius = 4;
+		ByteProcessor image = createStemWithBubbles(width, height);
+
+		ImageProcessor ref = BinaryHoleFilling.fillHoles(image);
+		ref = BinaryDiskOpening.opening(ref, radius);
+		ref = ConnectedComponents.keepLargestRegion(ref);
+		ImageProcessor res = CoarseToFineStem.segment(image, radius);
+
+		int nDiffs = 0;
+		for (int i = 0; i < width * height; i++)
+		{
+			if ((ref.get(i) != 0) != (res.get(i) != 0))
+			{
+				nDiffs++;
+			}
+		}
+		assertEquals(0, nDiffs);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.CoarseToFineStem#segment(ij.process.ImageProcessor, int, java.awt.Rectangle)}.
+	 */
+	@Test
+	public void testSegment_BoundsContainStem()
+	{
+		ByteProcessor image = createStemWithBubbles(1600, 1200);
+		Rectangle bounds = new Rectangle();
+		ImageProcessor res = CoarseToFineStem.segment(image, 4, bounds);
+
+		Rectangle stemBounds = StemCrop.findBounds(res, new Rectangle(0, 0, 1600, 1200));
+		assertFalse(stemBounds.isEmpty());
+		assertTrue(bounds.contains(stemBounds));
+
+		// the bounds are reported explicitly, not as the ROI of the result
+		assertNull(res.getMask());
+		assertEquals(new Rectangle(0, 0, 1600, 1200), res.getRoi());
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.CoarseToFineStem#segment(ij.process.ImageProcessor, int)}.
+	 */
+	@Test
+	public void testSegment_EmptyImage()
+	{
+		assertNull(CoarseToFineStem.segment(new ByteProcessor(200, 100), 4));
+	}
+
+	/**
+	 * Creates a noisy disk with rings of lumens, surrounded by the boundaries
+	 * of bubbles.
+	 */
+	private static final ByteProcessor createStemWithBubbles(int width, int height)
+	{
+		ByteProcessor image = new ByteProcessor(width, height);
+		Random random = new Random(42);
+		double xc = width / 2.0;
+		double yc = height / 2.0;
+		double stemRadius = Math.min(width, height) * .4;
+		for (int y = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++)
+			{
+				double r = Math.hypot(x - xc, y - yc);
+				double theta = Math.atan2(y - yc, x - xc);
+				boolean dark = r < stemRadius + 20 * Math.sin(theta * 7);
+				dark = dark && random.nextInt(100) < 95;
+				dark = dark && (((int) (r / 25)) % 7 != 3 || ((int) (theta * 20)) % 2 == 0);
+				if (dark)
+				{
+					image.set(x, y, 255);
+				}
+			}
+		}
+		for (int k = 0; k < 20; k++)
+		{
+			int cx = random.nextInt(width);
+			int cy = random.nextInt(height);
+			int r = 30 + random.nextInt(150);
+			for (int y = Math.max(cy - r - 2, 0); y < Math.min(cy + r + 3, height); y++)
+			{
+				for (int x = Math.max(cx - r - 2, 0); x < Math.min(cx + r + 3, width); x++)
+				{
+					if (Math.abs(Math.hypot(x - cx, y - cy) - r) < 2)
+					{
+						image.set(x, y, 255);
+					}
+				}
+			}
+		}
+		return image;
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import ij.process.ColorProcessor;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author David Legland
+ *
+ */
+public class ColorClassTableTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.ColorClassTable#classify(ij.process.ColorProcessor, inra.ijpb.appli.fasga.BitMask, inra.ijpb.appli.fasga.BitMask)}.
+	 */
+	@Test
+	public void testClassify_SameAsHueAndBrightnessThresholds()
+	{
+		int width = 400;
+		int height = 300;
+		int darkThreshold = 130;
+		int redThreshold = 170;
+		ColorProcessor image = new ColorProcessor(width, height);
+		int[] pixels = (int[]) image.getPixels();
+		Random random = new Random(42);
+		for (int i = 0; i < pixels.length; i++)
+		{
+			pixels[i] = random.nextInt(0x1000000);
+		}
+
+		ColorClassTable table = ColorClassTable.getInstance(darkThreshold, redThreshold);
+		BitMask dark = new BitMask(width, height);
+		BitMask red = new BitMask(width, height);
+		table.classify(image, dark, red);
+
+		BitMask refDark = BitMask.threshold(ColorUtils.computeBrightness(image), 0, darkThreshold / 255.0);
+		BitMask refRed = BitMask.threshold(ColorUtils.computeHue(image), redThreshold / 255.0, 1);
+		assertEquals(0, dark.xor(refDark).area());
+		assertEquals(0, red.xor(refRed).area());
+
+		// the planar image gives the same classes
+		BitMask planarDark = new BitMask(width, height);
+		BitMask planarRed = new BitMask(width, height);
+		table.classify(PlanarRGBImage.fromColorProcessor(image), planarDark, planarRed);
+		assertEquals(0, planarDark.xor(refDark).area());
+		assertEquals(0, planarRed.xor(refRed).area());
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.ColorClassTable#getInstance(int, int)}.
+	 */
+	@Test
+	public void testGetInstance_ReusesLastTable()
+	{
+		ColorClassTable table = ColorClassTable.getInstance(100, 200);
+		assertSame(table, ColorClassTable.getInstance(100, 200));
+
+		int classes = table.getClasses(0x000000);
+		assertEquals(ColorClassTable.DARK, classes & ColorClassTable.DARK);
+		assertEquals(0, table.getClasses(0xFFFFFF) & ColorClassTable.DARK);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.ColorClassTable#classify(ij.process.ColorProcessor, inra.ijpb.appli.fasga.BitMask, inra.ijpb.appli.fasga.BitMask)}.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testClassify_WrongMaskSize()
+	{
+		ColorClassTable table = ColorClassTable.getInstance(130, 170);
+		table.classify(new ColorProcessor(20, 10), new BitMask(20, 10), new BitMask(10, 10));
+	}
+}
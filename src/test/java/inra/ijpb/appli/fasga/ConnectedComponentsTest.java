@@ -0,0 +1,212 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import inra.ijpb.binary.BinaryImages;
+
+import java.awt.Rectangle;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author David Legland
+ *
+ */
+public class ConnectedComponentsTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.ConnectedComponents#label(ij.process.ImageProcessor, int, int)}.
+	 */
+	@Test
+	public void testLabel_ParallelSameAsSequential()
+	{
+		int width = 400;
+		int height = 300;
+		ByteProcessor image = new ByteProcessor(width, height);
+		Random random = new Random(42);
+		for (int i = 0; i < width * height; i++)
+		{
+			image.set(i, random.nextInt(100) < 55 ? 255 : 0);
+		}
+
+		for (int connectivity : new int[] { 4, 8 })
+		{
+			ConnectedComponents ref = ConnectedComponents.label(image, connectivity, 1);
+			ConnectedComponents res = ConnectedComponents.label(image, connectivity, 7);
+
+			assertEquals(ref.getCount(), res.getCount());
+			assertArrayEquals(ref.getLabels(), res.getLabels());
+			ref.release();
+			res.release();
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.ConnectedComponents#label(ij.process.ImageProcessor, int, int)}.
+	 */
+	@Test
+	public void testLabel_SameAsMorphoLibJ()
+	{
+		Random random = new Random(42);
+		for (int k = 0; k < 10; k++)
+		{
+			ByteProcessor image = createRandomMask(random);
+			for (int connectivity : new int[] { 4, 8 })
+			{
+				ImageProcessor expected = BinaryImages.componentsLabeling(image, connectivity, 32);
+				ConnectedComponents res = ConnectedComponents.label(image, connectivity, 4);
+
+				int[] labels = res.getLabels();
+				for (int i = 0; i < labels.length; i++)
+				{
+					assertEquals("mask " + k + ", index " + i, (int) expected.getf(i), labels[i]);
+				}
+				res.release();
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.ConnectedComponents#label(ij.process.ImageProcessor, int, int)}.
+	 */
+	@Test
+	public void testLabel_Connectivity()
+	{
+		// two squares touching by a corner, and a single pixel
+		ByteProcessor image = new ByteProcessor(10, 10);
+		fillRect(image, 1, 1, 3, 3);
+		fillRect(image, 4, 4, 4, 2);
+		image.set(9, 0, 255);
+
+		ConnectedComponents components4 = ConnectedComponents.label(image, 4, 2);
+		assertEquals(3, components4.getCount());
+		ConnectedComponents components8 = ConnectedComponents.label(image, 8, 2);
+		assertEquals(2, components8.getCount());
+
+		int largest = components8.getLargestLabel();
+		assertEquals(17, components8.getArea(largest));
+		assertEquals(new Rectangle(1, 1, 7, 5), components8.getBounds(largest));
+		components4.release();
+		components8.release();
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.ConnectedComponents#areaOpening(ij.process.ImageProcessor, int)}.
+	 */
+	@Test
+	public void testAreaOpening()
+	{
+		ByteProcessor image = new ByteProcessor(20, 20);
+		fillRect(image, 1, 1, 2, 2);
+		fillRect(image, 10, 10, 5, 5);
+
+		ImageProcessor result = ConnectedComponents.areaOpening(image, 5);
+
+		assertEquals(0, result.get(1, 1));
+		assertEquals(255, result.get(12, 12));
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.ConnectedComponents#keepLargestRegion(ij.process.ImageProcessor)}.
+	 */
+	@Test
+	public void testKeepLargestRegion()
+	{
+		ByteProcessor image = new ByteProcessor(20, 20);
+		fillRect(image, 1, 1, 2, 2);
+		fillRect(image, 10, 10, 5, 5);
+
+		ImageProcessor result = ConnectedComponents.keepLargestRegion(image);
+
+		assertEquals(0, result.get(1, 1));
+		assertEquals(255, result.get(12, 12));
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.ConnectedComponents#keepLargestRegion(ij.process.ImageProcessor)}.
+	 */
+	@Test
+	public void testRegionFilters_SameAsMorphoLibJ()
+	{
+		Random random = new Random(42);
+		for (int k = 0; k < 10; k++)
+		{
+			ByteProcessor image = createRandomMask(random);
+			assertSameMask(BinaryImages.keepLargestRegion(image), ConnectedComponents.keepLargestRegion(image));
+			assertSameMask(BinaryImages.removeLargestRegion(image), ConnectedComponents.removeLargestRegion(image));
+			for (int minArea : new int[] { 1, 5, 40 })
+			{
+				assertSameMask(BinaryImages.areaOpening(image, minArea), ConnectedComponents.areaOpening(image, minArea));
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.ConnectedComponents#areaOpening(inra.ijpb.appli.fasga.BitMask, int)}.
+	 */
+	@Test
+	public void testAreaOpening_BitMaskSameAsImage()
+	{
+		Random random = new Random(42);
+		for (int k = 0; k < 10; k++)
+		{
+			ByteProcessor image = createRandomMask(random);
+			BitMask mask = BitMask.fromImage(image);
+
+			ConnectedComponents ref = ConnectedComponents.label(image);
+			ConnectedComponents res = ConnectedComponents.label(mask);
+			assertArrayEquals(ref.getLabels(), res.getLabels());
+			ref.release();
+			res.release();
+
+			for (int minArea : new int[] { 1, 5, 40 })
+			{
+				assertSameMask(ConnectedComponents.areaOpening(image, minArea),
+						ConnectedComponents.areaOpening(mask, minArea).toByteProcessor());
+			}
+		}
+	}
+
+	private static final void assertSameMask(ImageProcessor expected, ImageProcessor result)
+	{
+		for (int i = 0; i < expected.getPixelCount(); i++)
+		{
+			assertEquals("index " + i, expected.get(i), result.get(i));
+		}
+	}
+
+	/**
+	 * Creates a random binary image, with random size and density of
+	 * foreground pixels.
+	 */
+	private static final ByteProcessor createRandomMask(Random random)
+	{
+		int width = 1 + random.nextInt(200);
+		int height = 1 + random.nextInt(150);
+		int density = 20 + random.nextInt(60);
+		ByteProcessor image = new ByteProcessor(width, height);
+		for (int i = 0; i < width * height; i++)
+		{
+			image.set(i, random.nextInt(100) < density ? 255 : 0);
+		}
+		return image;
+	}
+
+	private static final void fillRect(ImageProcessor image, int x0, int y0, int width, int height)
+	{
+		for (int y = y0; y < y0 + height; y++)
+		{
+			for (int x = x0; x < x0 + width; x++)
+			{
+				image.set(x, y, 255);
+			}
+		}
+	}
+}
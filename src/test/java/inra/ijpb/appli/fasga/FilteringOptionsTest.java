@@ -0,0 +1,45 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+
+import org.junit.Test;
+
+/**
+ * @author David Legland
+ *
+ */
+public class FilteringOptionsTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.FilteringOptions#check(ij.process.ImageProcessor)}.
+	 */
+	@Test
+	public void testCheck()
+	{
+		ColorProcessor image = new ColorProcessor(20, 10);
+
+		FilteringOptions options = new FilteringOptions(2, 3, 2.0);
+		assertNull(options.check(image));
+
+		// streaming can not be combined with tiling
+		options.setStreaming(true);
+		assertNull(options.check(image));
+		options.setTileSize(100);
+		assertNotNull(options.check(image));
+
+		// background skipping requires tiling and a color image
+		options = new FilteringOptions(2, 3, 2.0);
+		options.setSkipBackground(true);
+		assertNotNull(options.check(image));
+		options.setTileSize(100);
+		assertNull(options.check(image));
+		assertNotNull(options.check(new ByteProcessor(20, 10)));
+	}
+}
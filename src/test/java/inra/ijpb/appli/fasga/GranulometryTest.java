@@ -0,0 +1,198 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author David Legland
+ *
+ */
+public class GranulometryTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.Granulometry#removalRadius(int)}.
+	 */
+	@Test
+	public void testRemovalRadius()
+	{
+		for (int d = 1; d < 100000; d++)
+		{
+			long r = Granulometry.removalRadius(d);
+			assertTrue(r * r + 1 >= d);
+			assertTrue(r == 0 || (r - 1) * (r - 1) + 1 < d);
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.Granulometry#compute(ij.process.ImageProcessor)}.
+	 */
+	@Test
+	public void testCompute_MaximaKeptBySmallerOpenings()
+	{
+		ByteProcessor image = createStemWithRings(400, 300);
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] counts = Granulometry.compute(image);
+
+		// the local maxima of the distance map, with their removal radius
+		byte[] values = new byte[width * height];
+		for (int i = 0; i < values.length; i++)
+		{
+			values[i] = image.get(i) != 0 ? (byte) 255 : 0;
+		}
+		int[] distances = new int[width * height];
+		BinaryDiskOpening.squaredDistances(values, (byte) 0, width, height, distances, 1);
+
+		int total = 0;
+		for (int count : counts)
+		{
+			total += count;
+		}
+		assertTrue(total > 0);
+
+		// the local maxima must be kept by the openings with smaller radius
+		for (int radius = 0; radius < counts.length; radius++)
+		{
+			ImageProcessor opened = BinaryDiskOpening.opening(image, radius, 1);
+			for (int y = 0; y < height; y++)
+			{
+				for (int x = 0; x < width; x++)
+				{
+					int d = distances[y * width + x];
+					if (d == 0 || !isLocalMaximum(distances, width, height, x, y, d))
+					{
+						continue;
+					}
+					if (Granulometry.removalRadius(d) > radius)
+					{
+						assertEquals(255, opened.get(x, y));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.Granulometry#suggestDiameter(int[])}.
+	 */
+	@Test
+	public void testSuggestDiameter_RingsRemoved()
+	{
+		ByteProcessor image = createStemWithRings(400, 300);
+		int diameter = Granulometry.suggestDiameter(Granulometry.compute(image));
+
+		// the opening with the suggested diameter removes most of the rings
+		// outside of the stem, except at their crossings
+		ImageProcessor opened = BinaryDiskOpening.opening(image, (diameter - 1) / 2, 1);
+		int ringPixels = 0;
+		int remaining = 0;
+		for (int y = 0; y < image.getHeight(); y++)
+		{
+			for (int x = 0; x < image.getWidth(); x++)
+			{
+				if (Math.hypot(x - 200, y - 150) > 105 + diameter && image.get(x, y) != 0)
+				{
+					ringPixels++;
+					if (opened.get(x, y) != 0)
+					{
+						remaining++;
+					}
+				}
+			}
+		}
+		assertTrue(ringPixels > 0);
+		assertTrue("remaining " + remaining + " over " + ringPixels, remaining < ringPixels / 10);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.Granulometry#suggestDiameter(int[])}.
+	 */
+	@Test
+	public void testSuggestDiameter_Histogram()
+	{
+		// mode at radius 2, falls below 10 percent of the mode at radius 5
+		int[] counts = new int[] { 10, 50, 100, 60, 20, 5, 30, 40 };
+		assertEquals(11, Granulometry.suggestDiameter(counts));
+	}
+
+	private static final boolean isLocalMaximum(int[] distances, int width, int height, int x, int y, int d)
+	{
+		for (int y2 = Math.max(y - 1, 0); y2 <= Math.min(y + 1, height - 1); y2++)
+		{
+			for (int x2 = Math.max(x - 1, 0); x2 <= Math.min(x + 1, width - 1); x2++)
+			{
+				if (distances[y2 * width + x2] > d)
+				{
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Creates a disk with lumens, surrounded by rings with a thickness of 5
+	 * pixels, as the boundaries of bubbles.
+	 */
+	private static final ByteProcessor createStemWithRings(int width, int height)
+	{
+		ByteProcessor image = new ByteProcessor(width, height);
+		Random random = new Random(42);
+		double xc = width / 2.0;
+		double yc = height / 2.0;
+		double stemRadius = Math.min(width, height) * .35;
+		for (int y = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++)
+			{
+				if (Math.hypot(x - xc, y - yc) < stemRadius)
+				{
+					image.set(x, y, 255);
+				}
+			}
+		}
+		for (int k = 0; k < 60; k++)
+		{
+			int cx = (int) (xc + (random.nextDouble() - .5) * stemRadius * 1.4);
+			int cy = (int) (yc + (random.nextDouble() - .5) * stemRadius * 1.4);
+			int r = 2 + random.nextInt(5);
+			for (int y = cy - r; y <= cy + r; y++)
+			{
+				for (int x = cx - r; x <= cx + r; x++)
+				{
+					if ((x - cx) * (x - cx) + (y - cy) * (y - cy) <= r * r)
+					{
+						image.set(x, y, 0);
+					}
+				}
+			}
+		}
+		for (int k = 0; k < 12; k++)
+		{
+			int cx = random.nextInt(width);
+			int cy = random.nextInt(height);
+			int r = 20 + random.nextInt(40);
+			for (int y = Math.max(cy - r - 3, 0); y < Math.min(cy + r + 4, height); y++)
+			{
+				for (int x = Math.max(cx - r - 3, 0); x < Math.min(cx + r + 4, width); x++)
+				{
+					if (Math.abs(Math.hypot(x - cx, y - cy) - r) < 2.5)
+					{
+						image.set(x, y, 255);
+					}
+				}
+			}
+		}
+		return image;
+	}
+}
@@ -0,0 +1,107 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import static org.junit.Assert.assertEquals;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Reconstruction;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author David Legland
+ *
+ */
+public class HysteresisThresholdTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.HysteresisThreshold#reconstruct(ij.process.ImageProcessor, ij.process.ImageProcessor)}.
+	 */
+	@Test
+	public void testReconstruct_SmoothRandomField()
+	{
+		int width = 400;
+		int height = 300;
+
+		// a smooth random field, thresholded at two levels
+		float[] values = createSmoothRandomField(width, height, 16, new Random(42));
+		ByteProcessor seeds = new ByteProcessor(width, height);
+		ByteProcessor mask = new ByteProcessor(width, height);
+		for (int i = 0; i < values.length; i++)
+		{
+			seeds.set(i, values[i] >= .9f ? 255 : 0);
+			mask.set(i, values[i] >= .6f ? 255 : 0);
+		}
+
+		ImageProcessor result = HysteresisThreshold.reconstruct(seeds, mask);
+
+		ImageProcessor expected = Reconstruction.reconstructByDilation(seeds, mask);
+		for (int i = 0; i < values.length; i++)
+		{
+			assertEquals("index " + i, expected.get(i), result.get(i));
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.HysteresisThreshold#reconstruct(ij.process.ImageProcessor, ij.process.ImageProcessor)}.
+	 */
+	@Test
+	public void testReconstruct_DiagonalNeighbors()
+	{
+		// the regions of the mask touching by a corner are not connected
+		ByteProcessor seeds = new ByteProcessor(6, 6);
+		ByteProcessor mask = new ByteProcessor(6, 6);
+		for (int i = 0; i < 3; i++)
+		{
+			for (int j = 0; j < 3; j++)
+			{
+				mask.set(i, j, 255);
+				mask.set(i + 3, j + 3, 255);
+			}
+		}
+		seeds.set(1, 1, 255);
+
+		ImageProcessor result = HysteresisThreshold.reconstruct(seeds, mask);
+
+		assertEquals(255, result.get(0, 0));
+		assertEquals(255, result.get(2, 2));
+		assertEquals(0, result.get(3, 3));
+		assertEquals(0, result.get(5, 5));
+	}
+
+	/**
+	 * Creates a field of values between 0 and 1, by bilinear interpolation of
+	 * random values on a grid.
+	 */
+	static final float[] createSmoothRandomField(int width, int height, int blockSize, Random random)
+	{
+		int nx = width / blockSize + 2;
+		int ny = height / blockSize + 2;
+		float[] grid = new float[nx * ny];
+		for (int i = 0; i < grid.length; i++)
+		{
+			grid[i] = random.nextFloat();
+		}
+
+		float[] values = new float[width * height];
+		for (int y = 0; y < height; y++)
+		{
+			int gy = y / blockSize;
+			float fy = (y % blockSize) / (float) blockSize;
+			for (int x = 0; x < width; x++)
+			{
+				int gx = x / blockSize;
+				float fx = (x % blockSize) / (float) blockSize;
+				float v0 = grid[gy * nx + gx] * (1 - fx) + grid[gy * nx + gx + 1] * fx;
+				float v1 = grid[(gy + 1) * nx + gx] * (1 - fx) + grid[(gy + 1) * nx + gx + 1] * fx;
+				values[y * width + x] = v0 * (1 - fy) + v1 * fy;
+			}
+		}
+		return values;
+	}
+}
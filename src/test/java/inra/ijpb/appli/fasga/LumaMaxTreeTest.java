@@ -0,0 +1,98 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+import java.awt.Rectangle;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author David Legland
+ *
+ */
+public class LumaMaxTreeTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.LumaMaxTree#hysteresis(double, double, int, int)}.
+	 */
+	@Test
+	public void testHysteresis_SameAsReconstruction()
+	{
+		int width = 400;
+		int height = 300;
+		ColorProcessor image = createNoisyField(width, height);
+
+		LumaMaxTree tree = LumaMaxTree.build(image, new Rectangle(0, 0, width, height));
+
+		double[][] thresholds = { { .999, .99 }, { .99, .95 }, { .95, .8 }, { .8, .5 } };
+		for (double[] pair : thresholds)
+		{
+			LumaThresholdKernel masks = LumaThresholdKernel.compute(image, pair[0], pair[1]);
+			ImageProcessor ref = HysteresisThreshold.reconstruct(masks.getHolesHighMask(), masks.getHolesLowMask());
+			masks.release();
+
+			ImageProcessor res = tree.hysteresis(pair[0], pair[1], width, height);
+			assertArrayEquals("thresholds " + pair[0] + ", " + pair[1],
+					(byte[]) ref.getPixels(), (byte[]) res.getPixels());
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.LumaMaxTree#paint(ij.process.ImageProcessor, double, double, int)}.
+	 */
+	@Test
+	public void testPaint_WithinBounds()
+	{
+		int width = 400;
+		int height = 300;
+		ColorProcessor image = createNoisyField(width, height);
+		Rectangle bounds = new Rectangle(50, 40, 200, 150);
+
+		LumaMaxTree tree = LumaMaxTree.build(image, bounds);
+		assertEquals(bounds, tree.getBounds());
+
+		// the painted pixels are the ones of the hysteresis, within the bounds
+		ImageProcessor hysteresis = tree.hysteresis(.95, .8, width, height);
+		ByteProcessor painted = new ByteProcessor(width, height);
+		painted.setValue(255);
+		painted.fill();
+		tree.paint(painted, .95, .8, 0);
+		for (int y = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++)
+			{
+				boolean inside = bounds.contains(x, y);
+				boolean expected = inside && hysteresis.get(x, y) != 0;
+				assertEquals("pixel (" + x + "," + y + ")", expected ? 0 : 255, painted.get(x, y));
+			}
+		}
+	}
+
+	/**
+	 * Creates a smooth random field of bright and dark colors, with noise.
+	 */
+	private static final ColorProcessor createNoisyField(int width, int height)
+	{
+		Random random = new Random(42);
+		float[] values = HysteresisThresholdTest.createSmoothRandomField(width, height, 24, random);
+		ColorProcessor image = new ColorProcessor(width, height);
+		for (int i = 0; i < values.length; i++)
+		{
+			int level = (int) (255 * values[i]);
+			int r = Math.min(level + random.nextInt(3), 255);
+			int g = Math.min(level + random.nextInt(3), 255);
+			int b = Math.min(level + random.nextInt(3), 255);
+			image.set(i, r << 16 | g << 8 | b);
+		}
+		return image;
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import inra.ijpb.segment.Threshold;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author David Legland
+ *
+ */
+public class LumaThresholdKernelTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.LumaThresholdKernel#compute(ij.process.ColorProcessor, double, double)}.
+	 */
+	@Test
+	public void testCompute_SameAsLumaThresholds()
+	{
+		ColorProcessor image = createBrightBlocks(400, 300);
+		double holeThresholdHigh = .99;
+		double holeThresholdLow = .95;
+
+		LumaThresholdKernel kernel = LumaThresholdKernel.compute(image, holeThresholdHigh, holeThresholdLow);
+
+		// the thresholds of the luma image, as computed before the kernel
+		FloatProcessor luma = ColorUtils.computeLuma(image);
+		assertArrayEquals((byte[]) Threshold.threshold(luma, 0, 200.0 / 255.0).getPixels(),
+				(byte[]) kernel.getStemMask().getPixels());
+		assertArrayEquals((byte[]) Threshold.threshold(luma, holeThresholdHigh, 1.0).getPixels(),
+				(byte[]) kernel.getHolesHighMask().getPixels());
+		assertArrayEquals((byte[]) Threshold.threshold(luma, holeThresholdLow, 1.0).getPixels(),
+				(byte[]) kernel.getHolesLowMask().getPixels());
+		kernel.release();
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.LumaThresholdKernel#compute(inra.ijpb.appli.fasga.PlanarRGBImage, double, double)}.
+	 */
+	@Test
+	public void testCompute_PlanarSameAsPacked()
+	{
+		ColorProcessor image = createBrightBlocks(400, 300);
+
+		LumaThresholdKernel ref = LumaThresholdKernel.compute(image, .99, .95);
+		LumaThresholdKernel res = LumaThresholdKernel.compute(PlanarRGBImage.fromColorProcessor(image), .99, .95);
+
+		assertArrayEquals((byte[]) ref.getStemMask().getPixels(), (byte[]) res.getStemMask().getPixels());
+		assertArrayEquals((byte[]) ref.getHolesHighMask().getPixels(), (byte[]) res.getHolesHighMask().getPixels());
+		assertArrayEquals((byte[]) ref.getHolesLowMask().getPixels(), (byte[]) res.getHolesLowMask().getPixels());
+		assertArrayEquals(ref.getStemHistogram(), res.getStemHistogram());
+		ref.release();
+		res.release();
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.LumaThresholdKernel#getStemHistogram()}.
+	 */
+	@Test
+	public void testGetStemHistogram()
+	{
+		ColorProcessor image = createBrightBlocks(400, 300);
+
+		LumaThresholdKernel kernel = LumaThresholdKernel.compute(image, .99, .95);
+
+		// each pixel of the stem is counted once
+		long total = 0;
+		for (int count : kernel.getStemHistogram())
+		{
+			total += count;
+		}
+		long area = 0;
+		for (int i = 0; i < 400 * 300; i++)
+		{
+			if (kernel.getStemMask().get(i) != 0)
+			{
+				area++;
+			}
+		}
+		assertEquals(area, total);
+		kernel.release();
+	}
+
+	/**
+	 * Creates an image with blocks of random colors, most of them bright, as
+	 * in filtered images.
+	 */
+	private static final ColorProcessor createBrightBlocks(int width, int height)
+	{
+		ColorProcessor image = new ColorProcessor(width, height);
+		int[] pixels = (int[]) image.getPixels();
+		Random random = new Random(42);
+		int[] blockColors = new int[(width / 16 + 1) * (height / 16 + 1)];
+		for (int i = 0; i < blockColors.length; i++)
+		{
+			blockColors[i] = random.nextInt(0x1000000) | (random.nextBoolean() ? 0xF0F0F0 : 0);
+		}
+		for (int y = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++)
+			{
+				pixels[y * width + x] = blockColors[(y / 16) * (width / 16 + 1) + x / 16];
+			}
+		}
+		return image;
+	}
+}
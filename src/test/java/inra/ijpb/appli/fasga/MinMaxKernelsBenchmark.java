@@ -0,0 +1,70 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import java.util.Random;
+
+/**
+ * Compares the computation times of the scalar kernels and of the kernels
+ * chosen at runtime, on rows of the width of a large image. The vectorized
+ * kernels are chosen only if the JVM is run with the
+ * "--add-modules jdk.incubator.vector" option. The correctness of the
+ * kernels is checked by the MinMaxKernelsTest class.
+ *
+ * @author David Legland
+ *
+ */
+public class MinMaxKernelsBenchmark
+{
+	/**
+	 * Prints the time needed by the scalar and by the runtime kernels for
+	 * processing a row, for the in-place and the two-rows operations.
+	 *
+	 * @param args
+	 *            not used
+	 */
+	public static final void main(String[] args)
+	{
+		int width = 4000;
+		int nRows = 20000;
+		int nRepetitions = 5;
+
+		Random random = new Random(42);
+		byte[] source = new byte[width + 64];
+		byte[] other = new byte[width + 64];
+		byte[] target = new byte[width];
+		random.nextBytes(source);
+		random.nextBytes(other);
+
+		MinMaxKernels scalar = new MinMaxKernels.Scalar();
+		MinMaxKernels runtime = MinMaxKernels.getInstance();
+		System.out.println("Runtime kernels: " + runtime.getName());
+
+		MinMaxKernels[] kernels = new MinMaxKernels[] { scalar, runtime };
+		System.out.println("Row width: " + width + ", ns per row (best of " + nRepetitions + ")");
+		System.out.println("kernels\tmax in place\tmin of two rows");
+		for (MinMaxKernels kernel : kernels)
+		{
+			long inPlaceTime = Long.MAX_VALUE;
+			long twoRowsTime = Long.MAX_VALUE;
+			for (int r = 0; r < nRepetitions; r++)
+			{
+				long t0 = System.nanoTime();
+				for (int i = 0; i < nRows; i++)
+				{
+					kernel.max(target, source, 0, width);
+				}
+				long t1 = System.nanoTime();
+				for (int i = 0; i < nRows; i++)
+				{
+					kernel.min(source, i & 31, other, 0, target, width);
+				}
+				long t2 = System.nanoTime();
+				inPlaceTime = Math.min(inPlaceTime, t1 - t0);
+				twoRowsTime = Math.min(twoRowsTime, t2 - t1);
+			}
+			System.out.println(kernel.getName() + "\t" + (inPlaceTime / nRows) + "\t" + (twoRowsTime / nRows));
+		}
+	}
+}
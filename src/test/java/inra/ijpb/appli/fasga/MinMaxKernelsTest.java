@@ -0,0 +1,91 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author David Legland
+ *
+ */
+public class MinMaxKernelsTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.MinMaxKernels#max(byte[], int, byte[], int, byte[], int)}.
+	 */
+	@Test
+	public void testMaxMin_UnalignedOffsets()
+	{
+		// the kernels used at runtime, and the scalar ones if they differ
+		for (MinMaxKernels kernels : new MinMaxKernels[] { MinMaxKernels.getInstance(), new MinMaxKernels.Scalar() })
+		{
+			int width = 1000;
+			Random random = new Random(42);
+			byte[] source = new byte[width + 64];
+			byte[] other = new byte[width + 64];
+			random.nextBytes(source);
+			random.nextBytes(other);
+
+			byte[] target = new byte[width];
+			for (int offset = 0; offset < 40; offset++)
+			{
+				int length = width - offset;
+				kernels.max(source, offset, other, 3, target, length);
+				for (int i = 0; i < length; i++)
+				{
+					int expected = Math.max(source[offset + i] & 0xFF, other[3 + i] & 0xFF);
+					assertEquals(kernels.getName(), expected, target[i] & 0xFF);
+				}
+
+				kernels.min(source, offset, other, 3, target, length);
+				for (int i = 0; i < length; i++)
+				{
+					int expected = Math.min(source[offset + i] & 0xFF, other[3 + i] & 0xFF);
+					assertEquals(kernels.getName(), expected, target[i] & 0xFF);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.MinMaxKernels#max(byte[], byte[], int, int)}.
+	 */
+	@Test
+	public void testMaxMin_InPlace()
+	{
+		for (MinMaxKernels kernels : new MinMaxKernels[] { MinMaxKernels.getInstance(), new MinMaxKernels.Scalar() })
+		{
+			int width = 1000;
+			Random random = new Random(42);
+			byte[] source = new byte[width];
+			byte[] initial = new byte[width];
+			random.nextBytes(source);
+			random.nextBytes(initial);
+
+			for (int from = 0; from < 40; from += 7)
+			{
+				int to = width - from / 2;
+				byte[] target = initial.clone();
+				kernels.max(target, source, from, to);
+				for (int i = 0; i < width; i++)
+				{
+					int expected = i >= from && i < to ? Math.max(initial[i] & 0xFF, source[i] & 0xFF) : initial[i] & 0xFF;
+					assertEquals(kernels.getName(), expected, target[i] & 0xFF);
+				}
+
+				target = initial.clone();
+				kernels.min(target, source, from, to);
+				for (int i = 0; i < width; i++)
+				{
+					int expected = i >= from && i < to ? Math.min(initial[i] & 0xFF, source[i] & 0xFF) : initial[i] & 0xFF;
+					assertEquals(kernels.getName(), expected, target[i] & 0xFF);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Strel;
+import inra.ijpb.morphology.strel.OctagonStrel;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author David Legland
+ *
+ */
+public class OctagonMorphologyTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.OctagonMorphology#dilation(ij.process.ImageProcessor)}.
+	 */
+	@Test
+	public void testDilationErosion_SameAsOctagonStrel()
+	{
+		Random random = new Random(42);
+		for (int radius = 1; radius <= 30; radius++)
+		{
+			int width = 20 + random.nextInt(80);
+			int height = 20 + random.nextInt(80);
+			ByteProcessor image = createRandomImage(width, height, random);
+
+			OctagonMorphology morpho = new OctagonMorphology(radius);
+			Strel strel = OctagonStrel.fromRadius(radius);
+			strel.showProgress(false);
+
+			// all pixels are compared, including the ones close to the borders
+			String msg = "radius " + radius;
+			assertArrayEquals(msg, (byte[]) strel.dilation(image).getPixels(),
+					(byte[]) morpho.dilation(image).getPixels());
+			assertArrayEquals(msg, (byte[]) strel.erosion(image).getPixels(),
+					(byte[]) morpho.erosion(image).getPixels());
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.OctagonMorphology#closing(ij.process.ImageProcessor)}.
+	 */
+	@Test
+	public void testClosingOpening_SameAsOctagonStrel()
+	{
+		Random random = new Random(42);
+		for (int radius = 1; radius <= 16; radius += 3)
+		{
+			ByteProcessor image = createRandomImage(90, 70, random);
+
+			OctagonMorphology morpho = new OctagonMorphology(radius);
+			Strel strel = OctagonStrel.fromRadius(radius);
+			strel.showProgress(false);
+
+			String msg = "radius " + radius;
+			assertArrayEquals(msg, (byte[]) strel.closing(image).getPixels(),
+					(byte[]) morpho.closing(image).getPixels());
+			assertArrayEquals(msg, (byte[]) strel.opening(image).getPixels(),
+					(byte[]) morpho.opening(image).getPixels());
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.OctagonMorphology#closing(byte[], int, int)}.
+	 */
+	@Test
+	public void testClosingOpening_Composition()
+	{
+		int width = 120;
+		int height = 80;
+		byte[] pixels = new byte[width * height];
+		new Random(42).nextBytes(pixels);
+		OctagonMorphology morpho = new OctagonMorphology(5);
+
+		byte[] expected = pixels.clone();
+		morpho.dilation(expected, width, height);
+		morpho.erosion(expected, width, height);
+		byte[] closed = pixels.clone();
+		morpho.closing(closed, width, height);
+		assertArrayEquals(expected, closed);
+
+		expected = pixels.clone();
+		morpho.erosion(expected, width, height);
+		morpho.dilation(expected, width, height);
+		byte[] opened = pixels.clone();
+		morpho.opening(opened, width, height);
+		assertArrayEquals(expected, opened);
+
+		// the image version gives the same result, without modifying input
+		ByteProcessor image = new ByteProcessor(width, height, pixels.clone());
+		ImageProcessor result = morpho.closing(image);
+		assertArrayEquals(closed, (byte[]) result.getPixels());
+		assertArrayEquals(pixels, (byte[]) image.getPixels());
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.OctagonMorphology#OctagonMorphology(int)}.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testOctagonMorphology_NegativeRadius()
+	{
+		new OctagonMorphology(-1);
+	}
+
+	private static final ByteProcessor createRandomImage(int width, int height, Random random)
+	{
+		byte[] pixels = new byte[width * height];
+		random.nextBytes(pixels);
+		return new ByteProcessor(width, height, pixels);
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import static org.junit.Assert.assertEquals;
+
+import ij.process.ColorProcessor;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author David Legland
+ *
+ */
+public class QuantifFasga2PluginTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.QuantifFasga2Plugin#quantifySlide(ij.process.ColorProcessor, boolean)}.
+	 */
+	@Test
+	public void testQuantifySlide_NoAllocationForSecondSlide()
+	{
+		int width = 600;
+		int height = 500;
+		// start from an empty pool, without the buffers of the other tests
+		BufferPool pool = BufferPool.getInstance();
+		pool.clear();
+		pool.fitToImage(width, height);
+
+		QuantifFasga2Plugin.quantifySlide(createSlide(width, height, new Random(1)), false);
+		long misses = pool.getMisses();
+
+		// the buffers of the first slide are reused for a slide with the same size
+		QuantifFasga2Plugin.quantifySlide(createSlide(width, height, new Random(2)), false);
+		assertEquals(misses, pool.getMisses());
+	}
+
+	/**
+	 * Creates a light slide containing a disk-shaped stem, with red rind and
+	 * dark bundles, and some noise.
+	 */
+	private static final ColorProcessor createSlide(int width, int height, Random random)
+	{
+		ColorProcessor image = new ColorProcessor(width, height);
+		int xc = width / 2;
+		int yc = height / 2;
+		int radius = Math.min(width, height) / 3;
+		for (int y = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++)
+			{
+				double dist = Math.hypot(x - xc, y - yc);
+				int color;
+				if (dist > radius)
+					color = 0xF0F0F0;
+				else if (dist > radius - 15)
+					color = 0xC03040;
+				else if ((x / 25 + y / 25) % 4 == 0)
+					color = 0x402060;
+				else
+					color = 0x7090C0;
+				int noise = random.nextInt(9) - 4;
+				int r = Math.min(Math.max(((color >> 16) & 0xFF) + noise, 0), 255);
+				int g = Math.min(Math.max(((color >> 8) & 0xFF) + noise, 0), 255);
+				int b = Math.min(Math.max((color & 0xFF) + noise, 0), 255);
+				image.set(x, y, (r << 16) | (g << 8) | b);
+			}
+		}
+		return image;
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ij.plugin.filter.GaussianBlur;
+import ij.process.ColorProcessor;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author David Legland
+ *
+ */
+public class RecursiveGaussianTest
+{
+	/** The maximal difference with GaussianBlur, in gray levels */
+	static final int MAX_DEVIATION = 16;
+
+	/** The mean difference with GaussianBlur, in gray levels */
+	static final double MEAN_DEVIATION = 1.5;
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.RecursiveGaussian#blur(ij.process.ColorProcessor, double)}.
+	 */
+	@Test
+	public void testBlur_DeviationFromGaussianBlur()
+	{
+		ColorProcessor image = createBlobsImage(1000, 1000);
+
+		for (double sigma : new double[] { 1, 2, 4, 8, 16 })
+		{
+			ColorProcessor ref = (ColorProcessor) image.duplicate();
+			new GaussianBlur().blurGaussian(ref, sigma, sigma, .002);
+			ColorProcessor res = (ColorProcessor) image.duplicate();
+			RecursiveGaussian.blur(res, sigma);
+
+			// compute deviation over all channels
+			int[] refPixels = (int[]) ref.getPixels();
+			int[] resPixels = (int[]) res.getPixels();
+			int maxDiff = 0;
+			double sumDiff = 0;
+			for (int i = 0; i < refPixels.length; i++)
+			{
+				for (int c = 0; c < 3; c++)
+				{
+					int shift = 16 - 8 * c;
+					int diff = Math.abs(((refPixels[i] >> shift) & 0xFF) - ((resPixels[i] >> shift) & 0xFF));
+					maxDiff = Math.max(maxDiff, diff);
+					sumDiff += diff;
+				}
+			}
+			double meanDiff = sumDiff / (3.0 * refPixels.length);
+
+			assertTrue("max diff " + maxDiff + " for sigma=" + sigma, maxDiff <= MAX_DEVIATION);
+			assertTrue("mean diff " + meanDiff + " for sigma=" + sigma, meanDiff <= MEAN_DEVIATION);
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.RecursiveGaussian#blur(ij.process.ColorProcessor, double)}.
+	 */
+	@Test
+	public void testBlur_ConstantImage()
+	{
+		// as the border values are replicated, a constant image is unchanged
+		ColorProcessor image = new ColorProcessor(200, 100);
+		Arrays.fill((int[]) image.getPixels(), 0x2080C0);
+
+		RecursiveGaussian.blur(image, 5);
+
+		int[] pixels = (int[]) image.getPixels();
+		for (int i = 0; i < pixels.length; i++)
+		{
+			assertEquals(0x2080C0, pixels[i] & 0xFFFFFF);
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.RecursiveGaussian#RecursiveGaussian(double)}.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testRecursiveGaussian_SigmaTooSmall()
+	{
+		new RecursiveGaussian(RecursiveGaussian.MIN_SIGMA / 2);
+	}
+
+	/**
+	 * Creates an image of random rectangular blobs on a white background, with
+	 * sharp edges.
+	 */
+	private static final ColorProcessor createBlobsImage(int width, int height)
+	{
+		ColorProcessor image = new ColorProcessor(width, height);
+		int[] pixels = (int[]) image.getPixels();
+		Arrays.fill(pixels, 0xFFFFFF);
+		Random random = new Random(42);
+		for (int k = 0; k < 500; k++)
+		{
+			int xc = random.nextInt(width);
+			int yc = random.nextInt(height);
+			int r = 5 + random.nextInt(40);
+			int color = random.nextInt(0x1000000);
+			for (int y = Math.max(yc - r, 0); y < Math.min(yc + r, height); y++)
+			{
+				for (int x = Math.max(xc - r, 0); x < Math.min(xc + r, width); x++)
+				{
+					pixels[y * width + x] = color;
+				}
+			}
+		}
+		return image;
+	}
+}
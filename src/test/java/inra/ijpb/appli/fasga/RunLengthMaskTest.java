@@ -0,0 +1,152 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import java.awt.Rectangle;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author David Legland
+ *
+ */
+public class RunLengthMaskTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.RunLengthMask#fromImage(ij.process.ImageProcessor)}.
+	 */
+	@Test
+	public void testFromImage()
+	{
+		ByteProcessor image = createDiskWithHoles(300, 200, 1);
+
+		RunLengthMask mask = RunLengthMask.fromImage(image);
+
+		assertArrayEquals((byte[]) image.getPixels(), (byte[]) mask.toByteProcessor().getPixels());
+		assertEquals(countNonZero(image), mask.area());
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.RunLengthMask#constrain(ij.process.ImageProcessor)}.
+	 */
+	@Test
+	public void testConstrain()
+	{
+		int width = 300;
+		int height = 200;
+		ByteProcessor mask = createDiskWithHoles(width, height, 1);
+		ByteProcessor image = new ByteProcessor(width, height);
+		Random random = new Random(42);
+		for (int i = 0; i < width * height; i++)
+		{
+			image.set(i, random.nextInt(256));
+		}
+		ImageProcessor expected = image.duplicate();
+		for (int i = 0; i < width * height; i++)
+		{
+			if (mask.get(i) == 0)
+			{
+				expected.set(i, 0);
+			}
+		}
+
+		RunLengthMask.fromImage(mask).constrain(image);
+
+		assertArrayEquals((byte[]) expected.getPixels(), (byte[]) image.getPixels());
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.RunLengthMask#getBounds()}.
+	 */
+	@Test
+	public void testGetBounds()
+	{
+		ByteProcessor image = new ByteProcessor(50, 40);
+		image.set(10, 5, 255);
+		image.set(30, 20, 255);
+		image.set(12, 33, 255);
+
+		Rectangle bounds = RunLengthMask.fromImage(image).getBounds();
+
+		assertEquals(new Rectangle(10, 5, 21, 29), bounds);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.RunLengthMask#intersection(inra.ijpb.appli.fasga.RunLengthMask)}.
+	 */
+	@Test
+	public void testSetOperations()
+	{
+		int width = 300;
+		int height = 200;
+		ByteProcessor image1 = createDiskWithHoles(width, height, 1);
+		ByteProcessor image2 = createDiskWithHoles(width, height, 2);
+		RunLengthMask mask1 = RunLengthMask.fromImage(image1);
+		RunLengthMask mask2 = RunLengthMask.fromImage(image2);
+
+		ImageProcessor inter = mask1.intersection(mask2).toByteProcessor();
+		ImageProcessor union = mask1.union(mask2).toByteProcessor();
+		ImageProcessor diff = mask1.difference(mask2).toByteProcessor();
+
+		for (int i = 0; i < width * height; i++)
+		{
+			boolean b1 = image1.get(i) != 0;
+			boolean b2 = image2.get(i) != 0;
+			assertEquals(b1 && b2, inter.get(i) != 0);
+			assertEquals(b1 || b2, union.get(i) != 0);
+			assertEquals(b1 && !b2, diff.get(i) != 0);
+		}
+	}
+
+	/**
+	 * Creates a disk with a few holes, as a stem.
+	 */
+	private static final ByteProcessor createDiskWithHoles(int width, int height, int seed)
+	{
+		ByteProcessor mask = new ByteProcessor(width, height);
+		Random random = new Random(seed);
+		double xc = width * (.4 + .2 * random.nextDouble());
+		double yc = height * (.4 + .2 * random.nextDouble());
+		double radius = Math.min(width, height) * .45;
+		double[][] holes = new double[10][];
+		for (int k = 0; k < holes.length; k++)
+		{
+			holes[k] = new double[] { xc + (random.nextDouble() - .5) * radius,
+					yc + (random.nextDouble() - .5) * radius, 3 + random.nextInt(15) };
+		}
+		for (int y = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++)
+			{
+				boolean inside = Math.hypot(x - xc, y - yc) < radius;
+				for (double[] hole : holes)
+				{
+					inside = inside && Math.hypot(x - hole[0], y - hole[1]) >= hole[2];
+				}
+				mask.set(x, y, inside ? 255 : 0);
+			}
+		}
+		return mask;
+	}
+
+	private static final long countNonZero(ImageProcessor image)
+	{
+		long count = 0;
+		for (int i = 0; i < image.getPixelCount(); i++)
+		{
+			if (image.get(i) != 0)
+			{
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import java.awt.Rectangle;
+
+import org.junit.Test;
+
+/**
+ * @author David Legland
+ *
+ */
+public class StemCropTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.StemCrop#computeBounds(ij.process.ImageProcessor, int)}.
+	 */
+	@Test
+	public void testComputeBounds_IgnoresRoi()
+	{
+		ByteProcessor mask = new ByteProcessor(100, 80);
+		mask.set(10, 20, 255);
+		mask.set(60, 70, 255);
+
+		// the ROI of the image does not restrict the scan
+		mask.setRoi(0, 0, 30, 30);
+		assertEquals(new Rectangle(8, 18, 55, 55), StemCrop.computeBounds(mask, 2));
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.StemCrop#computeBounds(ij.process.ImageProcessor, int)}.
+	 */
+	@Test
+	public void testComputeBounds_ClippedToImage()
+	{
+		ByteProcessor mask = new ByteProcessor(100, 80);
+		mask.set(0, 1, 255);
+		mask.set(99, 79, 255);
+		assertEquals(new Rectangle(0, 0, 100, 80), StemCrop.computeBounds(mask, 2));
+
+		// an empty mask gives the whole image
+		assertEquals(new Rectangle(0, 0, 100, 80), StemCrop.computeBounds(new ByteProcessor(100, 80), 2));
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.StemCrop#findBounds(ij.process.ImageProcessor, java.awt.Rectangle)}.
+	 */
+	@Test
+	public void testFindBounds()
+	{
+		ByteProcessor mask = new ByteProcessor(100, 80);
+		mask.set(10, 20, 255);
+		mask.set(60, 70, 255);
+
+		assertEquals(new Rectangle(10, 20, 51, 51), StemCrop.findBounds(mask, new Rectangle(0, 0, 100, 80)));
+		assertEquals(new Rectangle(10, 20, 1, 1), StemCrop.findBounds(mask, new Rectangle(0, 0, 30, 30)));
+		assertTrue(StemCrop.findBounds(mask, new Rectangle(30, 0, 20, 80)).isEmpty());
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.StemCrop#embed(ij.process.ImageProcessor, java.awt.Rectangle, int, int)}.
+	 */
+	@Test
+	public void testCropAndEmbed()
+	{
+		ByteProcessor image = new ByteProcessor(50, 40);
+		for (int i = 0; i < 50 * 40; i++)
+		{
+			image.set(i, i % 251);
+		}
+		Rectangle bounds = new Rectangle(5, 7, 20, 10);
+
+		ImageProcessor crop = StemCrop.crop(image, bounds);
+		ImageProcessor res = StemCrop.embed(crop, bounds, 50, 40);
+		for (int y = 0; y < 40; y++)
+		{
+			for (int x = 0; x < 50; x++)
+			{
+				assertEquals(bounds.contains(x, y) ? image.get(x, y) : 0, res.get(x, y));
+			}
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import ij.plugin.filter.GaussianBlur;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author David Legland
+ *
+ */
+public class StreamingColorFilterTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.StreamingColorFilter#filter(ij.process.ColorProcessor, int, int, double)}.
+	 */
+	@Test
+	public void testFilter_SameAsNonStreamingFiltering()
+	{
+		ColorProcessor image = createRandomImage(150, 110, new Random(42));
+
+		ImageProcessor expected = Fasga2MorphoFilteringPlugin.computeFilteredImage(image, 3, 5, 3.0);
+		ColorProcessor result = StreamingColorFilter.filter(image, 3, 5, 3.0);
+
+		assertArrayEquals((int[]) expected.getPixels(), (int[]) result.getPixels());
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.StreamingColorFilter#filter(ij.process.ColorProcessor, int, int, double)}.
+	 */
+	@Test
+	public void testFilter_SmoothingSameAsGaussianBlur()
+	{
+		// includes images smaller than the kernel
+		Random random = new Random(42);
+		int[][] sizes = { { 80, 60 }, { 7, 90 }, { 90, 5 }, { 1, 1 } };
+		double[] sigmas = { 1.0, 2.5, 4.0, TiledColorFilter.MAX_TILED_SIGMA };
+		for (int[] size : sizes)
+		{
+			for (double sigma : sigmas)
+			{
+				ColorProcessor image = createRandomImage(size[0], size[1], random);
+				ColorProcessor expected = (ColorProcessor) image.duplicate();
+				new GaussianBlur().blurGaussian(expected, sigma, sigma, TiledColorFilter.GAUSSIAN_ACCURACY);
+
+				ColorProcessor result = StreamingColorFilter.filter(image, 0, 0, sigma);
+
+				String msg = size[0] + "x" + size[1] + ", sigma " + sigma;
+				assertArrayEquals(msg, (int[]) expected.getPixels(), (int[]) result.getPixels());
+			}
+		}
+	}
+
+	private static final ColorProcessor createRandomImage(int width, int height, Random random)
+	{
+		int[] pixels = new int[width * height];
+		for (int i = 0; i < pixels.length; i++)
+		{
+			pixels[i] = random.nextInt(0x1000000);
+		}
+		return new ColorProcessor(width, height, pixels);
+	}
+}
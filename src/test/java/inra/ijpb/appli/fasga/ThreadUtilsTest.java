@@ -0,0 +1,84 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author David Legland
+ *
+ */
+public class ThreadUtilsTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.ThreadUtils#invokeAll(java.util.Collection, int)}.
+	 */
+	@Test
+	public void testInvokeAll_NumberOfThreadsIsRespected()
+	{
+		final AtomicInteger nRunning = new AtomicInteger(0);
+		final AtomicInteger maxRunning = new AtomicInteger(0);
+		final AtomicInteger nDone = new AtomicInteger(0);
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int i = 0; i < 20; i++)
+		{
+			tasks.add(new Callable<Void>()
+			{
+				@Override
+				public Void call() throws Exception
+				{
+					int n = nRunning.incrementAndGet();
+					synchronized (maxRunning)
+					{
+						maxRunning.set(Math.max(maxRunning.get(), n));
+					}
+					Thread.sleep(5);
+					nRunning.decrementAndGet();
+					nDone.incrementAndGet();
+					return null;
+				}
+			});
+		}
+
+		ThreadUtils.invokeAll(tasks, 2);
+
+		assertEquals(20, nDone.get());
+		assertTrue(maxRunning.get() <= 2);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.ThreadUtils#invokeAll(java.util.Collection, int)}.
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void testInvokeAll_FailureIsPropagated()
+	{
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int i = 0; i < 5; i++)
+		{
+			final int index = i;
+			tasks.add(new Callable<Void>()
+			{
+				@Override
+				public Void call()
+				{
+					if (index == 2)
+					{
+						throw new IllegalStateException("failure of task " + index);
+					}
+					return null;
+				}
+			});
+		}
+
+		ThreadUtils.invokeAll(tasks, 3);
+	}
+}
@@ -0,0 +1,95 @@
+/**
+ *
+ */
+package inra.ijpb.appli.fasga;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * @author David Legland
+ *
+ */
+public class TiledColorFilterTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.TiledColorFilter#setSkipBackground(boolean)}.
+	 */
+	@Test
+	public void testProcess_SkipBackgroundSameAsNoSkip()
+	{
+		ColorProcessor image = createWhiteSlide();
+
+		// with smoothing of the tiles, and with smoothing after stitching
+		for (double sigma : new double[] { 2, 6 })
+		{
+			TiledColorFilter filter = new TiledColorFilter(2, 3, sigma, 100);
+			ColorProcessor ref = (ColorProcessor) filter.process(image);
+			PlanarRGBImage planarRef = filter.processPlanar(image);
+			filter.setSkipBackground(true);
+			ColorProcessor res = (ColorProcessor) filter.process(image);
+			PlanarRGBImage planarRes = filter.processPlanar(image);
+
+			assertArrayEquals((int[]) ref.getPixels(), (int[]) res.getPixels());
+			for (int c = 0; c < 3; c++)
+			{
+				assertArrayEquals(planarRef.getPlane(c), planarRes.getPlane(c));
+			}
+			planarRef.release();
+			planarRes.release();
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.appli.fasga.TiledColorFilter#computeForegroundMask(ij.process.ColorProcessor)}.
+	 */
+	@Test
+	public void testComputeForegroundMask()
+	{
+		ColorProcessor image = createWhiteSlide();
+
+		ImageProcessor mask = TiledColorFilter.computeForegroundMask(image);
+
+		// the blocks of the stem and of the dust are foreground
+		int blockSize = TiledColorFilter.MASK_BLOCK_SIZE;
+		assertEquals(255, mask.get(50 / blockSize, 50 / blockSize));
+		assertEquals(255, mask.get(700 / blockSize, 500 / blockSize));
+
+		// the other blocks are background, so their tiles can be skipped
+		assertEquals(0, mask.get(400 / blockSize, 300 / blockSize));
+		assertEquals(0, mask.get(790 / blockSize, 10 / blockSize));
+	}
+
+	/**
+	 * Creates a slide with a saturated white background, with a dark stem
+	 * in the upper-left corner and a gray dust far from the stem.
+	 */
+	private static final ColorProcessor createWhiteSlide()
+	{
+		ColorProcessor image = new ColorProcessor(800, 600);
+		int[] pixels = (int[]) image.getPixels();
+		Arrays.fill(pixels, 0xFFFFFF);
+		for (int y = 20; y < 120; y++)
+		{
+			for (int x = 20; x < 150; x++)
+			{
+				pixels[y * 800 + x] = 0x603020;
+			}
+		}
+		for (int y = 498; y < 503; y++)
+		{
+			for (int x = 698; x < 703; x++)
+			{
+				pixels[y * 800 + x] = 0xD0D0D0;
+			}
+		}
+		return image;
+	}
+}